@@ -0,0 +1,174 @@
+/*
+ * Copyright Pawel Krawczyk (c) 2013.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package bench.org.owasp.saml;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.owasp.saml.FailureCode;
+import org.owasp.saml.Phase;
+import org.owasp.saml.SchemaCatalog;
+import org.owasp.saml.SignaturePolicy;
+import org.owasp.saml.ValidationListener;
+import org.owasp.saml.ValidationMetrics;
+import org.owasp.saml.ValidationResult;
+import org.owasp.saml.Validator;
+import org.owasp.saml.ValidatorEngine;
+import test.org.owasp.saml.SignedDocumentGenerator;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end benchmarks of {@link ValidatorEngine} on generated documents.
+ * <p>
+ * Documents are produced by {@link SignedDocumentGenerator} with a fixed seed, so results are
+ * comparable between runs, JDKs and configurations. Besides the JMH scores, the time spent in
+ * each validation {@link Phase} during the last measurement iteration is printed at the end
+ * of every trial.
+ * <p>
+ * Schemas are read from the directory given by the saml.bench.schemas system property,
+ * by default the one used by the tests.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ValidatorBenchmark {
+
+    @Param({"rsa-sha256", "rsa-sha1", "ecdsa-sha256"})
+    public String algorithm;
+
+    @Param({"1024", "65536"})
+    public int bodySize;
+
+    @Param({"1", "4"})
+    public int references;
+
+    private ValidatorEngine engine;
+    private byte[] document;
+    private byte[] tampered;
+    private volatile ValidationMetrics metrics = new ValidationMetrics();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        SignedDocumentGenerator generator = new SignedDocumentGenerator(signatureMethod(this.algorithm), 1)
+                .bodySize(this.bodySize)
+                .references(this.references);
+        this.document = generator.generate();
+        this.tampered = new String(this.document, StandardCharsets.UTF_8)
+                .replace("user@example.org", "root@example.org").getBytes(StandardCharsets.UTF_8);
+
+        File schemas = new File(System.getProperty("saml.bench.schemas", "src/test/org/owasp/saml/schemas"));
+        Validator val = new Validator(generator.getSigningKeys(), new File(schemas, "soap-envelope.xsd").getPath(),
+                "/soape:Envelope/soape:Header/wsse:Security/ds:Signature",
+                "/soape:Envelope/soape:Body");
+        val.setIdAttribute("http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-utility-1.0.xsd", "Id");
+        val.setSchemaCatalog(SchemaCatalog.fromDirectory(schemas));
+        val.setSignaturePolicy(new SignaturePolicy.Builder(SignaturePolicy.defaults()).maxReferences(this.references).build());
+        val.setValidationListener(new ValidationListener() {
+            @Override
+            public void phaseCompleted(final Phase phase, final long nanos) {
+                metrics.phaseCompleted(phase, nanos);
+            }
+
+            @Override
+            public void validationCompleted(final ValidationResult result) {
+                metrics.validationCompleted(result);
+            }
+        });
+        this.engine = val.compile();
+
+        // a benchmark of a broken setup measures nothing
+        ValidationResult result = this.engine.validate(this.document);
+        if (!result.isValid()) {
+            throw new IllegalStateException("Generated document does not validate: " + result);
+        }
+        if (this.engine.validate(this.tampered).getFailureCode() != FailureCode.REFERENCE_DIGEST_MISMATCH) {
+            throw new IllegalStateException("Tampered document is not rejected");
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void resetMetrics() {
+        this.metrics = new ValidationMetrics();
+    }
+
+    @TearDown(Level.Trial)
+    public void printMetrics() {
+        System.out.println();
+        System.out.println("Phase latencies in ns, last iteration:");
+        System.out.print(this.metrics.snapshot());
+    }
+
+    /**
+     * Documents validated per second.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public ValidationResult throughput() throws Exception {
+        return this.engine.validate(this.document);
+    }
+
+    /**
+     * Latency distribution of accepting a valid document.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public ValidationResult accept() throws Exception {
+        return this.engine.validate(this.document);
+    }
+
+    /**
+     * Latency distribution of rejecting a document with a modified body.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public ValidationResult reject() throws Exception {
+        return this.engine.validate(this.tampered);
+    }
+
+    private static String signatureMethod(final String name) {
+        switch (name) {
+            case "rsa-sha1":
+                return SignedDocumentGenerator.RSA_SHA1;
+            case "rsa-sha256":
+                return SignedDocumentGenerator.RSA_SHA256;
+            case "ecdsa-sha256":
+                return SignedDocumentGenerator.ECDSA_SHA256;
+            default:
+                throw new IllegalArgumentException("Unknown algorithm " + name);
+        }
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ValidatorBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright Pawel Krawczyk (c) 2014.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.saml;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Non-blocking facade of a {@link ValidatorEngine} with admission control.
+ * <p>
+ * Documents are validated on a dedicated pool of worker threads with a bounded queue.
+ * When all workers are busy and the queue is full, new documents are rejected at once
+ * with a future failed with {@link RejectedExecutionException}, instead of queueing
+ * without bound and timing out later after the expensive work was done anyway. A
+ * document may be given a deadline: if it has not started by then, its future fails
+ * with {@link TimeoutException} and it is never validated. Cancelling the future has
+ * the same effect.
+ * <p>
+ * Validation errors thrown by the engine fail the future with the same exception.
+ */
+public final class AsyncValidator implements AutoCloseable {
+
+    private final static Logger LOG = Logger.getLogger(AsyncValidator.class.getName());
+
+    private final ValidatorEngine engine;
+    private final ThreadPoolExecutor executor;
+    private final ScheduledThreadPoolExecutor deadlines;
+    private final int maxInFlight;
+
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+
+    /**
+     * @param engine    compiled validator
+     * @param threads   number of worker threads
+     * @param maxQueued number of documents that may wait for a worker; at most threads + maxQueued
+     *                  documents are in flight at any time
+     */
+    public AsyncValidator(final ValidatorEngine engine, final int threads, final int maxQueued) {
+        if (threads < 1 || maxQueued < 0) {
+            throw new IllegalArgumentException("threads must be positive and maxQueued not negative");
+        }
+        this.engine = engine;
+        this.maxInFlight = threads + maxQueued;
+        // a synchronous hand-off queue where nothing may wait, a bounded one otherwise
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                maxQueued == 0 ? new SynchronousQueue<Runnable>() : new ArrayBlockingQueue<Runnable>(maxQueued),
+                new Workers("saml-validator-"), new ThreadPoolExecutor.AbortPolicy());
+        this.deadlines = new ScheduledThreadPoolExecutor(1, new Workers("saml-validator-deadline-"));
+        this.deadlines.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Validates a document without a deadline.
+     *
+     * @param input the input document for validation; it must not be modified until the future completes
+     * @return future of the validation result
+     */
+    public CompletableFuture<ValidationResult> validateAsync(final byte[] input) {
+        return validateAsync(input, 0, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Validates a document unless it cannot start within the timeout.
+     *
+     * @param input   the input document for validation; it must not be modified until the future completes
+     * @param timeout time the document may wait for a worker, 0 for no limit
+     * @param unit    unit of timeout
+     * @return future of the validation result
+     */
+    public CompletableFuture<ValidationResult> validateAsync(final byte[] input, final long timeout, final TimeUnit unit) {
+        final CompletableFuture<ValidationResult> future = new CompletableFuture<>();
+        // taken by whichever comes first, the worker starting the document or the deadline expiring it
+        final AtomicBoolean claimed = new AtomicBoolean();
+
+        final ScheduledFuture<?> deadline;
+        if (timeout > 0) {
+            deadline = this.deadlines.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (!claimed.compareAndSet(false, true)) {
+                        return;
+                    }
+                    // counted first so that the count is up to date when the caller sees the timeout
+                    expired.increment();
+                    if (!future.completeExceptionally(new TimeoutException("Validation did not start within " + timeout + " " + unit))) {
+                        expired.decrement();
+                    }
+                }
+            }, timeout, unit);
+        } else {
+            deadline = null;
+        }
+
+        try {
+            this.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    // expired or cancelled while queued
+                    if (!claimed.compareAndSet(false, true) || future.isDone()) {
+                        return;
+                    }
+                    if (deadline != null) {
+                        deadline.cancel(false);
+                    }
+                    try {
+                        future.complete(engine.validate(input));
+                    } catch (Throwable e) {
+                        // errors too, or callers waiting without a timeout would wait forever
+                        future.completeExceptionally(e);
+                    } finally {
+                        completed.increment();
+                    }
+                }
+            });
+            this.accepted.increment();
+        } catch (RejectedExecutionException e) {
+            if (deadline != null) {
+                deadline.cancel(false);
+            }
+            this.rejected.increment();
+            LOG.fine("Validation rejected, " + getActive() + " active and " + getQueued() + " queued");
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * @return maximum number of documents running or queued at the same time
+     */
+    public int getMaxInFlight() {
+        return this.maxInFlight;
+    }
+
+    /**
+     * @return number of documents being validated now
+     */
+    public int getActive() {
+        return this.executor.getActiveCount();
+    }
+
+    /**
+     * @return number of documents waiting for a worker
+     */
+    public int getQueued() {
+        return this.executor.getQueue().size();
+    }
+
+    /**
+     * @return number of documents accepted for validation
+     */
+    public long getAccepted() {
+        return this.accepted.sum();
+    }
+
+    /**
+     * @return number of documents rejected because all workers were busy and the queue was full
+     */
+    public long getRejected() {
+        return this.rejected.sum();
+    }
+
+    /**
+     * @return number of accepted documents whose deadline passed before they started
+     */
+    public long getExpired() {
+        return this.expired.sum();
+    }
+
+    /**
+     * @return number of documents validated, whatever the outcome
+     */
+    public long getCompleted() {
+        return this.completed.sum();
+    }
+
+    /**
+     * Stops accepting documents. Documents already accepted are still validated.
+     */
+    @Override
+    public void close() {
+        this.executor.shutdown();
+        this.deadlines.shutdown();
+    }
+
+    private static final class Workers implements ThreadFactory {
+
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        Workers(final String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            Thread thread = new Thread(r, this.prefix + this.count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+}
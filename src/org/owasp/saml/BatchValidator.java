@@ -0,0 +1,225 @@
+/*
+ * Copyright Pawel Krawczyk (c) 2014.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.saml;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Logger;
+
+/**
+ * Validates many documents in parallel with one shared {@link ValidatorEngine}.
+ * <p>
+ * Work is handed to a configurable {@link Executor}, such as a fork-join pool or, on
+ * newer JDKs, a virtual-thread-per-task executor. The number of documents being
+ * validated at the same time is bounded, so large archives do not have to be held
+ * in memory at once. Every document gets its own {@link Result}; one broken file
+ * does not stop the batch.
+ */
+public final class BatchValidator implements AutoCloseable {
+
+    private final static Logger LOG = Logger.getLogger(BatchValidator.class.getName());
+
+    private final ValidatorEngine engine;
+    private final Executor executor;
+    private final int maxInFlight;
+    private final boolean ownsExecutor;
+
+    /**
+     * @param engine      compiled validator shared by all tasks
+     * @param executor    executor running the validations; it is not shut down by this class
+     * @param maxInFlight maximum number of documents submitted but not yet validated
+     */
+    public BatchValidator(final ValidatorEngine engine, final Executor executor, final int maxInFlight) {
+        this(engine, executor, maxInFlight, false);
+    }
+
+    private BatchValidator(final ValidatorEngine engine, final Executor executor, final int maxInFlight, final boolean ownsExecutor) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be positive");
+        }
+        this.engine = engine;
+        this.executor = executor;
+        this.maxInFlight = maxInFlight;
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    /**
+     * Creates a batch validator with its own fork-join pool, which is shut down by {@link #close()}.
+     *
+     * @param engine      compiled validator shared by all tasks
+     * @param parallelism number of worker threads, for example the number of processors
+     * @return the batch validator
+     */
+    public static BatchValidator forkJoin(final ValidatorEngine engine, final int parallelism) {
+        return new BatchValidator(engine, new ForkJoinPool(parallelism), parallelism * 2, true);
+    }
+
+    /**
+     * Validates all regular files in a directory matching a glob pattern.
+     *
+     * @param directory directory with the documents
+     * @param glob      file name pattern, for example "*.xml"
+     * @return one result per document, sorted by file name
+     * @throws IOException          if the directory cannot be listed
+     * @throws InterruptedException if interrupted while waiting for the results
+     */
+    public List<Result> validateDirectory(final Path directory, final String glob) throws IOException, InterruptedException {
+        List<Path> documents = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, glob)) {
+            for (Path path : stream) {
+                if (Files.isRegularFile(path)) {
+                    documents.add(path);
+                }
+            }
+        }
+        Collections.sort(documents);
+        return validate(documents);
+    }
+
+    /**
+     * Validates the given documents.
+     *
+     * @param documents document files
+     * @return one result per document, in the order of the collection
+     * @throws InterruptedException if interrupted while waiting for the results
+     */
+    public List<Result> validate(final Collection<Path> documents) throws InterruptedException {
+        final Result[] results = new Result[documents.size()];
+        final Semaphore inFlight = new Semaphore(this.maxInFlight);
+        final CountDownLatch done = new CountDownLatch(results.length);
+
+        int i = 0;
+        for (final Path document : documents) {
+            final int index = i++;
+            inFlight.acquire();
+            Runnable task = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        results[index] = validate(document);
+                    } finally {
+                        inFlight.release();
+                        done.countDown();
+                    }
+                }
+            };
+            try {
+                this.executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                results[index] = new Result(document, null, e);
+                inFlight.release();
+                done.countDown();
+            }
+        }
+
+        done.await();
+        return Collections.unmodifiableList(Arrays.asList(results));
+    }
+
+    /*
+     * The file is memory-mapped rather than read into the heap, so that the engine's resource limits
+     * stop an oversized file before it takes the memory of the whole batch. Errors are reported like
+     * exceptions: deeply nested documents or a failing listener must not take the batch down or leave
+     * it without a result.
+     */
+    private Result validate(final Path document) {
+        try {
+            return new Result(document, this.engine.validate(document), null);
+        } catch (Throwable e) {
+            LOG.fine("Validation of " + document + " failed: " + e);
+            return new Result(document, null, e);
+        }
+    }
+
+    /**
+     * Shuts down the executor if it was created by {@link #forkJoin(ValidatorEngine, int)}.
+     */
+    @Override
+    public void close() {
+        if (this.ownsExecutor) {
+            ((ExecutorService) this.executor).shutdown();
+        }
+    }
+
+    /**
+     * Outcome of validating one document of a batch.
+     */
+    public static final class Result {
+
+        private final Path document;
+        private final ValidationResult result;
+        private final Throwable error;
+
+        Result(final Path document, final ValidationResult result, final Throwable error) {
+            this.document = document;
+            this.result = result;
+            this.error = error;
+        }
+
+        /**
+         * @return the validated document
+         */
+        public Path getDocument() {
+            return this.document;
+        }
+
+        /**
+         * @return true if the document passed schema and signature validation
+         */
+        public boolean isValid() {
+            return this.result != null && this.result.isValid();
+        }
+
+        /**
+         * @return the validation result, null if validation ended with an error
+         */
+        public ValidationResult getResult() {
+            return this.result;
+        }
+
+        /**
+         * @return the exception that ended validation (parser, I/O or signature errors), null if there was none
+         */
+        public Throwable getError() {
+            return this.error;
+        }
+
+        /**
+         * @return human readable reason why the document was rejected, null if it is valid
+         */
+        public String getReason() {
+            if (this.error != null) {
+                return this.error.toString();
+            }
+            return isValid() ? null : this.result.getFailureCode() + ": " + this.result.getDetail();
+        }
+
+        @Override
+        public String toString() {
+            return this.document + ": " + (isValid() ? "valid" : getReason());
+        }
+    }
+
+}
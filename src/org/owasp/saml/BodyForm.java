@@ -0,0 +1,49 @@
+/*
+ * Copyright Pawel Krawczyk (c) 2014.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.saml;
+
+/**
+ * Form in which {@link ValidatorEngine} returns the validated content.
+ * <p>
+ * Only {@link #LIVE} keeps the parsed document reachable after validation; with the other
+ * forms the DOM can be collected as soon as {@code validate()} returns, which matters when
+ * many results are queued or cached.
+ *
+ * @see Validator#setBodyForm(BodyForm)
+ */
+public enum BodyForm {
+
+    /**
+     * The body element of the parsed document, see {@link ValidationResult#getBody()}. The whole
+     * document stays in memory for as long as the element is referenced.
+     */
+    LIVE,
+
+    /**
+     * A copy of the body element in a new document of its own, with the namespace declarations
+     * inherited from its ancestors, see {@link ValidationResult#getBody()}.
+     */
+    DETACHED,
+
+    /**
+     * The canonicalized bytes the body digest was computed over, see
+     * {@link ValidationResult#getSignedBytes()}. No element is returned.
+     */
+    CANONICAL,
+
+    /**
+     * Issuer, subject, validity and attributes of the first SAML assertion in the body, see
+     * {@link ValidationResult#getClaims()}. No element is returned.
+     */
+    CLAIMS
+
+}
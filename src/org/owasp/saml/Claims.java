@@ -0,0 +1,103 @@
+/*
+ * Copyright Pawel Krawczyk (c) 2014.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.saml;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable summary of the first SAML 1.1 or 2.0 assertion in a validated body, returned
+ * instead of the body element with {@link BodyForm#CLAIMS}.
+ * <p>
+ * The values are copied out of the document in a single pass, so the document itself need
+ * not be kept. Assertion conditions are reported, not enforced.
+ */
+public final class Claims {
+
+    private final String assertionId;
+    private final String issuer;
+    private final String subject;
+    private final long notBefore;
+    private final long notOnOrAfter;
+    private final Map<String, List<String>> attributes;
+
+    Claims(final String assertionId, final String issuer, final String subject, final long notBefore,
+           final long notOnOrAfter, final Map<String, List<String>> attributes) {
+        this.assertionId = assertionId;
+        this.issuer = issuer;
+        this.subject = subject;
+        this.notBefore = notBefore;
+        this.notOnOrAfter = notOnOrAfter;
+        this.attributes = attributes;
+    }
+
+    /**
+     * @return ID of the assertion (AssertionID in SAML 1.1), null if the body has no assertion
+     */
+    public String getAssertionId() {
+        return this.assertionId;
+    }
+
+    /**
+     * @return issuer of the assertion, null if there is none
+     */
+    public String getIssuer() {
+        return this.issuer;
+    }
+
+    /**
+     * @return subject NameID (NameIdentifier in SAML 1.1), null if there is none
+     */
+    public String getSubject() {
+        return this.subject;
+    }
+
+    /**
+     * @return NotBefore of the assertion conditions in milliseconds since the epoch, Long.MIN_VALUE
+     * if there is none; unparseable values are reported as Long.MAX_VALUE
+     */
+    public long getNotBefore() {
+        return this.notBefore;
+    }
+
+    /**
+     * @return NotOnOrAfter of the assertion conditions in milliseconds since the epoch, Long.MAX_VALUE
+     * if there is none; unparseable values are reported as Long.MIN_VALUE
+     */
+    public long getNotOnOrAfter() {
+        return this.notOnOrAfter;
+    }
+
+    /**
+     * @return attribute values by attribute name, in document order; empty if there are none
+     */
+    public Map<String, List<String>> getAttributes() {
+        return this.attributes;
+    }
+
+    /**
+     * @param name attribute name
+     * @return values of the attribute, empty if the assertion does not have it
+     */
+    public List<String> getAttribute(final String name) {
+        List<String> values = this.attributes.get(name);
+        return values != null ? values : Collections.<String>emptyList();
+    }
+
+    @Override
+    public String toString() {
+        return "Claims{id=" + this.assertionId + ", issuer=" + this.issuer + ", subject=" + this.subject
+                + ", attributes=" + this.attributes.keySet() + "}";
+    }
+
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright Pawel Krawczyk (c) 2014.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.saml;
+
+/**
+ * How much work {@link ValidatorEngine} spends on explaining a failed signature.
+ *
+ * @see Validator#setDiagnosticsMode(DiagnosticsMode)
+ * @see ValidationResult#getForensics()
+ */
+public enum DiagnosticsMode {
+
+    /**
+     * Stop at the first failed check. Rejecting a document never costs more than accepting it.
+     */
+    FAST_REJECT,
+
+    /**
+     * Collect full forensics for one in every N signature failures, see
+     * {@link Validator#setDiagnosticsSampleRate(int)}; the rest are rejected as in {@link #FAST_REJECT}.
+     */
+    SAMPLED,
+
+    /**
+     * Collect full forensics for every signature failure: the signature value and every
+     * reference digest are checked and reported.
+     */
+    FULL
+
+}
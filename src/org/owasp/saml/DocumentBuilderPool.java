@@ -0,0 +1,246 @@
+/*
+ * Copyright Pawel Krawczyk (c) 2014.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.saml;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Pool of hardened, schema-validating {@link DocumentBuilder}s of one {@link ValidatorEngine}.
+ * <p>
+ * Builders are created from the engine's preconfigured factory and reused: after each
+ * parse a builder is {@link DocumentBuilder#reset() reset} and returned to the pool,
+ * unless the parse failed, in which case it is discarded and a fresh one is created
+ * when needed. Up to a fixed number of idle builders are kept; a burst of parallel
+ * validations beyond that creates extra builders that are dropped afterwards, so the
+ * pool never blocks.
+ * <p>
+ * Builders not returned within a minute are reported as leaks.
+ */
+public final class DocumentBuilderPool {
+
+    private final static Logger LOG = Logger.getLogger(DocumentBuilderPool.class.getName());
+
+    private static final long LEAK_THRESHOLD_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private static final int LEAK_CHECK_INTERVAL = 1024;
+
+    private final DocumentBuilderFactory factory;
+    private final org.xml.sax.ErrorHandler errorHandler;
+    private final org.xml.sax.EntityResolver entityResolver;
+    private final BlockingQueue<DocumentBuilder> idle;
+    private final int maxIdle;
+    private final Map<Lease, Long> leased = new ConcurrentHashMap<>();
+
+    private final LongAdder created = new LongAdder();
+    private final LongAdder reused = new LongAdder();
+    private final LongAdder discarded = new LongAdder();
+    private final LongAdder leaked = new LongAdder();
+    private final AtomicLong acquisitions = new AtomicLong();
+
+    DocumentBuilderPool(final DocumentBuilderFactory factory, final org.xml.sax.ErrorHandler errorHandler,
+                        final org.xml.sax.EntityResolver entityResolver, final int maxIdle) {
+        if (maxIdle < 1) {
+            throw new IllegalArgumentException("parser pool size must be positive");
+        }
+        this.factory = factory;
+        this.errorHandler = errorHandler;
+        this.entityResolver = entityResolver;
+        this.maxIdle = maxIdle;
+        this.idle = new ArrayBlockingQueue<>(maxIdle);
+    }
+
+    /*
+     * Hands out an idle builder or creates a new one. The lease must be closed when the parse is done.
+     */
+    Lease acquire() throws ParserConfigurationException {
+        if (this.acquisitions.incrementAndGet() % LEAK_CHECK_INTERVAL == 0) {
+            detectLeaks();
+        }
+        DocumentBuilder builder = this.idle.poll();
+        if (builder != null) {
+            this.reused.increment();
+        } else {
+            builder = create();
+        }
+        Lease lease = new Lease(builder);
+        this.leased.put(lease, System.nanoTime());
+        return lease;
+    }
+
+    /*
+     * Creates idle builders up to the pool size, so that the first documents do not pay for it.
+     */
+    void prefill() throws ParserConfigurationException {
+        while (this.idle.size() < this.maxIdle) {
+            if (!this.idle.offer(create())) {
+                break;
+            }
+        }
+    }
+
+    private DocumentBuilder create() throws ParserConfigurationException {
+        /*
+         * Create XML parser object from the shared, preconfigured factory. The factory itself
+         * is not guaranteed to be thread-safe, builders are used by one thread at a time.
+         */
+        DocumentBuilder builder;
+        synchronized (this.factory) {
+            builder = this.factory.newDocumentBuilder();
+        }
+        this.created.increment();
+        configure(builder);
+        return builder;
+    }
+
+    private void configure(final DocumentBuilder builder) {
+        /*
+         * Assign a separate error handler to the XML parses. This wouldn't be really necessary
+         * but it's Java requirement. If you use validation (and we do) you need to have an
+         * error handler. Our error handler will just print what happened.
+         */
+        builder.setErrorHandler(this.errorHandler);
+
+        /*
+         * Configure an entity resolver, function that will return appropriate schemas
+         * to the parser on demand. This is needed for two reasons:
+         * 1) parser would normally download them automatically, but it usually takes a lot of time and they are not cached;
+         * 2) schemas that are referenced with non-URL addresses (not "http://") cannot be downloaded automatically
+         */
+        builder.setEntityResolver(this.entityResolver);
+    }
+
+    private void release(final Lease lease, final boolean broken) {
+        if (this.leased.remove(lease) == null) {
+            // closed twice, or already reported as leaked
+            return;
+        }
+        if (broken) {
+            this.discarded.increment();
+            return;
+        }
+        try {
+            lease.builder.reset();
+        } catch (UnsupportedOperationException e) {
+            this.discarded.increment();
+            return;
+        }
+        // reset() may drop the handlers set after creation
+        configure(lease.builder);
+        if (!this.idle.offer(lease.builder)) {
+            this.discarded.increment();
+        }
+    }
+
+    private void detectLeaks() {
+        long now = System.nanoTime();
+        for (Map.Entry<Lease, Long> entry : this.leased.entrySet()) {
+            if (now - entry.getValue() > LEAK_THRESHOLD_NANOS && this.leased.remove(entry.getKey(), entry.getValue())) {
+                this.leaked.increment();
+                LOG.warning("DocumentBuilder leased by " + entry.getKey().thread + " not returned for "
+                        + TimeUnit.NANOSECONDS.toSeconds(now - entry.getValue()) + "s");
+            }
+        }
+    }
+
+    /**
+     * @return maximum number of idle builders kept
+     */
+    public int getMaxIdle() {
+        return this.maxIdle;
+    }
+
+    /**
+     * @return number of builders waiting in the pool
+     */
+    public int getIdle() {
+        return this.idle.size();
+    }
+
+    /**
+     * @return number of builders currently handed out
+     */
+    public int getLeased() {
+        return this.leased.size();
+    }
+
+    /**
+     * @return number of builders created since the engine was compiled
+     */
+    public long getCreated() {
+        return this.created.sum();
+    }
+
+    /**
+     * @return number of times an idle builder was reused instead of creating one
+     */
+    public long getReused() {
+        return this.reused.sum();
+    }
+
+    /**
+     * @return number of builders dropped after a failed parse or because the pool was full
+     */
+    public long getDiscarded() {
+        return this.discarded.sum();
+    }
+
+    /**
+     * @return number of builders that were not returned in time
+     */
+    public long getLeaked() {
+        return this.leaked.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "idle=" + getIdle() + "/" + this.maxIdle + " leased=" + getLeased() + " created=" + getCreated()
+                + " reused=" + getReused() + " discarded=" + getDiscarded() + " leaked=" + getLeaked();
+    }
+
+    /*
+     * A builder handed out to one thread. Closing the lease returns the builder to the pool, or drops
+     * it if discard() was called because the parse failed and the builder may be in an odd state.
+     */
+    final class Lease implements AutoCloseable {
+
+        private final DocumentBuilder builder;
+        private final String thread = Thread.currentThread().getName();
+        private boolean broken;
+
+        private Lease(final DocumentBuilder builder) {
+            this.builder = builder;
+        }
+
+        DocumentBuilder builder() {
+            return this.builder;
+        }
+
+        void discard() {
+            this.broken = true;
+        }
+
+        @Override
+        public void close() {
+            release(this, this.broken);
+        }
+    }
+
+}
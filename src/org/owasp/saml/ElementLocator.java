@@ -0,0 +1,162 @@
+/*
+ * Copyright Pawel Krawczyk (c) 2014.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.saml;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.xml.namespace.NamespaceContext;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Compiled form of the simple absolute paths accepted by Validator, such as /soape:Envelope/soape:Body.
+ *
+ * Each step selects the first child element with the given local name and namespace, which is what the
+ * hardened XPath expression /*[local-name()="Envelope" and namespace-uri()="..."][1]/... used to do,
+ * but the path is parsed once and walked directly on the DOM without an XPath engine. Selecting the first
+ * matching element at each level, instead of any matching element, is one of the safeguards against
+ * signature wrapping.
+ *
+ * Reference: http://www.nds.ruhr-uni-bochum.de/research/publications/xspres-closer/
+ */
+final class ElementLocator {
+
+    private final String path;
+    private final Step[] steps;
+
+    private ElementLocator(final String path, final Step[] steps) {
+        this.path = path;
+        this.steps = steps;
+    }
+
+    /*
+     * Only supports /a/b and /ns1:a/ns2:b syntax (with any number of any levels). The path must be
+     * absolute, i.e. it must start from /
+     */
+    static ElementLocator compile(final String path) {
+        if (path == null || !path.startsWith("/")) {
+            throw new IllegalArgumentException("XPath must be absolute (start with /): " + path);
+        }
+
+        List<Step> steps = new ArrayList<>();
+        for (String part : path.split("/")) {
+            // we get ["soape:Envelope", ...]
+            if (part.length() == 0) {
+                continue;
+            }
+            String[] elemparts = part.split(":", -1);
+            // we get ["soape", "Envelope"]
+            if (elemparts.length == 1 && isName(elemparts[0])) {
+                // no namespace
+                steps.add(new Step(null, elemparts[0]));
+            } else if (elemparts.length == 2 && isName(elemparts[1])) {
+                // with namespace, possibly the default one
+                steps.add(new Step(elemparts[0], elemparts[1]));
+            } else {
+                throw new IllegalArgumentException("invalid XPath syntax: " + part);
+            }
+        }
+        if (steps.isEmpty()) {
+            throw new IllegalArgumentException("XPath selects no element: " + path);
+        }
+        return new ElementLocator(path, steps.toArray(new Step[steps.size()]));
+    }
+
+    private static boolean isName(final String name) {
+        if (name.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == '[' || c == ']' || c == '(' || c == ')' || c == '@' || c == '*' || c == '"' || c == '\'' || Character.isWhitespace(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Returns the selected element or null if the document has no such element. Prefixes are
+     * resolved through the supplied context for each document.
+     */
+    Element locate(final Document doc, final NamespaceContext namespaces) {
+        Element current = doc.getDocumentElement();
+        if (current == null || !this.steps[0].matches(current, namespaces)) {
+            return null;
+        }
+        for (int i = 1; i < this.steps.length && current != null; i++) {
+            current = this.steps[i].first(current, namespaces);
+        }
+        return current;
+    }
+
+    /*
+     * Number of steps in the path; the selected element is at this depth, counting the root as 1.
+     */
+    int length() {
+        return this.steps.length;
+    }
+
+    /*
+     * Checks a single step against an element given by name, for streaming parsers that have no DOM.
+     */
+    boolean matches(final int step, final String namespaceURI, final String localName, final NamespaceContext namespaces) {
+        return this.steps[step].matches(namespaceURI, localName, namespaces);
+    }
+
+    @Override
+    public String toString() {
+        return this.path;
+    }
+
+    private static final class Step {
+
+        private final String prefix;
+        private final String localName;
+
+        Step(final String prefix, final String localName) {
+            this.prefix = prefix;
+            this.localName = localName;
+        }
+
+        Element first(final Element parent, final NamespaceContext namespaces) {
+            for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+                if (node.getNodeType() == Node.ELEMENT_NODE && matches((Element) node, namespaces)) {
+                    return (Element) node;
+                }
+            }
+            return null;
+        }
+
+        boolean matches(final Element element, final NamespaceContext namespaces) {
+            return matches(element.getNamespaceURI(), element.getLocalName(), namespaces);
+        }
+
+        boolean matches(final String namespaceURI, final String localName, final NamespaceContext namespaces) {
+            if (!this.localName.equals(localName)) {
+                return false;
+            }
+            if (this.prefix == null) {
+                return true;
+            }
+            String expected = namespaces.getNamespaceURI(this.prefix);
+            if (expected == null) {
+                // unresolvable prefix never matches
+                return false;
+            }
+            return expected.equals(namespaceURI == null ? "" : namespaceURI);
+        }
+    }
+
+}
@@ -14,50 +14,160 @@
  */
 package org.owasp.saml;
 
+import org.w3c.dom.ls.LSInput;
+import org.w3c.dom.ls.LSResourceResolver;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
-import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
-class EntityResolver implements org.xml.sax.EntityResolver {
+class EntityResolver implements org.xml.sax.EntityResolver, LSResourceResolver {
 
     private final static Logger LOG = Logger.getLogger(EntityResolver.class.getName());
 
+    private final SchemaCatalog catalog;
+
+    EntityResolver(SchemaCatalog catalog) {
+        this.catalog = catalog;
+    }
+
+    /*
+     * Only entities available in the local catalog are ever returned. Anything else is
+     * refused instead of being fetched from the network or the file system.
+     */
     @Override
     public InputSource resolveEntity (String publicId, String systemId) throws SAXException,  java.io.IOException
     {
 
-        String file = null;
-
-        if (systemId.endsWith("oasis-200401-wss-wssecurity-secext-1.0.xsd")) {
-            file = "schemas/oasis-200401-wss-wssecurity-secext-1.0.xsd";
-        } else if (systemId.endsWith("oasis-200401-wss-wssecurity-utility-1.0.xsd")) {
-            file = "schemas/oasis-200401-wss-wssecurity-utility-1.0.xsd";
-        } else if (systemId.endsWith("xml.xsd")) {
-            file = "schemas/xml.xsd";
-        } else if (systemId.endsWith("xmldsig-core-schema.xsd")) {
-            file = "schemas/xmldsig-core-schema.xsd";
-        } else if (systemId.endsWith("XMLSchema.dtd")) {
-            file = "schemas/XMLSchema.dtd";
-        } else if (systemId.endsWith("datatypes.dtd")) {
-            file = "schemas/datatypes.dtd";
-        } else if (systemId.endsWith("ws-policy.xsd")) {
-            file = "schemas/ws-policy.xsd";
-        } else if (systemId.equals("urn:oasis:names:tc:SAML:1.0:protocol")) {
-            file = "schemas/saml-schema-protocol-1.1.xsd";
-        } else if (systemId.equals("urn:oasis:names:tc:SAML:1.0:assertion")) {
-            file = "schemas/saml-schema-assertion-1.0.xsd";
-        } else if (systemId.endsWith("addressing/")) { // http://schemas.xmlsoap.org/ws/2004/08/addressing/
-            file = "schemas/addressing.xsd";
-        } else if (systemId.endsWith("oasis-200401-wss-wssecurity-secext-1.0.xsd")) {
-            file = "schemas/oasis-200401-wss-wssecurity-secext-1.0.xsd";
-        } else if (systemId.equals("urn:oasis:names:tc:SAML:2.0:assertion")) {
-            file = "schemas/saml-schema-assertion-2.0.xsd";
-        }
-
-        LOG.info("resolveEntity query: systemId=" + systemId + " publicId=" + publicId + " returns \"" + file + "\"");
-
-        return new InputSource(new FileInputStream(file));
+        InputStream in = catalog.open(publicId, systemId);
+
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.fine("resolveEntity query: systemId=" + systemId + " publicId=" + publicId + " found=" + (in != null));
+        }
+
+        if (in == null) {
+            throw new SAXException("No local copy of entity systemId=" + systemId + " publicId=" + publicId);
+        }
+
+        InputSource source = new InputSource(in);
+        source.setPublicId(publicId);
+        source.setSystemId(systemId);
+        return source;
+    }
+
+    /*
+     * Used by SchemaFactory when the initial schema imports other schemas. Imports without
+     * schemaLocation only carry the namespace, which is looked up the same way.
+     */
+    @Override
+    public LSInput resolveResource(String type, String namespaceURI, String publicId, String systemId, String baseURI) {
+
+        InputStream in = catalog.open(publicId, systemId);
+        if (in == null) {
+            in = catalog.open(null, namespaceURI);
+        }
+
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.fine("resolveResource query: namespaceURI=" + namespaceURI + " systemId=" + systemId + " found=" + (in != null));
+        }
+
+        if (in == null) {
+            return null;
+        }
+        return new Input(publicId, systemId != null ? systemId : namespaceURI, baseURI, in);
+    }
+
+    private static class Input implements LSInput {
+
+        private String publicId;
+        private String systemId;
+        private String baseURI;
+        private InputStream byteStream;
+
+        Input(String publicId, String systemId, String baseURI, InputStream byteStream) {
+            this.publicId = publicId;
+            this.systemId = systemId;
+            this.baseURI = baseURI;
+            this.byteStream = byteStream;
+        }
+
+        @Override
+        public Reader getCharacterStream() {
+            return null;
+        }
+
+        @Override
+        public void setCharacterStream(Reader characterStream) {
+        }
+
+        @Override
+        public InputStream getByteStream() {
+            return byteStream;
+        }
+
+        @Override
+        public void setByteStream(InputStream byteStream) {
+            this.byteStream = byteStream;
+        }
+
+        @Override
+        public String getStringData() {
+            return null;
+        }
+
+        @Override
+        public void setStringData(String stringData) {
+        }
+
+        @Override
+        public String getSystemId() {
+            return systemId;
+        }
+
+        @Override
+        public void setSystemId(String systemId) {
+            this.systemId = systemId;
+        }
+
+        @Override
+        public String getPublicId() {
+            return publicId;
+        }
+
+        @Override
+        public void setPublicId(String publicId) {
+            this.publicId = publicId;
+        }
+
+        @Override
+        public String getBaseURI() {
+            return baseURI;
+        }
+
+        @Override
+        public void setBaseURI(String baseURI) {
+            this.baseURI = baseURI;
+        }
+
+        @Override
+        public String getEncoding() {
+            return null;
+        }
+
+        @Override
+        public void setEncoding(String encoding) {
+        }
+
+        @Override
+        public boolean getCertifiedText() {
+            return false;
+        }
+
+        @Override
+        public void setCertifiedText(boolean certifiedText) {
+        }
     }
 }
\ No newline at end of file
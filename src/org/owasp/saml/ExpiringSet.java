@@ -0,0 +1,124 @@
+/*
+ * Copyright Pawel Krawczyk (c) 2014.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.saml;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Bounded set of keys, each remembered until its own expiry instant but no longer than a maximum
+ * time to live. Lookups are counted as hits and misses. When the set is full, expired keys are
+ * dropped first and then those closest to expiry.
+ *
+ * The owner decides what a key stands for and when it expires; VerifiedSignatureCache keeps
+ * verified signatures and PkixTrust the thumbprints of certificates with a trusted path.
+ */
+final class ExpiringSet {
+
+    private final int maxEntries;
+    private final long maxTtlMillis;
+    private final Map<String, Long> expiries = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    ExpiringSet(final int maxEntries, final long maxTtlMillis) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.maxTtlMillis = maxTtlMillis;
+    }
+
+    /*
+     * True if the key was added and has not expired.
+     */
+    boolean contains(final String key) {
+        Long expiry = this.expiries.get(key);
+        if (expiry != null && expiry > System.currentTimeMillis()) {
+            this.hits.increment();
+            return true;
+        }
+        if (expiry != null) {
+            this.expiries.remove(key, expiry);
+        }
+        this.misses.increment();
+        return false;
+    }
+
+    /*
+     * Remembers the key until expiresAt, in milliseconds since the epoch, but no longer than the
+     * maximum time to live.
+     */
+    void add(final String key, final long expiresAt) {
+        long now = System.currentTimeMillis();
+        long expiry = Math.min(expiresAt, now + this.maxTtlMillis);
+        if (expiry <= now) {
+            return;
+        }
+        if (this.expiries.size() >= this.maxEntries) {
+            evict(now);
+        }
+        this.expiries.put(key, expiry);
+    }
+
+    /*
+     * Drops expired keys and, if that is not enough, a tenth of the keys closest to expiry, so
+     * that a full set is not scanned on every insert.
+     */
+    private synchronized void evict(final long now) {
+        if (this.expiries.size() < this.maxEntries) {
+            return;
+        }
+        for (Iterator<Long> i = this.expiries.values().iterator(); i.hasNext(); ) {
+            if (i.next() <= now) {
+                i.remove();
+            }
+        }
+        int excess = this.expiries.size() - this.maxEntries + Math.max(1, this.maxEntries / 10);
+        if (excess <= 0) {
+            return;
+        }
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(this.expiries.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, Long>>() {
+            @Override
+            public int compare(final Map.Entry<String, Long> a, final Map.Entry<String, Long> b) {
+                return Long.compare(a.getValue(), b.getValue());
+            }
+        });
+        for (int i = 0; i < excess && i < entries.size(); i++) {
+            this.expiries.remove(entries.get(i).getKey(), entries.get(i).getValue());
+        }
+    }
+
+    void clear() {
+        this.expiries.clear();
+    }
+
+    int size() {
+        return this.expiries.size();
+    }
+
+    long getHits() {
+        return this.hits.sum();
+    }
+
+    long getMisses() {
+        return this.misses.sum();
+    }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright Pawel Krawczyk (c) 2014.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.saml;
+
+/**
+ * Machine-readable reason why a document was rejected.
+ */
+public enum FailureCode {
+
+    /**
+     * The document is valid.
+     */
+    NONE,
+
+    /**
+     * The document was rejected by the streaming pre-screen.
+     */
+    PRE_SCREEN_REJECTED,
+
+    /**
+     * The document is not well-formed XML or does not conform to the schema.
+     */
+    SCHEMA_INVALID,
+
+    /**
+     * The document goes over the {@link ResourceLimits}: it is too large, too deeply nested, has too
+     * many nodes or attributes, or took too long to validate.
+     */
+    RESOURCE_LIMIT,
+
+    /**
+     * The document has no issuer, or one that {@link IdpRegistry} has no configuration for.
+     */
+    UNKNOWN_ISSUER,
+
+    /**
+     * There is no element at the configured body location.
+     */
+    BODY_NOT_FOUND,
+
+    /**
+     * There is no element at the configured signature location.
+     */
+    SIGNATURE_NOT_FOUND,
+
+    /**
+     * The signature does not satisfy the {@link SignaturePolicy}, for example it references another
+     * element than the body or uses an algorithm that is not allowed.
+     */
+    POLICY_VIOLATION,
+
+    /**
+     * The certificate in the signature's KeyInfo does not chain up to a trust anchor of the
+     * {@link PkixTrust}, has expired or was revoked.
+     */
+    UNTRUSTED_CERTIFICATE,
+
+    /**
+     * The signature value does not verify with any of the trusted keys.
+     */
+    SIGNATURE_VALUE_MISMATCH,
+
+    /**
+     * The signature value is correct but a signed reference was modified.
+     */
+    REFERENCE_DIGEST_MISMATCH,
+
+    /**
+     * The signature is valid but the signed body has another issuer than the one {@link IdpRegistry}
+     * chose the configuration by.
+     */
+    ISSUER_MISMATCH,
+
+    /**
+     * The signature is valid but the same signed element was already accepted before.
+     */
+    REPLAYED
+
+}
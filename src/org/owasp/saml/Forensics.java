@@ -0,0 +1,148 @@
+/*
+ * Copyright Pawel Krawczyk (c) 2014.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.saml;
+
+import javax.xml.crypto.dsig.Reference;
+import javax.xml.crypto.dsig.XMLSignature;
+import javax.xml.crypto.dsig.XMLSignatureException;
+import javax.xml.crypto.dsig.dom.DOMValidateContext;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Detailed status of every check of a signature that failed validation, collected
+ * according to the {@link DiagnosticsMode}.
+ */
+public final class Forensics {
+
+    private final boolean signatureValueValid;
+    private final List<ReferenceCheck> references;
+
+    private Forensics(final boolean signatureValueValid, final List<ReferenceCheck> references) {
+        this.signatureValueValid = signatureValueValid;
+        this.references = Collections.unmodifiableList(references);
+    }
+
+    /*
+     * Validates all references of the signature. References already validated are not digested
+     * again, the status is cached inside them.
+     */
+    static Forensics collect(final boolean signatureValueValid, final XMLSignature signature,
+                             final DOMValidateContext context) throws XMLSignatureException {
+        List<ReferenceCheck> references = new ArrayList<>();
+        int index = 0;
+        for (Object o : signature.getSignedInfo().getReferences()) {
+            Reference reference = (Reference) o;
+            boolean valid = reference.validate(context);
+            references.add(new ReferenceCheck(index++, reference.getURI(), reference.getDigestMethod().getAlgorithm(),
+                    valid, encode(reference.getDigestValue()), encode(reference.getCalculatedDigestValue())));
+        }
+        return new Forensics(signatureValueValid, references);
+    }
+
+    private static String encode(final byte[] digest) {
+        return digest == null ? null : Base64.getEncoder().encodeToString(digest);
+    }
+
+    /**
+     * @return true if the signature value verified with one of the trusted keys
+     */
+    public boolean isSignatureValueValid() {
+        return this.signatureValueValid;
+    }
+
+    /**
+     * @return status of each reference, in document order
+     */
+    public List<ReferenceCheck> getReferences() {
+        return this.references;
+    }
+
+    @Override
+    public String toString() {
+        return "signatureValue=" + (this.signatureValueValid ? "valid" : "invalid") + " references=" + this.references;
+    }
+
+    /**
+     * Outcome of checking the digest of one signed reference.
+     */
+    public static final class ReferenceCheck {
+
+        private final int index;
+        private final String uri;
+        private final String digestAlgorithm;
+        private final boolean valid;
+        private final String expectedDigest;
+        private final String calculatedDigest;
+
+        ReferenceCheck(final int index, final String uri, final String digestAlgorithm, final boolean valid,
+                       final String expectedDigest, final String calculatedDigest) {
+            this.index = index;
+            this.uri = uri;
+            this.digestAlgorithm = digestAlgorithm;
+            this.valid = valid;
+            this.expectedDigest = expectedDigest;
+            this.calculatedDigest = calculatedDigest;
+        }
+
+        /**
+         * @return position of the reference in SignedInfo, starting from 0
+         */
+        public int getIndex() {
+            return this.index;
+        }
+
+        /**
+         * @return URI attribute of the reference
+         */
+        public String getUri() {
+            return this.uri;
+        }
+
+        /**
+         * @return URI of the DigestMethod algorithm
+         */
+        public String getDigestAlgorithm() {
+            return this.digestAlgorithm;
+        }
+
+        /**
+         * @return true if the calculated digest matches the signed one
+         */
+        public boolean isValid() {
+            return this.valid;
+        }
+
+        /**
+         * @return Base64 DigestValue from the signature
+         */
+        public String getExpectedDigest() {
+            return this.expectedDigest;
+        }
+
+        /**
+         * @return Base64 digest of the referenced content, null if it could not be calculated
+         */
+        public String getCalculatedDigest() {
+            return this.calculatedDigest;
+        }
+
+        @Override
+        public String toString() {
+            return "ref[" + this.index + "] " + this.uri + " " + (this.valid ? "valid" : "invalid expected="
+                    + this.expectedDigest + " calculated=" + this.calculatedDigest);
+        }
+    }
+
+}
@@ -0,0 +1,371 @@
+/*
+ * Copyright Pawel Krawczyk (c) 2014.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.saml;
+
+import org.xml.sax.SAXException;
+
+import javax.xml.crypto.MarshalException;
+import javax.xml.crypto.dsig.XMLSignatureException;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateException;
+import java.security.spec.InvalidKeySpecException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Validates documents from many identity providers, each with its own configuration.
+ * <p>
+ * The issuer (entity ID) of every document is read with a streaming parser that stops at the
+ * first {@code Issuer}, before the document is parsed into DOM. The configuration of that
+ * issuer is obtained from a {@link Loader} the first time it is needed, compiled into a
+ * {@link ValidatorEngine} and cached. Cached engines are evicted least recently used first
+ * when their estimated heap use goes over a budget. Compiled schemas are shared between
+ * all engines of the registry that use the same set of schema files, so a federation of
+ * thousands of partners using the same XSDs compiles them once. Each shared schema counts
+ * towards the budget once and is dropped with the last cached engine using it.
+ * <p>
+ * Documents from issuers the loader does not know are rejected as {@link FailureCode#UNKNOWN_ISSUER}.
+ * The first {@code Issuer} may come from an unsigned part of the document, so a document is only
+ * accepted if the issuer of its signed body, reported by {@link ValidationResult#getIssuer()}, is
+ * the one it was routed by; otherwise it is rejected as {@link FailureCode#ISSUER_MISMATCH}.
+ * The registry is thread-safe; an engine is compiled only once even if several threads need
+ * it at the same time.
+ */
+public final class IdpRegistry {
+
+    private final static Logger LOG = Logger.getLogger(IdpRegistry.class.getName());
+
+    /**
+     * Supplies the configuration of an identity provider.
+     */
+    public interface Loader {
+
+        /**
+         * @param issuer entity ID found in the document
+         * @return validator configuration for the issuer, null if the issuer is not trusted
+         * @throws IOException if the configuration cannot be read
+         */
+        Validator load(String issuer) throws IOException;
+    }
+
+    private final Loader loader;
+    private final long maxWeight;
+    private final SchemaCache schemas = new SchemaCache();
+    private final XMLInputFactory factory;
+
+    // guarded by this; iteration order is least recently used first
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // of the cached engines, without their schemas
+    private long weight;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param loader    source of per-issuer configurations
+     * @param maxWeight budget for the estimated heap use of the cached engines and their schemas, in
+     *                  bytes; the most recently used engine is kept even if it alone goes over the budget
+     */
+    public IdpRegistry(final Loader loader, final long maxWeight) {
+        if (maxWeight < 1) {
+            throw new IllegalArgumentException("maxWeight must be positive");
+        }
+        this.loader = loader;
+        this.maxWeight = maxWeight;
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        this.factory = factory;
+    }
+
+    /**
+     * Validates a document with the configuration of its issuer.
+     *
+     * @param input the input document for validation; the array is not modified
+     * @return validation result, never null
+     * @throws IOException if the issuer's configuration cannot be loaded or compiled
+     */
+    public ValidationResult validate(final byte[] input)
+            throws SAXException, IOException, ParserConfigurationException,
+            NoSuchAlgorithmException, CertificateException, MarshalException,
+            XMLSignatureException, InvalidKeySpecException {
+        String issuer = issuer(input);
+        if (issuer == null) {
+            return new ValidationResult.Timer(null).failure(FailureCode.UNKNOWN_ISSUER, "no issuer in the document");
+        }
+        ValidatorEngine engine = getEngine(issuer);
+        if (engine == null) {
+            LOG.warning("Document from unknown issuer " + issuer);
+            return new ValidationResult.Timer(null).failure(FailureCode.UNKNOWN_ISSUER, "unknown issuer " + issuer);
+        }
+        return engine.validate(input, issuer);
+    }
+
+    /**
+     * Returns the engine of an issuer, loading and compiling it if it is not cached.
+     *
+     * @param issuer entity ID
+     * @return the engine, null if the loader does not know the issuer
+     * @throws IOException if the configuration cannot be loaded or compiled
+     */
+    public ValidatorEngine getEngine(final String issuer) throws IOException {
+        Entry entry;
+        boolean load = false;
+        synchronized (this) {
+            entry = this.entries.get(issuer);
+            if (entry == null) {
+                entry = new Entry(issuer);
+                this.entries.put(issuer, entry);
+                load = true;
+            }
+        }
+
+        if (load) {
+            this.misses.increment();
+            entry.task.run();
+        } else {
+            this.hits.increment();
+        }
+
+        ValidatorEngine engine;
+        try {
+            engine = entry.task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading " + issuer, e);
+        } catch (ExecutionException e) {
+            remove(issuer, entry);
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("Cannot compile configuration of " + issuer + ": " + cause, cause);
+        }
+
+        if (engine == null) {
+            // unknown issuers are not cached, or random issuers would push out the real ones
+            remove(issuer, entry);
+        } else if (load) {
+            admit(issuer, entry, engine);
+        }
+        return engine;
+    }
+
+    private synchronized void admit(final String issuer, final Entry entry, final ValidatorEngine engine) {
+        if (this.entries.get(issuer) != entry) {
+            // invalidated while loading; its schema, if not used by others, goes with the next release
+            return;
+        }
+        entry.engine = engine;
+        entry.weight = engine.weight();
+        this.weight += entry.weight;
+        this.schemas.acquire(engine.getSchemaKey(), engine.getSchema(), engine.getSchemaCatalog());
+
+        Iterator<Map.Entry<String, Entry>> it = this.entries.entrySet().iterator();
+        while (getWeight() > this.maxWeight && it.hasNext()) {
+            Map.Entry<String, Entry> eldest = it.next();
+            if (eldest.getValue() == entry) {
+                break;
+            }
+            if (!eldest.getValue().task.isDone()) {
+                // still loading, admitted and possibly evicted when done
+                continue;
+            }
+            it.remove();
+            release(eldest.getValue());
+            this.evictions.increment();
+            LOG.fine("Evicted configuration of " + eldest.getKey());
+        }
+    }
+
+    private synchronized void remove(final String issuer, final Entry entry) {
+        if (this.entries.get(issuer) == entry) {
+            this.entries.remove(issuer);
+            release(entry);
+        }
+    }
+
+    // guarded by this
+    private void release(final Entry entry) {
+        this.weight -= entry.weight;
+        if (entry.engine != null) {
+            this.schemas.release(entry.engine.getSchemaKey());
+        }
+    }
+
+    /**
+     * Drops the cached engine of an issuer, for example after its keys or schemas changed. The next
+     * document from the issuer loads the configuration again.
+     *
+     * @param issuer entity ID
+     */
+    public void invalidate(final String issuer) {
+        synchronized (this) {
+            Entry entry = this.entries.remove(issuer);
+            if (entry != null) {
+                release(entry);
+            }
+        }
+    }
+
+    /**
+     * Drops all cached engines and their compiled schemas.
+     */
+    public synchronized void clear() {
+        for (Entry entry : this.entries.values()) {
+            release(entry);
+        }
+        this.entries.clear();
+    }
+
+    /**
+     * Reads the issuer of a document: the first SAML 2.0 {@code Issuer} element or the
+     * {@code Issuer} attribute of the first SAML 1.x {@code Assertion}, whichever comes first.
+     * Only the beginning of the document is read, up to the issuer.
+     *
+     * @param input the document
+     * @return the issuer, null if there is none or the document is not well-formed XML
+     */
+    public String issuer(final byte[] input) {
+        XMLStreamReader reader;
+        synchronized (this.factory) {
+            try {
+                reader = this.factory.createXMLStreamReader(new LimitedInputStream(new ByteArrayInputStream(input),
+                        ResourceLimits.defaults(), System.nanoTime()));
+            } catch (XMLStreamException e) {
+                return null;
+            }
+        }
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() != XMLStreamReader.START_ELEMENT) {
+                    continue;
+                }
+                String ns = reader.getNamespaceURI();
+                if (SamlAssertion.SAML2_NS.equals(ns) && "Issuer".equals(reader.getLocalName())) {
+                    return reader.getElementText().trim();
+                }
+                if (SamlAssertion.SAML1_NS.equals(ns) && "Assertion".equals(reader.getLocalName())) {
+                    return reader.getAttributeValue(null, "Issuer");
+                }
+            }
+        } catch (XMLStreamException e) {
+            LOG.fine("Cannot read issuer: " + e.getMessage());
+        } finally {
+            try {
+                reader.close();
+            } catch (XMLStreamException e) {
+                LOG.fine("Cannot close issuer reader: " + e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return number of cached engines
+     */
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * @return estimated heap use of the cached engines and their schemas, in bytes
+     */
+    public synchronized long getWeight() {
+        return this.weight + this.schemas.weight();
+    }
+
+    /**
+     * @return estimated heap use of the compiled schemas, included in {@link #getWeight()}
+     */
+    public long getSchemaWeight() {
+        return this.schemas.weight();
+    }
+
+    /**
+     * @return the budget for {@link #getWeight()}
+     */
+    public long getMaxWeight() {
+        return this.maxWeight;
+    }
+
+    /**
+     * @return number of lookups served by a cached engine
+     */
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    /**
+     * @return number of lookups that loaded a configuration
+     */
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    /**
+     * @return number of engines evicted to stay within the budget
+     */
+    public long getEvictions() {
+        return this.evictions.sum();
+    }
+
+    /**
+     * @return number of distinct compiled schemas shared by the engines
+     */
+    public int getSchemaCount() {
+        return this.schemas.size();
+    }
+
+    /*
+     * A cached engine, or one being loaded by the first thread that needed it.
+     */
+    private final class Entry {
+
+        final FutureTask<ValidatorEngine> task;
+        // set when admitted to the cache
+        ValidatorEngine engine;
+        long weight;
+
+        Entry(final String issuer) {
+            this.task = new FutureTask<>(new Callable<ValidatorEngine>() {
+                @Override
+                public ValidatorEngine call() throws Exception {
+                    Validator config = IdpRegistry.this.loader.load(issuer);
+                    if (config == null) {
+                        return null;
+                    }
+                    LOG.info("Compiling configuration of " + issuer);
+                    return new ValidatorEngine(config, IdpRegistry.this.schemas);
+                }
+            });
+        }
+    }
+
+}
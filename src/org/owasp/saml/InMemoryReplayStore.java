@@ -0,0 +1,116 @@
+/*
+ * Copyright Pawel Krawczyk (c) 2014.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.saml;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free {@link ReplayStore} for a single process.
+ * <p>
+ * Keys live in a concurrent hash map, so lookups from different threads do not contend
+ * unless they hit the same key. Expiry is handled in time buckets: each key is queued
+ * in the bucket of its expiry time, and whole buckets are dropped once they are in the
+ * past. Purging is done by whichever thread first notices that a bucket has ended, at
+ * most once per bucket width, and never blocks the others.
+ */
+public final class InMemoryReplayStore implements ReplayStore {
+
+    private final long bucketMillis;
+    private final Map<String, Long> keys = new ConcurrentHashMap<>();
+    private final ConcurrentNavigableMap<Long, Queue<String>> buckets = new ConcurrentSkipListMap<>();
+    private final AtomicLong nextPurge = new AtomicLong();
+    private final AtomicBoolean purging = new AtomicBoolean();
+
+    /**
+     * Creates a store with one-minute expiry buckets.
+     */
+    public InMemoryReplayStore() {
+        this(1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * @param bucketWidth granularity of expiry; keys are forgotten up to one bucket width after they expire
+     * @param unit        unit of bucketWidth
+     */
+    public InMemoryReplayStore(final long bucketWidth, final TimeUnit unit) {
+        this.bucketMillis = Math.max(1, unit.toMillis(bucketWidth));
+    }
+
+    @Override
+    public boolean markIfAbsent(final String key, final long expiresAt) {
+        long now = System.currentTimeMillis();
+        purge(now);
+
+        Long expiry = expiresAt;
+        Long previous = this.keys.putIfAbsent(key, expiry);
+        if (previous != null) {
+            // an expired key that has not been purged yet does not count
+            if (previous > now || !this.keys.replace(key, previous, expiry)) {
+                return false;
+            }
+        }
+
+        long bucket = expiresAt / this.bucketMillis;
+        Queue<String> queue = this.buckets.get(bucket);
+        if (queue == null) {
+            Queue<String> created = new ConcurrentLinkedQueue<>();
+            queue = this.buckets.putIfAbsent(bucket, created);
+            if (queue == null) {
+                queue = created;
+            }
+        }
+        queue.add(key);
+        return true;
+    }
+
+    /**
+     * @return number of keys currently remembered, including expired ones not yet purged
+     */
+    public int size() {
+        return this.keys.size();
+    }
+
+    /*
+     * Drops all buckets that ended before now. A key is only removed if it still carries an expiry
+     * from the dropped bucket, so a key recorded again in the meantime survives.
+     */
+    private void purge(final long now) {
+        if (now < this.nextPurge.get() || !this.purging.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long current = now / this.bucketMillis;
+            Map<Long, Queue<String>> expired = this.buckets.headMap(current);
+            for (Map.Entry<Long, Queue<String>> entry : expired.entrySet()) {
+                for (String key : entry.getValue()) {
+                    Long expiry = this.keys.get(key);
+                    if (expiry != null && expiry / this.bucketMillis == entry.getKey()) {
+                        this.keys.remove(key, expiry);
+                    }
+                }
+                this.buckets.remove(entry.getKey(), entry.getValue());
+            }
+            this.nextPurge.set((current + 1) * this.bucketMillis);
+        } finally {
+            this.purging.set(false);
+        }
+    }
+
+}
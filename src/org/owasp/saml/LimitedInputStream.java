@@ -0,0 +1,275 @@
+/*
+ * Copyright Pawel Krawczyk (c) 2014.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.saml;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Enforces ResourceLimits on a document as it is read, ahead of any parser.
+ *
+ * Besides counting bytes and checking the time limit on every read, it runs a small scanner over
+ * the raw markup that tracks element depth, attributes of the current start tag and the number
+ * of markup nodes. The scanner only distinguishes tags, quoted attribute values, comments, CDATA
+ * sections, processing instructions and declarations; it does not check well-formedness, which is
+ * left to the parser. It assumes an ASCII-compatible encoding, as used by SAML in practice; other
+ * encodings are still bounded by size and time.
+ */
+final class LimitedInputStream extends FilterInputStream {
+
+    // scanner states
+    private static final int TEXT = 0;
+    private static final int LT = 1;
+    private static final int START_TAG = 2;
+    private static final int QUOTED = 3;
+    private static final int END_TAG = 4;
+    private static final int PI = 5;
+    private static final int BANG = 6;
+    private static final int BANG_DASH = 7;
+    private static final int COMMENT = 8;
+    private static final int CDATA_OPEN = 9;
+    private static final int CDATA = 10;
+    private static final int DECLARATION = 11;
+
+    private final ResourceLimits limits;
+    private final long start;
+
+    private long bytes;
+    private int depth;
+    private int attributes;
+    private int nodes;
+
+    private int state = TEXT;
+    private int quote;
+    private int run;
+    private boolean slash;
+    private LimitExceededException exceeded;
+
+    LimitedInputStream(final InputStream in, final ResourceLimits limits, final long start) {
+        super(in);
+        this.limits = limits;
+        this.start = start;
+    }
+
+    /*
+     * The limit this stream stopped on, null if the document stayed within the limits.
+     */
+    LimitExceededException exceeded() {
+        return this.exceeded;
+    }
+
+    private LimitExceededException exceed(final String message) {
+        this.exceeded = new LimitExceededException(message);
+        return this.exceeded;
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkTime();
+        int b = super.read();
+        if (b != -1) {
+            count(1);
+            scan(b);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        checkTime();
+        int n = super.read(b, off, len);
+        if (n > 0) {
+            count(n);
+            for (int i = off; i < off + n; i++) {
+                scan(b[i]);
+            }
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+        // skipped bytes are not scanned, so only allow reading
+        return 0;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void mark(final int readlimit) {
+    }
+
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    private void checkTime() throws LimitExceededException {
+        if (this.limits.isOverTime(this.start)) {
+            throw exceed("validation took longer than " + this.limits.getMaxTime(TimeUnit.MILLISECONDS) + "ms");
+        }
+    }
+
+    private void count(final int n) throws LimitExceededException {
+        this.bytes += n;
+        if (this.bytes > this.limits.getMaxBytes()) {
+            throw exceed("document larger than " + this.limits.getMaxBytes() + " bytes");
+        }
+    }
+
+    private void scan(final int b) throws LimitExceededException {
+        switch (this.state) {
+            case TEXT:
+                if (b == '<') {
+                    this.state = LT;
+                }
+                break;
+
+            case LT:
+                if (b == '/') {
+                    this.depth--;
+                    this.state = END_TAG;
+                } else if (b == '?') {
+                    node();
+                    this.state = PI;
+                } else if (b == '!') {
+                    this.state = BANG;
+                } else {
+                    node();
+                    if (++this.depth > this.limits.getMaxDepth()) {
+                        throw exceed("elements nested deeper than " + this.limits.getMaxDepth());
+                    }
+                    this.attributes = 0;
+                    this.slash = false;
+                    this.state = START_TAG;
+                }
+                break;
+
+            case START_TAG:
+                if (b == '"' || b == '\'') {
+                    this.quote = b;
+                    this.state = QUOTED;
+                } else if (b == '=') {
+                    if (++this.attributes > this.limits.getMaxAttributes()) {
+                        throw exceed("element with more than " + this.limits.getMaxAttributes() + " attributes");
+                    }
+                } else if (b == '>') {
+                    if (this.slash) {
+                        // empty element <a/>
+                        this.depth--;
+                    }
+                    this.state = TEXT;
+                } else {
+                    this.slash = b == '/';
+                }
+                break;
+
+            case QUOTED:
+                if (b == this.quote) {
+                    this.state = START_TAG;
+                }
+                break;
+
+            case END_TAG:
+                if (b == '>') {
+                    this.state = TEXT;
+                }
+                break;
+
+            case PI:
+                if (b == '>' && this.run > 0) {
+                    this.state = TEXT;
+                }
+                this.run = b == '?' ? 1 : 0;
+                break;
+
+            case BANG:
+                if (b == '-') {
+                    this.state = BANG_DASH;
+                } else if (b == '[') {
+                    this.state = CDATA_OPEN;
+                } else {
+                    this.run = 0;
+                    this.state = DECLARATION;
+                }
+                break;
+
+            case BANG_DASH:
+                node();
+                this.run = 0;
+                this.state = COMMENT;
+                break;
+
+            case COMMENT:
+                if (b == '>' && this.run >= 2) {
+                    this.state = TEXT;
+                }
+                this.run = b == '-' ? this.run + 1 : 0;
+                break;
+
+            case CDATA_OPEN:
+                // <![CDATA[
+                if (b == '[') {
+                    node();
+                    this.run = 0;
+                    this.state = CDATA;
+                }
+                break;
+
+            case CDATA:
+                if (b == '>' && this.run >= 2) {
+                    this.state = TEXT;
+                }
+                this.run = b == ']' ? this.run + 1 : 0;
+                break;
+
+            case DECLARATION:
+                // run counts the nesting of the internal subset
+                if (b == '[') {
+                    this.run++;
+                } else if (b == ']') {
+                    this.run--;
+                } else if (b == '>' && this.run <= 0) {
+                    this.state = TEXT;
+                }
+                break;
+
+            default:
+                throw new IllegalStateException("scanner state " + this.state);
+        }
+    }
+
+    private void node() throws LimitExceededException {
+        if (++this.nodes > this.limits.getMaxNodes()) {
+            throw exceed("more than " + this.limits.getMaxNodes() + " nodes");
+        }
+    }
+
+    /*
+     * Thrown from read() when the document goes over budget. Parsers pass it on as an I/O error,
+     * wrapped or not, and sometimes only keep its message, so it is also kept by the stream.
+     */
+    static final class LimitExceededException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        LimitExceededException(final String message) {
+            super(message);
+        }
+    }
+
+}
@@ -11,85 +11,108 @@
 
 package org.owasp.saml;
 
+import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
 
 import javax.xml.XMLConstants;
 import javax.xml.namespace.NamespaceContext;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
-class NamespaceResolver implements NamespaceContext {
+/*
+ * Resolves the prefixes of the configured paths for one document: namespaces declared on the root
+ * element first, which is what Document.lookupNamespaceURI() sees, then the prefix registry.
+ *
+ * The root declarations are indexed once when the resolver is created, so lookups for every path
+ * step are plain map reads instead of DOM walks.
+ */
+final class NamespaceResolver implements NamespaceContext {
 
     private final static Logger LOG = Logger.getLogger(NamespaceResolver.class.getName());
 
-    private Document sourceDocument;
+    private final Map<String, String> declared;
+    private final PrefixRegistry registry;
 
-    /**
-     * This constructor stores the source document to search the namespaces in
-     * it.
-     *
-     * @param document
-     *            source document
-     */
-    public NamespaceResolver(Document document) {
-        sourceDocument = document;
+    NamespaceResolver(final Document document, final PrefixRegistry registry) {
+        this.declared = index(document.getDocumentElement());
+        this.registry = registry;
     }
 
-    /**
-     * The lookup for the namespace uris is delegated to the stored document.
-     *
-     * @param prefix
-     *            to search for
-     * @return uri
-     */
-    @Override
-    public String getNamespaceURI(String prefix) {
+    NamespaceResolver(final Map<String, String> declared, final PrefixRegistry registry) {
+        this.declared = declared;
+        this.registry = registry;
+    }
 
-        // First try to automatically resolve the namespace URI based on document contents
-        String uri = this.sourceDocument.lookupNamespaceURI(prefix);
+    private static Map<String, String> index(final Element root) {
+        Map<String, String> declared = new HashMap<>();
+        if (root == null) {
+            return declared;
+        }
+        NamedNodeMap attributes = root.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            Attr attr = (Attr) attributes.item(i);
+            if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attr.getNamespaceURI())) {
+                String prefix = XMLConstants.XMLNS_ATTRIBUTE.equals(attr.getPrefix()) ? attr.getLocalName()
+                        : XMLConstants.DEFAULT_NS_PREFIX;
+                // an empty value undeclares the default namespace
+                if (!attr.getValue().isEmpty()) {
+                    declared.put(prefix, attr.getValue());
+                }
+            }
+        }
+        // the root element's own binding, even if the parser did not report it as an attribute
+        if (root.getNamespaceURI() != null) {
+            String prefix = root.getPrefix() != null ? root.getPrefix() : XMLConstants.DEFAULT_NS_PREFIX;
+            if (!declared.containsKey(prefix)) {
+                declared.put(prefix, root.getNamespaceURI());
+            }
+        }
+        return declared;
+    }
 
-        // If this doesn't work resort to hardcoded values
+    @Override
+    public String getNamespaceURI(final String prefix) {
+        String uri = this.declared.get(prefix);
         if (uri == null) {
-
-            final Map<String, String> hm = new HashMap<>();
-            hm.put("saml2", "urn:oasis:names:tc:SAML:2.0:assertion");
-            hm.put("saml", "urn:oasis:names:tc:SAML:1.0:assertion");
-            hm.put("wsse", "http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-secext-1.0.xsd");
-            hm.put("ds", "http://www.w3.org/2000/09/xmldsig#");
-            hm.put("wsu", "urn:oasis:names:tc:SAML:2.0:assertion");
-            hm.put("saml2", "http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-utility-1.0.xsd");
-            hm.put("xs", "http://www.w3.org/2001/XMLSchema");
-            hm.put("wsp", "http://schemas.xmlsoap.org/ws/2004/09/policy");
-            hm.put("xsa", "http://schemas.xmlsoap.org/ws/2004/08/addressing");
-            hm.put("wst", "http://schemas.xmlsoap.org/ws/2005/02/trust");
-
-            // This worked for me, most likely won't work for you
-            // default prefix is just empty prefix, so <Signature> and not <ds:Signature>
-            hm.put(XMLConstants.DEFAULT_NS_PREFIX, "http://www.w3.org/2000/09/xmldsig#");
-
-            uri = hm.get(prefix);
+            uri = this.registry.getNamespaceURI(prefix);
         }
-
-        if (uri == null ) {
-            LOG.warning("null URI in getNamespaceURI prefix=" + prefix);
-        } else {
-            LOG.info("getNamespaceURI prefix=" + prefix + " returns=" + uri);
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.fine("getNamespaceURI prefix=" + prefix + " returns=" + uri);
         }
-
         return uri;
     }
 
     @Override
-    public String getPrefix(String namespaceURI) {
-        return sourceDocument.lookupPrefix(namespaceURI);
+    public String getPrefix(final String namespaceURI) {
+        Iterator<String> prefixes = getPrefixes(namespaceURI);
+        return prefixes.hasNext() ? prefixes.next() : null;
     }
 
+    /*
+     * Prefixes declared in the document come first, then registered ones that the document does
+     * not bind to another namespace.
+     */
     @Override
-    public Iterator getPrefixes(String namespaceURI) {
-        // not implemented yet
-        return null;
+    public Iterator<String> getPrefixes(final String namespaceURI) {
+        List<String> prefixes = new ArrayList<>();
+        for (Map.Entry<String, String> entry : this.declared.entrySet()) {
+            if (entry.getValue().equals(namespaceURI)) {
+                prefixes.add(entry.getKey());
+            }
+        }
+        for (String prefix : this.registry.getPrefixes(namespaceURI)) {
+            if (!this.declared.containsKey(prefix)) {
+                prefixes.add(prefix);
+            }
+        }
+        return prefixes.iterator();
     }
 
 }
@@ -0,0 +1,64 @@
+/*
+ * Copyright Pawel Krawczyk (c) 2014.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.saml;
+
+/**
+ * Stages of the validation pipeline, in the order they run.
+ */
+public enum Phase {
+
+    /**
+     * Optional streaming check of the document shape, see {@link Validator#setPreScreen(boolean)}.
+     */
+    PRE_SCREEN,
+
+    /**
+     * Parsing the document into DOM and validating it against the schema.
+     */
+    PARSE,
+
+    /**
+     * Finding the body and signature elements.
+     */
+    LOCATE,
+
+    /**
+     * Checking the signature structure and algorithms against the {@link SignaturePolicy}.
+     */
+    POLICY,
+
+    /**
+     * Validating the path of the certificate in KeyInfo, see {@link Validator#setPkixTrust(PkixTrust)}.
+     */
+    CERTIFICATE,
+
+    /**
+     * Reading the XML signature structure.
+     */
+    UNMARSHAL,
+
+    /**
+     * Verifying the signature value with the public key.
+     */
+    SIGNATURE,
+
+    /**
+     * Computing and comparing the digests of the signed references.
+     */
+    DIGEST,
+
+    /**
+     * Checking and recording the assertion in the replay store, see {@link Validator#setReplayStore}.
+     */
+    REPLAY
+
+}
@@ -0,0 +1,362 @@
+/*
+ * Copyright Pawel Krawczyk (c) 2014.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.saml;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.cert.CRL;
+import java.security.cert.CertPathBuilder;
+import java.security.cert.CertPathBuilderException;
+import java.security.cert.CertStore;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateExpiredException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.CertificateNotYetValidException;
+import java.security.cert.CollectionCertStoreParameters;
+import java.security.cert.PKIXBuilderParameters;
+import java.security.cert.PKIXCertPathBuilderResult;
+import java.security.cert.PKIXRevocationChecker;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509CRL;
+import java.security.cert.X509CertSelector;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Trusts signing certificates carried in the signature's KeyInfo if they chain up to one of
+ * a set of trust anchors.
+ * <p>
+ * Paths are built and validated with the PKIX algorithm: every certificate must be within its
+ * validity period and, unless revocation checking is turned off, must not be listed in the
+ * certificate revocation lists loaded from local files. Nothing is fetched over the network;
+ * OCSP is never used and CRL distribution points are only followed if the JDK is told to with
+ * the {@code com.sun.security.enableCRLDP} system property.
+ * <p>
+ * Path validation costs far more than verifying the signature itself, so successful results
+ * are remembered per leaf certificate until the earliest expiry of a certificate in the path
+ * or the earliest next update of the CRLs, but no longer than the cache time to live. Failures
+ * are not remembered. Disabled unless set with {@link Validator#setPkixTrust(PkixTrust)}.
+ */
+public final class PkixTrust {
+
+    private final static Logger LOG = Logger.getLogger(PkixTrust.class.getName());
+
+    private final Set<TrustAnchor> anchors;
+    private final List<X509Certificate> intermediates;
+    private final List<X509CRL> crls;
+    private final boolean revocation;
+    private final long crlNextUpdate;
+    // thumbprints of leaf certificates with a trusted path, until the path stops being valid
+    private final ExpiringSet paths;
+
+    private PkixTrust(final Builder builder) {
+        Set<TrustAnchor> anchors = new HashSet<>();
+        for (X509Certificate anchor : builder.anchors) {
+            anchors.add(new TrustAnchor(anchor, null));
+        }
+        this.anchors = Collections.unmodifiableSet(anchors);
+        this.intermediates = Collections.unmodifiableList(new ArrayList<>(builder.intermediates));
+        this.crls = Collections.unmodifiableList(new ArrayList<>(builder.crls));
+        this.revocation = builder.revocation;
+        long nextUpdate = Long.MAX_VALUE;
+        for (X509CRL crl : this.crls) {
+            if (crl.getNextUpdate() != null) {
+                nextUpdate = Math.min(nextUpdate, crl.getNextUpdate().getTime());
+            }
+        }
+        this.crlNextUpdate = nextUpdate;
+        this.paths = new ExpiringSet(builder.maxEntries, builder.maxTtlMillis);
+    }
+
+    /**
+     * @return the trust anchors
+     */
+    public Set<TrustAnchor> getTrustAnchors() {
+        return this.anchors;
+    }
+
+    /**
+     * @return the CRLs revocation is checked against
+     */
+    public List<X509CRL> getCrls() {
+        return this.crls;
+    }
+
+    /**
+     * @return true if certificates are checked against the CRLs
+     */
+    public boolean isRevocationEnabled() {
+        return this.revocation;
+    }
+
+    /**
+     * @return number of remembered paths, including expired ones not yet dropped
+     */
+    public int getCachedPaths() {
+        return this.paths.size();
+    }
+
+    /**
+     * @return number of certificates found trusted in the cache
+     */
+    public long getCacheHits() {
+        return this.paths.getHits();
+    }
+
+    /**
+     * @return number of certificates whose path had to be built
+     */
+    public long getCacheMisses() {
+        return this.paths.getMisses();
+    }
+
+    /**
+     * Forgets all remembered paths.
+     */
+    public void clear() {
+        this.paths.clear();
+    }
+
+    /*
+     * The certificate the others were presented to support: the one that is not the issuer of
+     * another certificate in the list, or the first one if that does not single one out.
+     */
+    static X509Certificate leaf(final List<X509Certificate> certificates) {
+        for (X509Certificate candidate : certificates) {
+            boolean issuer = false;
+            for (X509Certificate other : certificates) {
+                if (other != candidate && other.getIssuerX500Principal().equals(candidate.getSubjectX500Principal())
+                        && !other.getSubjectX500Principal().equals(other.getIssuerX500Principal())) {
+                    issuer = true;
+                    break;
+                }
+            }
+            if (!issuer) {
+                return candidate;
+            }
+        }
+        return certificates.get(0);
+    }
+
+    /*
+     * Returns null if the leaf chains up to a trust anchor, using the configured intermediates and
+     * the other certificates presented with it, otherwise the reason why it does not.
+     */
+    String check(final X509Certificate leaf, final List<X509Certificate> presented) {
+        String thumbprint;
+        try {
+            thumbprint = SigningKeys.hex(SigningKeys.digest("SHA-256", leaf.getEncoded()));
+        } catch (CertificateEncodingException e) {
+            return "cannot encode certificate: " + e.getMessage();
+        }
+        if (this.paths.contains(thumbprint)) {
+            return null;
+        }
+
+        long expiry;
+        try {
+            expiry = validate(leaf, presented);
+        } catch (CertificateExpiredException | CertificateNotYetValidException e) {
+            return leaf.getSubjectX500Principal().getName() + " is not valid now: " + e.getMessage();
+        } catch (CertPathBuilderException e) {
+            LOG.fine("No trusted path for " + leaf.getSubjectX500Principal() + ": " + e);
+            return "no trusted path for " + leaf.getSubjectX500Principal().getName() + ": " + e.getMessage();
+        } catch (GeneralSecurityException e) {
+            return "cannot validate path for " + leaf.getSubjectX500Principal().getName() + ": " + e.getMessage();
+        }
+        this.paths.add(thumbprint, expiry);
+        return null;
+    }
+
+    /*
+     * Builds and validates the path, returns when the result stops being valid.
+     */
+    private long validate(final X509Certificate leaf, final List<X509Certificate> presented) throws GeneralSecurityException {
+        for (TrustAnchor anchor : this.anchors) {
+            if (leaf.equals(anchor.getTrustedCert())) {
+                // a directly trusted certificate has no path, only its own validity to check
+                leaf.checkValidity();
+                return leaf.getNotAfter().getTime();
+            }
+        }
+
+        X509CertSelector target = new X509CertSelector();
+        target.setCertificate(leaf);
+        PKIXBuilderParameters parameters = new PKIXBuilderParameters(this.anchors, target);
+        Collection<Object> store = new ArrayList<>();
+        store.addAll(this.intermediates);
+        store.addAll(presented);
+        store.addAll(this.crls);
+        parameters.addCertStore(CertStore.getInstance("Collection", new CollectionCertStoreParameters(store)));
+
+        CertPathBuilder builder = CertPathBuilder.getInstance("PKIX");
+        if (this.revocation) {
+            PKIXRevocationChecker checker = (PKIXRevocationChecker) builder.getRevocationChecker();
+            checker.setOptions(EnumSet.of(PKIXRevocationChecker.Option.PREFER_CRLS, PKIXRevocationChecker.Option.NO_FALLBACK));
+            parameters.addCertPathChecker(checker);
+        } else {
+            parameters.setRevocationEnabled(false);
+        }
+
+        PKIXCertPathBuilderResult result = (PKIXCertPathBuilderResult) builder.build(parameters);
+        long expiry = this.revocation ? this.crlNextUpdate : Long.MAX_VALUE;
+        for (Certificate certificate : result.getCertPath().getCertificates()) {
+            expiry = Math.min(expiry, ((X509Certificate) certificate).getNotAfter().getTime());
+        }
+        X509Certificate anchor = result.getTrustAnchor().getTrustedCert();
+        if (anchor != null) {
+            expiry = Math.min(expiry, anchor.getNotAfter().getTime());
+        }
+        return expiry;
+    }
+
+    /**
+     * Collects trust anchors, intermediate certificates and CRLs for a {@link PkixTrust}.
+     */
+    public static final class Builder {
+
+        private final List<X509Certificate> anchors = new ArrayList<>();
+        private final List<X509Certificate> intermediates = new ArrayList<>();
+        private final List<X509CRL> crls = new ArrayList<>();
+        private boolean revocation = true;
+        private int maxEntries = 10000;
+        private long maxTtlMillis = TimeUnit.HOURS.toMillis(1);
+
+        /**
+         * @param anchor certificate of a trusted CA, or a directly trusted signing certificate
+         * @return this builder
+         */
+        public Builder addTrustAnchor(final X509Certificate anchor) {
+            this.anchors.add(anchor);
+            return this;
+        }
+
+        /**
+         * @param file trusted certificates in DER or PEM format
+         * @return this builder
+         * @throws CertificateException if a certificate cannot be parsed
+         * @throws IOException          on file errors
+         */
+        public Builder addTrustAnchorFile(final String file) throws CertificateException, IOException {
+            this.anchors.addAll(certificates(file));
+            return this;
+        }
+
+        /**
+         * Adds an intermediate CA certificate for signers that do not include it in KeyInfo. It is
+         * only used to build paths, it is not trusted by itself.
+         *
+         * @param certificate intermediate CA certificate
+         * @return this builder
+         */
+        public Builder addIntermediate(final X509Certificate certificate) {
+            this.intermediates.add(certificate);
+            return this;
+        }
+
+        /**
+         * @param file intermediate CA certificates in DER or PEM format
+         * @return this builder
+         * @throws CertificateException if a certificate cannot be parsed
+         * @throws IOException          on file errors
+         */
+        public Builder addIntermediateFile(final String file) throws CertificateException, IOException {
+            this.intermediates.addAll(certificates(file));
+            return this;
+        }
+
+        /**
+         * @param crl certificate revocation list of one of the CAs
+         * @return this builder
+         */
+        public Builder addCrl(final X509CRL crl) {
+            this.crls.add(crl);
+            return this;
+        }
+
+        /**
+         * @param file certificate revocation lists in DER or PEM format
+         * @return this builder
+         * @throws GeneralSecurityException if a CRL cannot be parsed
+         * @throws IOException              on file errors
+         */
+        public Builder addCrlFile(final String file) throws GeneralSecurityException, IOException {
+            CertificateFactory cf = CertificateFactory.getInstance("X.509");
+            try (InputStream in = new FileInputStream(file)) {
+                for (CRL crl : cf.generateCRLs(in)) {
+                    this.crls.add((X509CRL) crl);
+                    LOG.fine("CRL " + file + ": " + ((X509CRL) crl).getIssuerX500Principal());
+                }
+            }
+            return this;
+        }
+
+        /**
+         * @param enabled whether certificates are checked against the CRLs; on by default, in which
+         *                case every CA in the path must have a current CRL
+         * @return this builder
+         */
+        public Builder revocation(final boolean enabled) {
+            this.revocation = enabled;
+            return this;
+        }
+
+        /**
+         * @param maxEntries maximum number of remembered paths, 10000 by default
+         * @param maxTtl     maximum time a path is remembered, one hour by default
+         * @param unit       unit of maxTtl
+         * @return this builder
+         */
+        public Builder cache(final int maxEntries, final long maxTtl, final TimeUnit unit) {
+            if (maxEntries < 1) {
+                throw new IllegalArgumentException("maxEntries must be positive");
+            }
+            this.maxEntries = maxEntries;
+            this.maxTtlMillis = unit.toMillis(maxTtl);
+            return this;
+        }
+
+        /**
+         * @return immutable trust configuration
+         */
+        public PkixTrust build() {
+            if (this.anchors.isEmpty()) {
+                throw new IllegalStateException("At least one trust anchor is required");
+            }
+            return new PkixTrust(this);
+        }
+
+        private static List<X509Certificate> certificates(final String file) throws CertificateException, IOException {
+            List<X509Certificate> certificates = new ArrayList<>();
+            CertificateFactory cf = CertificateFactory.getInstance("X.509");
+            try (InputStream in = new FileInputStream(file)) {
+                for (Certificate cert : cf.generateCertificates(in)) {
+                    certificates.add((X509Certificate) cert);
+                }
+            }
+            return certificates;
+        }
+    }
+
+}
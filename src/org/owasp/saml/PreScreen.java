@@ -0,0 +1,208 @@
+/*
+ * Copyright Pawel Krawczyk (c) 2014.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.saml;
+
+import org.xml.sax.SAXException;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/*
+ * Streaming check of the document shape, run before the DOM is built and schema validated.
+ *
+ * In a single StAX pass and without keeping the document in memory it verifies that the root element
+ * is the one both configured paths start with, that the configured signature location holds exactly
+ * one element and the body location at least one, that no two elements carry the same Id value, and
+ * that nesting depth, element and attribute counts stay within the resource limits. Junk and wrapping attempts are rejected
+ * before the expensive part of validation starts.
+ */
+final class PreScreen {
+
+    private final static Logger LOG = Logger.getLogger(PreScreen.class.getName());
+
+    private final XMLInputFactory factory;
+    private final ElementLocator signatureLocator;
+    private final ElementLocator bodyLocator;
+    private final String idNamespace;
+    private final String idAttribute;
+    private final PrefixRegistry prefixes;
+    private final ResourceLimits limits;
+
+    PreScreen(final ElementLocator signatureLocator, final ElementLocator bodyLocator,
+              final String idNamespace, final String idAttribute, final PrefixRegistry prefixes,
+              final ResourceLimits limits) {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+        this.factory = factory;
+        this.signatureLocator = signatureLocator;
+        this.bodyLocator = bodyLocator;
+        this.idNamespace = idNamespace;
+        this.idAttribute = idAttribute;
+        this.prefixes = prefixes;
+        this.limits = limits;
+    }
+
+    /*
+     * Returns null if the document looks acceptable, otherwise the reason for rejecting it.
+     * Documents that are not well-formed XML are reported with SAXException, as the DOM parser would.
+     */
+    String check(final InputStream input) throws SAXException {
+        XMLStreamReader reader;
+        // the factory is not guaranteed to be thread-safe, the readers it creates are used by one thread only
+        synchronized (this.factory) {
+            try {
+                reader = this.factory.createXMLStreamReader(input);
+            } catch (XMLStreamException e) {
+                throw new SAXException("Pre-screen parser error " + e.getMessage(), e);
+            }
+        }
+
+        try {
+            return scan(reader);
+        } catch (XMLStreamException e) {
+            throw new SAXException("Pre-screen parser error " + e.getMessage(), e);
+        } finally {
+            try {
+                reader.close();
+            } catch (XMLStreamException e) {
+                LOG.fine("Cannot close pre-screen reader: " + e.getMessage());
+            }
+        }
+    }
+
+    private String scan(final XMLStreamReader reader) throws XMLStreamException {
+        int depth = 0;
+        int elements = 0;
+        // number of leading path steps matched by the current element and its ancestors
+        int signatureMatched = 0;
+        int bodyMatched = 0;
+        int signatures = 0;
+        int bodies = 0;
+        NamespaceContext namespaces = null;
+        Set<String> ids = new HashSet<>();
+
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamReader.DTD:
+                    return "document type declaration is not allowed";
+
+                case XMLStreamReader.START_ELEMENT:
+                    if (++elements > this.limits.getMaxNodes()) {
+                        return "more than " + this.limits.getMaxNodes() + " elements";
+                    }
+                    if (depth == this.limits.getMaxDepth()) {
+                        return "elements nested deeper than " + this.limits.getMaxDepth();
+                    }
+                    if (reader.getAttributeCount() + reader.getNamespaceCount() > this.limits.getMaxAttributes()) {
+                        return "element with more than " + this.limits.getMaxAttributes() + " attributes";
+                    }
+
+                    String ns = reader.getNamespaceURI();
+                    String name = reader.getLocalName();
+
+                    if (depth == 0) {
+                        namespaces = rootNamespaces(reader);
+                        if (!this.signatureLocator.matches(0, ns, name, namespaces)
+                                || !this.bodyLocator.matches(0, ns, name, namespaces)) {
+                            return "unexpected root element {" + ns + "}" + name;
+                        }
+                    }
+
+                    if (signatureMatched == depth && depth < this.signatureLocator.length()
+                            && this.signatureLocator.matches(depth, ns, name, namespaces)) {
+                        signatureMatched++;
+                        if (signatureMatched == this.signatureLocator.length() && ++signatures > 1) {
+                            return "more than one element at " + this.signatureLocator;
+                        }
+                    }
+                    if (bodyMatched == depth && depth < this.bodyLocator.length()
+                            && this.bodyLocator.matches(depth, ns, name, namespaces)) {
+                        bodyMatched++;
+                        if (bodyMatched == this.bodyLocator.length()) {
+                            bodies++;
+                        }
+                    }
+
+                    for (int i = 0; i < reader.getAttributeCount(); i++) {
+                        if (isId(reader.getAttributeNamespace(i), reader.getAttributeLocalName(i))
+                                && !ids.add(reader.getAttributeValue(i))) {
+                            return "duplicate Id " + reader.getAttributeValue(i);
+                        }
+                    }
+
+                    depth++;
+                    break;
+
+                case XMLStreamReader.END_ELEMENT:
+                    depth--;
+                    if (signatureMatched > depth) {
+                        signatureMatched = depth;
+                    }
+                    if (bodyMatched > depth) {
+                        bodyMatched = depth;
+                    }
+                    break;
+
+                default:
+                    break;
+            }
+        }
+
+        if (signatures == 0) {
+            return "no element at " + this.signatureLocator;
+        }
+        if (bodies == 0) {
+            return "no element at " + this.bodyLocator;
+        }
+        return null;
+    }
+
+    /*
+     * Attributes commonly used as signature reference targets, plus the one configured with setIdAttribute().
+     */
+    private boolean isId(final String ns, final String name) {
+        if (this.idAttribute != null && this.idAttribute.equals(name)
+                && (this.idNamespace == null ? ns == null || ns.isEmpty() : this.idNamespace.equals(ns))) {
+            return true;
+        }
+        return "Id".equals(name) || "ID".equals(name) || "id".equals(name);
+    }
+
+    /*
+     * Resolves prefixes the same way the DOM locators do: declarations on the root element first,
+     * then the prefix registry.
+     */
+    private NamespaceContext rootNamespaces(final XMLStreamReader root) {
+        Map<String, String> declared = new HashMap<>();
+        for (int i = 0; i < root.getNamespaceCount(); i++) {
+            String prefix = root.getNamespacePrefix(i);
+            String uri = root.getNamespaceURI(i);
+            if (uri != null && !uri.isEmpty()) {
+                declared.put(prefix == null ? XMLConstants.DEFAULT_NS_PREFIX : prefix, uri);
+            }
+        }
+        return new NamespaceResolver(declared, this.prefixes);
+    }
+
+}
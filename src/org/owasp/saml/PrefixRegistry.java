@@ -0,0 +1,145 @@
+/*
+ * Copyright Pawel Krawczyk (c) 2014.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.saml;
+
+import javax.xml.XMLConstants;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable mapping of namespace prefixes used in the signature and body paths to
+ * namespace URIs, for prefixes that the validated document does not declare on its
+ * root element. Declarations in the document always take precedence.
+ * <p>
+ * {@link #defaults()} covers the prefixes of SAML, WS-Security and XML Signature.
+ * Set another registry with {@link Validator#setPrefixRegistry(PrefixRegistry)}.
+ */
+public final class PrefixRegistry {
+
+    private static final PrefixRegistry DEFAULTS = new Builder()
+            .add("saml2", SamlAssertion.SAML2_NS)
+            .add("saml", SamlAssertion.SAML1_NS)
+            .add("wsse", SigningKeys.WSSE_NS)
+            .add("wsu", "http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-utility-1.0.xsd")
+            .add("ds", SigningKeys.DSIG_NS)
+            .add("xs", XMLConstants.W3C_XML_SCHEMA_NS_URI)
+            .add("wsp", "http://schemas.xmlsoap.org/ws/2004/09/policy")
+            .add("xsa", "http://schemas.xmlsoap.org/ws/2004/08/addressing")
+            .add("wst", "http://schemas.xmlsoap.org/ws/2005/02/trust")
+            // default prefix is just empty prefix, so <Signature> and not <ds:Signature>
+            .add(XMLConstants.DEFAULT_NS_PREFIX, SigningKeys.DSIG_NS)
+            .build();
+
+    private final Map<String, String> byPrefix;
+    private final Map<String, List<String>> byNamespace;
+
+    private PrefixRegistry(final Map<String, String> byPrefix) {
+        Map<String, List<String>> byNamespace = new HashMap<>();
+        for (Map.Entry<String, String> entry : byPrefix.entrySet()) {
+            List<String> prefixes = byNamespace.get(entry.getValue());
+            if (prefixes == null) {
+                prefixes = new ArrayList<>();
+                byNamespace.put(entry.getValue(), prefixes);
+            }
+            prefixes.add(entry.getKey());
+        }
+        for (Map.Entry<String, List<String>> entry : byNamespace.entrySet()) {
+            entry.setValue(Collections.unmodifiableList(entry.getValue()));
+        }
+        this.byPrefix = Collections.unmodifiableMap(byPrefix);
+        this.byNamespace = byNamespace;
+    }
+
+    /**
+     * @return the built-in registry
+     */
+    public static PrefixRegistry defaults() {
+        return DEFAULTS;
+    }
+
+    /**
+     * @param prefix namespace prefix, "" for the default namespace
+     * @return the namespace URI or null if the prefix is not registered
+     */
+    public String getNamespaceURI(final String prefix) {
+        return this.byPrefix.get(prefix);
+    }
+
+    /**
+     * @param namespaceURI namespace URI
+     * @return prefixes registered for the namespace, in the order they were added; empty if none
+     */
+    public List<String> getPrefixes(final String namespaceURI) {
+        List<String> prefixes = this.byNamespace.get(namespaceURI);
+        return prefixes != null ? prefixes : Collections.<String>emptyList();
+    }
+
+    /**
+     * @return all registered prefixes and their namespace URIs
+     */
+    public Map<String, String> asMap() {
+        return this.byPrefix;
+    }
+
+    @Override
+    public String toString() {
+        return this.byPrefix.toString();
+    }
+
+    /**
+     * Collects prefixes for a new {@link PrefixRegistry}.
+     */
+    public static final class Builder {
+
+        private final Map<String, String> prefixes = new LinkedHashMap<>();
+
+        /**
+         * Starts with an empty registry.
+         */
+        public Builder() {
+        }
+
+        /**
+         * Starts with the prefixes of an existing registry, for example {@link PrefixRegistry#defaults()}.
+         *
+         * @param base registry to extend
+         */
+        public Builder(final PrefixRegistry base) {
+            this.prefixes.putAll(base.byPrefix);
+        }
+
+        /**
+         * @param prefix       namespace prefix, "" for the default namespace
+         * @param namespaceURI namespace URI; replaces an earlier mapping of the same prefix
+         * @return this builder
+         */
+        public Builder add(final String prefix, final String namespaceURI) {
+            if (prefix == null || namespaceURI == null || namespaceURI.isEmpty()) {
+                throw new IllegalArgumentException("Prefix and namespace URI are required: " + prefix + "=" + namespaceURI);
+            }
+            this.prefixes.put(prefix, namespaceURI);
+            return this;
+        }
+
+        /**
+         * @return immutable registry
+         */
+        public PrefixRegistry build() {
+            return new PrefixRegistry(new LinkedHashMap<>(this.prefixes));
+        }
+    }
+
+}
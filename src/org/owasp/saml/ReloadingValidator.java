@@ -0,0 +1,274 @@
+/*
+ * Copyright Pawel Krawczyk (c) 2014.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.saml;
+
+import org.xml.sax.SAXException;
+
+import javax.xml.crypto.MarshalException;
+import javax.xml.crypto.dsig.XMLSignatureException;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateException;
+import java.security.spec.InvalidKeySpecException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * {@link ValidatorEngine} that is recompiled when its key or schema files change.
+ * <p>
+ * The key file, the initial schema and, unless a {@link SchemaCatalog} was set, the schemas
+ * directory are watched for changes. After a change the configuration is compiled again in
+ * the background, which also checks that the new certificate and schemas can be loaded,
+ * and only then swapped in. Documents being validated finish with the engine they
+ * started with; documents started after the swap use the new one. If the new configuration
+ * cannot be compiled the old engine stays in use, so a half-written certificate never
+ * interrupts validation.
+ * <p>
+ * Keys supplied as {@link SigningKeys} and catalogs supplied in memory are not reloaded.
+ */
+public final class ReloadingValidator implements AutoCloseable {
+
+    private final static Logger LOG = Logger.getLogger(ReloadingValidator.class.getName());
+
+    // files are often replaced in several steps, changes are collected for this long before reloading
+    private static final long SETTLE_MILLIS = 100;
+
+    private final Validator config;
+    private final AtomicReference<ValidatorEngine> engine;
+    private final WatchService watcher;
+    private final Set<Path> files = new HashSet<>();
+    private final Set<Path> directories = new HashSet<>();
+    private final Thread thread;
+
+    private final LongAdder reloads = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    // written only in reload(), under the lock; volatile for the getters
+    private volatile long lastReloadNanos;
+    private volatile Exception lastError;
+
+    /**
+     * Compiles the configuration and starts watching its files.
+     *
+     * @param config validator configuration; it must not be modified while this object is in use
+     * @throws SAXException on schema errors
+     * @throws ParserConfigurationException if the XML parser cannot be configured
+     * @throws IOException if the files cannot be read or watched
+     * @throws CertificateException if the key file cannot be parsed
+     */
+    public ReloadingValidator(final Validator config)
+            throws SAXException, ParserConfigurationException, IOException, CertificateException {
+        this(config, new ArrayList<Path>());
+    }
+
+    /**
+     * Compiles the configuration and starts watching its files and some additional ones.
+     *
+     * @param config validator configuration; it must not be modified while this object is in use
+     * @param extra  further files or directories whose change triggers a reload
+     * @throws SAXException on schema errors
+     * @throws ParserConfigurationException if the XML parser cannot be configured
+     * @throws IOException if the files cannot be read or watched
+     * @throws CertificateException if the key file cannot be parsed
+     */
+    public ReloadingValidator(final Validator config, final Collection<Path> extra)
+            throws SAXException, ParserConfigurationException, IOException, CertificateException {
+        this.config = config;
+        this.engine = new AtomicReference<>(config.compile());
+
+        List<Path> watched = new ArrayList<>(extra);
+        if (config.getKeyFile() != null) {
+            watched.add(new File(config.getKeyFile()).toPath());
+        }
+        if (new File(config.getSchemaFile()).isFile()) {
+            watched.add(new File(config.getSchemaFile()).toPath());
+        }
+        if (config.getSchemaCatalog() == null) {
+            watched.add(new File("schemas").toPath());
+        }
+
+        this.watcher = FileSystems.getDefault().newWatchService();
+        for (Path path : watched) {
+            path = path.toAbsolutePath().normalize();
+            Path directory = path.toFile().isDirectory() ? path : path.getParent();
+            if (directory.equals(path)) {
+                // any change in the directory counts
+                this.directories.add(directory);
+            } else {
+                this.files.add(path);
+            }
+            directory.register(this.watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        }
+
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watch();
+            }
+        }, "saml-validator-reload");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = this.watcher.take();
+                boolean changed = relevant(key);
+                if (!changed) {
+                    continue;
+                }
+                // let the writer finish, then collect whatever else changed meanwhile
+                Thread.sleep(SETTLE_MILLIS);
+                while ((key = this.watcher.poll()) != null) {
+                    relevant(key);
+                }
+                reload();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            LOG.fine("Configuration watcher stopped");
+        }
+    }
+
+    private boolean relevant(final WatchKey key) {
+        Path directory = (Path) key.watchable();
+        boolean relevant = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                relevant = true;
+            } else if (this.directories.contains(directory)
+                    || this.files.contains(directory.resolve((Path) event.context()))) {
+                relevant = true;
+            }
+        }
+        key.reset();
+        return relevant;
+    }
+
+    /**
+     * Compiles the configuration again and swaps the new engine in. Called automatically when a
+     * watched file changes, but can also be called directly. Reloads are serialized, so an
+     * older compilation never replaces the engine of a newer one.
+     *
+     * @return true if the new engine is in use, false if it could not be compiled and the old
+     * engine stays in use
+     */
+    public synchronized boolean reload() {
+        long start = System.nanoTime();
+        ValidatorEngine compiled;
+        try {
+            compiled = this.config.compile();
+        } catch (SAXException | ParserConfigurationException | IOException | CertificateException | RuntimeException e) {
+            this.failures.increment();
+            this.lastError = e;
+            LOG.warning("Configuration not reloaded, keeping the current one: " + e);
+            return false;
+        }
+        this.engine.set(compiled);
+        this.lastReloadNanos = System.nanoTime() - start;
+        this.lastError = null;
+        this.reloads.increment();
+        LOG.info("Configuration reloaded in " + TimeUnit.NANOSECONDS.toMillis(this.lastReloadNanos) + "ms");
+        return true;
+    }
+
+    /**
+     * @return the engine currently in use; keep it only for the duration of one validation
+     */
+    public ValidatorEngine getEngine() {
+        return this.engine.get();
+    }
+
+    /**
+     * Validates a document with the current engine.
+     *
+     * @param input the input document for validation; the array is not modified
+     * @return validation result, never null
+     * @see ValidatorEngine#validate(byte[])
+     */
+    public ValidationResult validate(final byte[] input)
+            throws SAXException, IOException, ParserConfigurationException,
+            NoSuchAlgorithmException, CertificateException, MarshalException,
+            XMLSignatureException, InvalidKeySpecException {
+        return this.engine.get().validate(input);
+    }
+
+    /**
+     * Validates a document read from a stream with the current engine. The stream is not closed.
+     *
+     * @param input the input document for validation
+     * @return validation result, never null
+     * @see ValidatorEngine#validate(InputStream)
+     */
+    public ValidationResult validate(final InputStream input)
+            throws SAXException, IOException, ParserConfigurationException,
+            NoSuchAlgorithmException, CertificateException, MarshalException,
+            XMLSignatureException, InvalidKeySpecException {
+        return this.engine.get().validate(input);
+    }
+
+    /**
+     * @return number of successful reloads
+     */
+    public long getReloads() {
+        return this.reloads.sum();
+    }
+
+    /**
+     * @return number of reloads that failed and left the previous engine in use
+     */
+    public long getFailures() {
+        return this.failures.sum();
+    }
+
+    /**
+     * @param unit time unit
+     * @return time it took to compile the engine in the last successful reload, 0 before the first one
+     */
+    public long getLastReloadTime(final TimeUnit unit) {
+        return unit.convert(this.lastReloadNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the error of the last reload, null if it succeeded
+     */
+    public Exception getLastError() {
+        return this.lastError;
+    }
+
+    /**
+     * Stops watching the files. The current engine remains usable.
+     */
+    @Override
+    public void close() throws IOException {
+        this.watcher.close();
+        this.thread.interrupt();
+    }
+
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright Pawel Krawczyk (c) 2014.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.saml;
+
+/**
+ * Remembers signed elements already accepted, so that a validator can reject replays.
+ * <p>
+ * {@link InMemoryReplayStore} serves a single process. Services running on several
+ * nodes can implement this interface on top of a shared store, for example with an
+ * atomic set-if-absent with expiry.
+ *
+ * @see Validator#setReplayStore(ReplayStore, long, java.util.concurrent.TimeUnit)
+ */
+public interface ReplayStore {
+
+    /**
+     * Atomically records a key unless it is already recorded and not yet expired.
+     * Called from many threads at once.
+     *
+     * @param key       identifies the signed element: its issuer and ID
+     * @param expiresAt time in milliseconds since the epoch after which the key may be forgotten
+     * @return true if the key was recorded now, false if it had been recorded before
+     */
+    boolean markIfAbsent(String key, long expiresAt);
+
+}
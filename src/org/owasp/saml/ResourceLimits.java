@@ -0,0 +1,181 @@
+/*
+ * Copyright Pawel Krawczyk (c) 2014.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.saml;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Immutable per-document resource budget, bounding the memory and time a single validation
+ * can take.
+ * <p>
+ * Size, nesting depth, attributes per element and number of markup nodes are enforced while
+ * the document is read, before it is buffered into a DOM, so an oversized or deeply nested
+ * document is aborted as soon as it crosses a limit. The wall time is checked while reading
+ * and between the validation phases. Documents over budget are rejected as
+ * {@link FailureCode#RESOURCE_LIMIT}.
+ * <p>
+ * {@link #defaults()} allows 4 MiB, depth 100, 100 attributes per element and 10000 nodes,
+ * with no time limit. They are enforced unless other limits are set with
+ * {@link Validator#setResourceLimits(ResourceLimits)}, which is needed for larger documents.
+ */
+public final class ResourceLimits {
+
+    private static final ResourceLimits DEFAULTS = new Builder().build();
+
+    private final long maxBytes;
+    private final int maxDepth;
+    private final int maxAttributes;
+    private final int maxNodes;
+    private final long maxTimeNanos;
+
+    private ResourceLimits(final Builder builder) {
+        this.maxBytes = builder.maxBytes;
+        this.maxDepth = builder.maxDepth;
+        this.maxAttributes = builder.maxAttributes;
+        this.maxNodes = builder.maxNodes;
+        this.maxTimeNanos = builder.maxTimeNanos;
+    }
+
+    /**
+     * @return the built-in limits
+     */
+    public static ResourceLimits defaults() {
+        return DEFAULTS;
+    }
+
+    /**
+     * @return maximum size of the document in bytes
+     */
+    public long getMaxBytes() {
+        return this.maxBytes;
+    }
+
+    /**
+     * @return maximum nesting depth of elements, the root element being at depth 1
+     */
+    public int getMaxDepth() {
+        return this.maxDepth;
+    }
+
+    /**
+     * @return maximum number of attributes of one element, namespace declarations included
+     */
+    public int getMaxAttributes() {
+        return this.maxAttributes;
+    }
+
+    /**
+     * @return maximum number of elements, comments, processing instructions and CDATA sections
+     */
+    public int getMaxNodes() {
+        return this.maxNodes;
+    }
+
+    /**
+     * @param unit time unit
+     * @return maximum wall time of one validation, 0 if unlimited
+     */
+    public long getMaxTime(final TimeUnit unit) {
+        return unit.convert(this.maxTimeNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /*
+     * True if a validation started at the given System.nanoTime() has run out of time, never if the
+     * time is unlimited. The elapsed time is compared with the limit instead of computing an end time
+     * up front: nanoTime() has an arbitrary origin and start + maxTime could overflow.
+     */
+    boolean isOverTime(final long start) {
+        return this.maxTimeNanos != 0 && System.nanoTime() - start > this.maxTimeNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "maxBytes=" + this.maxBytes + " maxDepth=" + this.maxDepth + " maxAttributes=" + this.maxAttributes
+                + " maxNodes=" + this.maxNodes + " maxTime=" + TimeUnit.NANOSECONDS.toMillis(this.maxTimeNanos) + "ms";
+    }
+
+    /**
+     * Collects limits for new {@link ResourceLimits}, starting with the defaults.
+     */
+    public static final class Builder {
+
+        private long maxBytes = 4 * 1024 * 1024;
+        private int maxDepth = 100;
+        private int maxAttributes = 100;
+        private int maxNodes = 10000;
+        private long maxTimeNanos = 0;
+
+        /**
+         * @param bytes maximum size of the document in bytes
+         * @return this builder
+         */
+        public Builder maxBytes(final long bytes) {
+            this.maxBytes = positive(bytes, "maxBytes");
+            return this;
+        }
+
+        /**
+         * @param depth maximum nesting depth of elements
+         * @return this builder
+         */
+        public Builder maxDepth(final int depth) {
+            this.maxDepth = (int) positive(depth, "maxDepth");
+            return this;
+        }
+
+        /**
+         * @param attributes maximum number of attributes of one element, namespace declarations included
+         * @return this builder
+         */
+        public Builder maxAttributes(final int attributes) {
+            this.maxAttributes = (int) positive(attributes, "maxAttributes");
+            return this;
+        }
+
+        /**
+         * @param nodes maximum number of elements, comments, processing instructions and CDATA sections
+         * @return this builder
+         */
+        public Builder maxNodes(final int nodes) {
+            this.maxNodes = (int) positive(nodes, "maxNodes");
+            return this;
+        }
+
+        /**
+         * @param time maximum wall time of one validation, 0 for no limit
+         * @param unit unit of time
+         * @return this builder
+         */
+        public Builder maxTime(final long time, final TimeUnit unit) {
+            if (time < 0) {
+                throw new IllegalArgumentException("maxTime must not be negative");
+            }
+            this.maxTimeNanos = unit.toNanos(time);
+            return this;
+        }
+
+        private static long positive(final long value, final String name) {
+            if (value < 1) {
+                throw new IllegalArgumentException(name + " must be positive");
+            }
+            return value;
+        }
+
+        /**
+         * @return immutable limits
+         */
+        public ResourceLimits build() {
+            return new ResourceLimits(this);
+        }
+    }
+
+}
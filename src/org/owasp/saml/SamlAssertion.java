@@ -0,0 +1,210 @@
+/*
+ * Copyright Pawel Krawczyk (c) 2014.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.saml;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/*
+ * Reads the issuer and the validity window of SAML 1.1 and 2.0 assertions. Used to key and to decide
+ * how long derived data may be kept; the validator itself does not enforce assertion conditions.
+ */
+final class SamlAssertion {
+
+    private final static Logger LOG = Logger.getLogger(SamlAssertion.class.getName());
+
+    static final String SAML1_NS = "urn:oasis:names:tc:SAML:1.0:assertion";
+    static final String SAML2_NS = "urn:oasis:names:tc:SAML:2.0:assertion";
+
+    private static final DatatypeFactory DATATYPES;
+
+    static {
+        try {
+            DATATYPES = DatatypeFactory.newInstance();
+        } catch (DatatypeConfigurationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private SamlAssertion() {
+    }
+
+    /*
+     * Returns the issuer of the first assertion within the element, the Issuer child in SAML 2.0 or
+     * the Issuer attribute in SAML 1.1, or null if there is none.
+     */
+    static String issuer(final Element element) {
+        NodeList issuers = element.getElementsByTagNameNS(SAML2_NS, "Issuer");
+        if (issuers.getLength() > 0) {
+            return issuers.item(0).getTextContent().trim();
+        }
+        NodeList assertions = element.getElementsByTagNameNS(SAML1_NS, "Assertion");
+        if (assertions.getLength() > 0 && ((Element) assertions.item(0)).hasAttribute("Issuer")) {
+            return ((Element) assertions.item(0)).getAttribute("Issuer");
+        }
+        return null;
+    }
+
+    /*
+     * Returns the earliest NotOnOrAfter of all assertion Conditions within the element, in milliseconds
+     * since the epoch, or Long.MAX_VALUE if there is none. Unparseable values count as already expired.
+     */
+    static long notOnOrAfter(final Element element) {
+        long earliest = Long.MAX_VALUE;
+        earliest = Math.min(earliest, notOnOrAfter(element, SAML2_NS));
+        earliest = Math.min(earliest, notOnOrAfter(element, SAML1_NS));
+        return earliest;
+    }
+
+    private static long notOnOrAfter(final Element element, final String ns) {
+        long earliest = Long.MAX_VALUE;
+        NodeList conditions = element.getElementsByTagNameNS(ns, "Conditions");
+        for (int i = 0; i < conditions.getLength(); i++) {
+            String value = ((Element) conditions.item(i)).getAttribute("NotOnOrAfter");
+            if (value.isEmpty()) {
+                continue;
+            }
+            try {
+                earliest = Math.min(earliest, instant(value));
+            } catch (IllegalArgumentException e) {
+                LOG.fine("Unparseable NotOnOrAfter " + value);
+                return Long.MIN_VALUE;
+            }
+        }
+        return earliest;
+    }
+
+    /*
+     * Copies the claims of the first assertion within the element, descending into nested assertions
+     * (such as those in Advice) only to skip them. Returns empty claims if there is no assertion.
+     */
+    static Claims claims(final Element element) {
+        Element assertion = firstAssertion(element);
+        Map<String, List<String>> attributes = new LinkedHashMap<>();
+        if (assertion == null) {
+            return new Claims(null, null, null, Long.MIN_VALUE, Long.MAX_VALUE, Collections.<String, List<String>>emptyMap());
+        }
+
+        boolean saml2 = SAML2_NS.equals(assertion.getNamespaceURI());
+        String id = saml2 ? assertion.getAttribute("ID") : assertion.getAttribute("AssertionID");
+        String issuer = saml2 ? null : assertion.getAttribute("Issuer");
+        String subject = null;
+        long notBefore = Long.MIN_VALUE;
+        long notOnOrAfter = Long.MAX_VALUE;
+
+        String ns = assertion.getNamespaceURI();
+        Node node = assertion.getFirstChild();
+        while (node != null) {
+            boolean descend = false;
+            if (node.getNodeType() == Node.ELEMENT_NODE && ns.equals(node.getNamespaceURI())) {
+                Element e = (Element) node;
+                switch (e.getLocalName()) {
+                    case "Issuer":
+                        if (issuer == null && e.getParentNode() == assertion) {
+                            issuer = e.getTextContent().trim();
+                        }
+                        break;
+                    case "NameID":
+                    case "NameIdentifier":
+                        if (subject == null) {
+                            subject = e.getTextContent().trim();
+                        }
+                        break;
+                    case "Conditions":
+                        if (e.hasAttribute("NotBefore")) {
+                            notBefore = time(e.getAttribute("NotBefore"), Long.MAX_VALUE);
+                        }
+                        if (e.hasAttribute("NotOnOrAfter")) {
+                            notOnOrAfter = time(e.getAttribute("NotOnOrAfter"), Long.MIN_VALUE);
+                        }
+                        break;
+                    case "Attribute":
+                        attributes.put(e.getAttribute(saml2 ? "Name" : "AttributeName"), attributeValues(e, ns));
+                        break;
+                    case "Assertion":
+                        break;
+                    default:
+                        descend = true;
+                        break;
+                }
+            }
+            node = next(node, descend, assertion);
+        }
+        return new Claims(id.isEmpty() ? null : id, issuer == null || issuer.isEmpty() ? null : issuer, subject,
+                notBefore, notOnOrAfter, Collections.unmodifiableMap(attributes));
+    }
+
+    private static Element firstAssertion(final Element element) {
+        Node node = element;
+        while (node != null) {
+            if (node.getNodeType() == Node.ELEMENT_NODE && "Assertion".equals(node.getLocalName())
+                    && (SAML2_NS.equals(node.getNamespaceURI()) || SAML1_NS.equals(node.getNamespaceURI()))) {
+                return (Element) node;
+            }
+            node = next(node, true, element);
+        }
+        return null;
+    }
+
+    private static List<String> attributeValues(final Element attribute, final String ns) {
+        List<String> values = new ArrayList<>();
+        for (Node node = attribute.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node.getNodeType() == Node.ELEMENT_NODE && ns.equals(node.getNamespaceURI())
+                    && "AttributeValue".equals(node.getLocalName())) {
+                values.add(node.getTextContent().trim());
+            }
+        }
+        return Collections.unmodifiableList(values);
+    }
+
+    /*
+     * Document order walk without recursion, so that deep documents cannot overflow the stack.
+     */
+    private static Node next(final Node node, final boolean descend, final Node root) {
+        if (descend && node.getFirstChild() != null) {
+            return node.getFirstChild();
+        }
+        for (Node n = node; n != null && n != root; n = n.getParentNode()) {
+            if (n.getNextSibling() != null) {
+                return n.getNextSibling();
+            }
+        }
+        return null;
+    }
+
+    private static long time(final String value, final long unparseable) {
+        try {
+            return instant(value);
+        } catch (IllegalArgumentException e) {
+            LOG.fine("Unparseable time " + value);
+            return unparseable;
+        }
+    }
+
+    private static long instant(final String value) {
+        // DatatypeFactory is not guaranteed to be thread-safe
+        synchronized (DATATYPES) {
+            return DATATYPES.newXMLGregorianCalendar(value.trim()).toGregorianCalendar().getTimeInMillis();
+        }
+    }
+
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright Pawel Krawczyk (c) 2014.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.saml;
+
+import org.xml.sax.SAXException;
+
+import javax.xml.validation.Schema;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/*
+ * Compiled schemas shared between engines, keyed by the content of the initial schema and of
+ * the catalog supplying the referenced ones. Engines of different tenants configured with the
+ * same XSD set get the same thread-safe Schema object instead of compiling their own copy.
+ *
+ * The owner of the cached engines acquires the schema of each engine it keeps and releases it
+ * when the engine is dropped; schemas no engine holds any more are dropped at the next release,
+ * including those compiled for engines that were never kept.
+ */
+final class SchemaCache {
+
+    private final static Logger LOG = Logger.getLogger(SchemaCache.class.getName());
+
+    interface Compiler {
+        Schema compile() throws SAXException, IOException;
+    }
+
+    // guarded by this
+    private final Map<String, Compiled> schemas = new HashMap<>();
+    private long weight;
+    // held while compiling, so that lookups and releases do not wait for a compilation
+    private final Object compiling = new Object();
+    private SchemaCatalog defaultCatalog;
+
+    Schema get(final String key, final Compiler compiler) throws SAXException, IOException {
+        Schema schema = find(key);
+        if (schema != null) {
+            LOG.fine("Reusing compiled schema " + key);
+            return schema;
+        }
+        // compiling is rare and expensive, one at a time rather than the same schema twice
+        synchronized (this.compiling) {
+            schema = find(key);
+            if (schema == null) {
+                schema = compiler.compile();
+                synchronized (this) {
+                    this.schemas.put(key, new Compiled(schema));
+                }
+            }
+        }
+        return schema;
+    }
+
+    private synchronized Schema find(final String key) {
+        Compiled compiled = this.schemas.get(key);
+        return compiled != null ? compiled.schema : null;
+    }
+
+    /*
+     * Marks the schema as used by a kept engine. A schema dropped while the engine was being
+     * compiled is put back.
+     */
+    synchronized void acquire(final String key, final Schema schema, final SchemaCatalog catalog) {
+        Compiled compiled = this.schemas.get(key);
+        if (compiled == null) {
+            compiled = new Compiled(schema);
+            this.schemas.put(key, compiled);
+        }
+        if (compiled.references++ == 0) {
+            compiled.weight = weight(catalog);
+            this.weight += compiled.weight;
+        }
+    }
+
+    synchronized void release(final String key) {
+        Compiled released = this.schemas.get(key);
+        if (released != null && released.references > 0 && --released.references == 0) {
+            this.weight -= released.weight;
+        }
+        Iterator<Map.Entry<String, Compiled>> it = this.schemas.entrySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().getValue().references == 0) {
+                it.remove();
+            }
+        }
+    }
+
+    /*
+     * Rough estimate of the heap held by the schemas in use: the grammars compiled from a catalog
+     * take a few times the size of its sources.
+     */
+    private static long weight(final SchemaCatalog catalog) {
+        return 4 * catalog.length();
+    }
+
+    synchronized long weight() {
+        return this.weight;
+    }
+
+    /*
+     * The default catalog is read from the schemas directory once for all engines.
+     */
+    SchemaCatalog defaultCatalog() throws IOException {
+        synchronized (this.compiling) {
+            if (this.defaultCatalog == null) {
+                this.defaultCatalog = ValidatorEngine.defaultCatalog();
+            }
+            return this.defaultCatalog;
+        }
+    }
+
+    synchronized int size() {
+        return this.schemas.size();
+    }
+
+    static String key(final String schemaFile, final SchemaCatalog catalog) throws IOException {
+        File file = new File(schemaFile);
+        String initial = schemaFile;
+        if (file.isFile()) {
+            initial = SigningKeys.hex(SigningKeys.digest("SHA-256", Files.readAllBytes(file.toPath())));
+        }
+        return initial + "/" + catalog.digest();
+    }
+
+    private static final class Compiled {
+
+        final Schema schema;
+        long weight;
+        int references;
+
+        Compiled(final Schema schema) {
+            this.schema = schema;
+        }
+    }
+
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright Pawel Krawczyk (c) 2014.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.saml;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+/**
+ * Immutable in-memory store of the XML schemas and DTDs used during validation.
+ * <p>
+ * Schemas are read once into memory and indexed by file name, system identifier,
+ * public identifier and target namespace, so resolving an entity is a hash lookup
+ * returning a {@link ByteArrayInputStream} over the shared buffer. A catalog can be
+ * loaded from a directory or from the classpath (including jar files).
+ */
+public final class SchemaCatalog {
+
+    private final static Logger LOG = Logger.getLogger(SchemaCatalog.class.getName());
+
+    /**
+     * Schema files shipped with this project, used when loading from the classpath
+     * without an explicit list of names.
+     */
+    public static final String[] DEFAULT_NAMES = {
+            "WS-Trust.xsd",
+            "XMLSchema.dtd",
+            "addressing.xsd",
+            "datatypes.dtd",
+            "exc-c14n.xsd",
+            "identity-1.0-errata-os.xsd",
+            "oasis-200401-wss-wssecurity-secext-1.0.xsd",
+            "oasis-200401-wss-wssecurity-utility-1.0.xsd",
+            "saml-schema-assertion-1.0.xsd",
+            "saml-schema-assertion-2.0.xsd",
+            "saml-schema-protocol-1.1.xsd",
+            "soap-envelope.xsd",
+            "ws-policy.xsd",
+            "xml.xsd",
+            "xmldsig-core-schema.xsd",
+    };
+
+    /*
+     * Identifiers that cannot be derived from the file name or the target namespace
+     * of the schema: { identifier, file name }.
+     */
+    private static final String[][] ALIASES = {
+            {"http://schemas.xmlsoap.org/ws/2004/08/addressing/", "addressing.xsd"},
+            {"-//W3C//DTD XMLSchema 200102//EN", "XMLSchema.dtd"},
+            {"datatypes", "datatypes.dtd"},
+    };
+
+    private final Map<String, byte[]> byName;
+    private final Map<String, byte[]> byId;
+    private volatile String digest;
+
+    private SchemaCatalog(final Map<String, byte[]> byName, final Map<String, byte[]> byId) {
+        this.byName = Collections.unmodifiableMap(byName);
+        this.byId = Collections.unmodifiableMap(byId);
+    }
+
+    /**
+     * Loads every file in a directory.
+     *
+     * @param directory directory with schema files, for example "schemas"
+     * @return the catalog
+     * @throws IOException on file errors
+     */
+    public static SchemaCatalog fromDirectory(final File directory) throws IOException {
+        return new Builder().addDirectory(directory).build();
+    }
+
+    /**
+     * Loads the {@link #DEFAULT_NAMES} schemas from the classpath.
+     *
+     * @param loader class loader to read the resources from
+     * @param prefix resource path of the schema directory, for example "org/owasp/saml/schemas/"
+     * @return the catalog
+     * @throws IOException if a resource is missing or cannot be read
+     */
+    public static SchemaCatalog fromClasspath(final ClassLoader loader, final String prefix) throws IOException {
+        return new Builder().addClasspath(loader, prefix, DEFAULT_NAMES).build();
+    }
+
+    /**
+     * Finds a local copy of an entity.
+     *
+     * @param publicId public identifier, may be null
+     * @param systemId system identifier (URL, URN or namespace), may be null
+     * @return a fresh stream over the stored entity, or null if it is not in the catalog
+     */
+    public InputStream open(final String publicId, final String systemId) {
+        byte[] content = find(publicId, systemId);
+        return content == null ? null : new ByteArrayInputStream(content);
+    }
+
+    /**
+     * @param systemId system identifier, namespace or file name
+     * @return true if the catalog has a local copy of the entity
+     */
+    public boolean contains(final String systemId) {
+        return find(null, systemId) != null;
+    }
+
+    /*
+     * Total size of the stored entities in bytes.
+     */
+    long length() {
+        long length = 0;
+        for (byte[] content : this.byName.values()) {
+            length += content.length;
+        }
+        return length;
+    }
+
+    /*
+     * Hash of every stored entity and the identifiers it is found by, so that catalogs loaded
+     * separately from the same files can share compiled schemas.
+     */
+    String digest() {
+        String digest = this.digest;
+        if (digest == null) {
+            MessageDigest md;
+            try {
+                md = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 not available", e);
+            }
+            for (Map<String, byte[]> entries : Arrays.asList(this.byName, this.byId)) {
+                for (Map.Entry<String, byte[]> entry : new TreeMap<>(entries).entrySet()) {
+                    md.update(entry.getKey().getBytes(StandardCharsets.UTF_8));
+                    md.update((byte) 0);
+                    md.update(SigningKeys.digest("SHA-256", entry.getValue()));
+                }
+                md.update((byte) 1);
+            }
+            digest = SigningKeys.hex(md.digest());
+            this.digest = digest;
+        }
+        return digest;
+    }
+
+    private byte[] find(final String publicId, final String systemId) {
+        byte[] content = null;
+        if (systemId != null) {
+            content = this.byId.get(systemId);
+            if (content == null) {
+                content = this.byName.get(systemId.substring(systemId.lastIndexOf('/') + 1));
+            }
+        }
+        if (content == null && publicId != null) {
+            content = this.byId.get(publicId);
+        }
+        return content;
+    }
+
+    /**
+     * Collects schema files for a {@link SchemaCatalog}.
+     */
+    public static final class Builder {
+
+        private final Map<String, byte[]> byName = new LinkedHashMap<>();
+        private final Map<String, String> aliases = new HashMap<>();
+
+        /**
+         * Adds a single schema.
+         *
+         * @param name    file name of the schema, such as "xml.xsd"
+         * @param content schema contents; the array must not be modified afterwards
+         * @return this builder
+         */
+        public Builder add(final String name, final byte[] content) {
+            this.byName.put(name, content);
+            return this;
+        }
+
+        /**
+         * Makes a schema that was added by name also available under another identifier.
+         *
+         * @param id   system identifier, public identifier or namespace
+         * @param name file name of the schema
+         * @return this builder
+         */
+        public Builder alias(final String id, final String name) {
+            this.aliases.put(id, name);
+            return this;
+        }
+
+        /**
+         * Adds every regular file in a directory.
+         *
+         * @param directory directory with schema files
+         * @return this builder
+         * @throws IOException on file errors
+         */
+        public Builder addDirectory(final File directory) throws IOException {
+            File[] files = directory.listFiles();
+            if (files == null) {
+                throw new FileNotFoundException("Schema directory not found: " + directory);
+            }
+            for (File file : files) {
+                if (file.isFile()) {
+                    add(file.getName(), Files.readAllBytes(file.toPath()));
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Adds named resources from the classpath.
+         *
+         * @param loader class loader to read the resources from
+         * @param prefix resource path of the schema directory, ending with "/"
+         * @param names  file names of the schemas
+         * @return this builder
+         * @throws IOException if a resource is missing or cannot be read
+         */
+        public Builder addClasspath(final ClassLoader loader, final String prefix, final String... names) throws IOException {
+            for (String name : names) {
+                try (InputStream in = loader.getResourceAsStream(prefix + name)) {
+                    if (in == null) {
+                        throw new FileNotFoundException("Schema resource not found: " + prefix + name);
+                    }
+                    add(name, readFully(in));
+                }
+            }
+            return this;
+        }
+
+        /**
+         * @return immutable catalog of the added schemas
+         */
+        public SchemaCatalog build() {
+            Map<String, byte[]> names = new HashMap<>(this.byName);
+            Map<String, byte[]> ids = new HashMap<>();
+
+            for (Map.Entry<String, byte[]> entry : names.entrySet()) {
+                String namespace = targetNamespace(entry.getKey(), entry.getValue());
+                if (namespace != null && !namespace.isEmpty()) {
+                    ids.put(namespace, entry.getValue());
+                }
+            }
+
+            for (String[] alias : ALIASES) {
+                if (names.containsKey(alias[1])) {
+                    ids.put(alias[0], names.get(alias[1]));
+                }
+            }
+            for (Map.Entry<String, String> alias : this.aliases.entrySet()) {
+                byte[] content = names.get(alias.getValue());
+                if (content == null) {
+                    throw new IllegalArgumentException("Alias " + alias.getKey() + " refers to unknown schema " + alias.getValue());
+                }
+                ids.put(alias.getKey(), content);
+            }
+
+            LOG.fine("Schema catalog names=" + names.keySet() + " ids=" + ids.keySet());
+            return new SchemaCatalog(names, ids);
+        }
+
+        /*
+         * Reads targetNamespace from the root element of an XML schema. DTDs and anything
+         * that does not parse simply have no namespace. Whitespace before the XML declaration,
+         * as in the W3C exc-c14n.xsd, is skipped: the parser would reject the declaration.
+         */
+        private static String targetNamespace(final String name, final byte[] content) {
+            if (!name.endsWith(".xsd")) {
+                return null;
+            }
+            int start = 0;
+            while (start < content.length && Character.isWhitespace(content[start])) {
+                start++;
+            }
+            XMLInputFactory xif = XMLInputFactory.newInstance();
+            xif.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            xif.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+            try {
+                XMLStreamReader reader = xif.createXMLStreamReader(new ByteArrayInputStream(content, start, content.length - start));
+                try {
+                    while (reader.hasNext()) {
+                        if (reader.next() == XMLStreamReader.START_ELEMENT) {
+                            return reader.getAttributeValue(null, "targetNamespace");
+                        }
+                    }
+                } finally {
+                    reader.close();
+                }
+            } catch (XMLStreamException e) {
+                LOG.warning("Cannot read targetNamespace of " + name + ": " + e.getMessage());
+            }
+            return null;
+        }
+    }
+
+    static byte[] readFully(final InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright Pawel Krawczyk (c) 2014.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.saml;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Immutable set of structural rules a signature must satisfy before any digest is computed
+ * or any public key operation is made.
+ * <p>
+ * The rules are checked on the located signature and signed elements, cheapest first: the number
+ * of references, that every reference points by its ID at one of the elements the signature must
+ * cover and every such element is referenced, and that the canonicalization, signature, transform
+ * and digest algorithms are on the allowlists. Signatures
+ * failing a rule are rejected as {@link FailureCode#POLICY_VIOLATION}, which makes most wrapping
+ * attempts and forged tokens cheap to reject.
+ * <p>
+ * {@link #defaults()} allows exactly one reference per signed element, the inclusive and exclusive canonicalizations
+ * without comments, the enveloped signature transform and RSA or ECDSA signatures with SHA-2.
+ * SHA-1 digests and signatures are allowed too, for compatibility with existing identity providers.
+ * Set another policy with {@link Validator#setSignaturePolicy(SignaturePolicy)}.
+ */
+public final class SignaturePolicy {
+
+    private static final String C14N = "http://www.w3.org/TR/2001/REC-xml-c14n-20010315";
+    private static final String C14N11 = "http://www.w3.org/2006/12/xml-c14n11";
+    private static final String EXC_C14N = "http://www.w3.org/2001/10/xml-exc-c14n#";
+    private static final String ENVELOPED = "http://www.w3.org/2000/09/xmldsig#enveloped-signature";
+
+    private static final String RSA_SHA1 = "http://www.w3.org/2000/09/xmldsig#rsa-sha1";
+    private static final String RSA_SHA256 = "http://www.w3.org/2001/04/xmldsig-more#rsa-sha256";
+    private static final String RSA_SHA384 = "http://www.w3.org/2001/04/xmldsig-more#rsa-sha384";
+    private static final String RSA_SHA512 = "http://www.w3.org/2001/04/xmldsig-more#rsa-sha512";
+    private static final String ECDSA_SHA256 = "http://www.w3.org/2001/04/xmldsig-more#ecdsa-sha256";
+    private static final String ECDSA_SHA384 = "http://www.w3.org/2001/04/xmldsig-more#ecdsa-sha384";
+    private static final String ECDSA_SHA512 = "http://www.w3.org/2001/04/xmldsig-more#ecdsa-sha512";
+
+    private static final String SHA1 = "http://www.w3.org/2000/09/xmldsig#sha1";
+    private static final String SHA256 = "http://www.w3.org/2001/04/xmlenc#sha256";
+    private static final String SHA384 = "http://www.w3.org/2001/04/xmldsig-more#sha384";
+    private static final String SHA512 = "http://www.w3.org/2001/04/xmlenc#sha512";
+
+    private static final SignaturePolicy DEFAULTS = new Builder()
+            .maxReferences(1)
+            .allowCanonicalization(C14N, C14N11, EXC_C14N)
+            .allowTransform(ENVELOPED, C14N, C14N11, EXC_C14N)
+            .allowSignatureMethod(RSA_SHA256, RSA_SHA384, RSA_SHA512, ECDSA_SHA256, ECDSA_SHA384, ECDSA_SHA512, RSA_SHA1)
+            .allowDigestMethod(SHA256, SHA384, SHA512, SHA1)
+            .build();
+
+    private final int maxReferences;
+    private final Set<String> canonicalizations;
+    private final Set<String> transforms;
+    private final Set<String> signatureMethods;
+    private final Set<String> digestMethods;
+
+    private SignaturePolicy(final Builder builder) {
+        this.maxReferences = builder.maxReferences;
+        this.canonicalizations = Collections.unmodifiableSet(new LinkedHashSet<>(builder.canonicalizations));
+        this.transforms = Collections.unmodifiableSet(new LinkedHashSet<>(builder.transforms));
+        this.signatureMethods = Collections.unmodifiableSet(new LinkedHashSet<>(builder.signatureMethods));
+        this.digestMethods = Collections.unmodifiableSet(new LinkedHashSet<>(builder.digestMethods));
+    }
+
+    /**
+     * @return the built-in policy
+     */
+    public static SignaturePolicy defaults() {
+        return DEFAULTS;
+    }
+
+    /**
+     * @return maximum number of references in SignedInfo per element the signature must cover
+     */
+    public int getMaxReferences() {
+        return this.maxReferences;
+    }
+
+    /**
+     * @return allowed SignedInfo canonicalization algorithms
+     */
+    public Set<String> getCanonicalizations() {
+        return this.canonicalizations;
+    }
+
+    /**
+     * @return allowed reference transforms
+     */
+    public Set<String> getTransforms() {
+        return this.transforms;
+    }
+
+    /**
+     * @return allowed signature algorithms
+     */
+    public Set<String> getSignatureMethods() {
+        return this.signatureMethods;
+    }
+
+    /**
+     * @return allowed digest algorithms
+     */
+    public Set<String> getDigestMethods() {
+        return this.digestMethods;
+    }
+
+    /*
+     * Returns null if the signature satisfies the policy, otherwise the reason for rejecting it.
+     * Only the DOM is inspected, nothing is canonicalized or digested. Every reference must point
+     * at one of the located elements by its ID, given in the same order, and every element must be
+     * referenced; a signature over anything else, or over the whole document, does not protect the
+     * elements the caller is going to use.
+     */
+    String check(final Element signature, final Element[] elements, final String[] ids) {
+        Element signedInfo = next(signature.getFirstChild(), "SignedInfo");
+        if (signedInfo == null) {
+            return "no SignedInfo";
+        }
+        Element canonicalization = next(signedInfo.getFirstChild(), "CanonicalizationMethod");
+        Element signatureMethod = next(signedInfo.getFirstChild(), "SignatureMethod");
+        if (canonicalization == null || signatureMethod == null) {
+            return "incomplete SignedInfo";
+        }
+
+        int maxReferences = this.maxReferences * elements.length;
+        int references = 0;
+        for (Element reference = next(signedInfo.getFirstChild(), "Reference"); reference != null;
+             reference = next(reference.getNextSibling(), "Reference")) {
+            if (++references > maxReferences) {
+                return "more than " + maxReferences + " references";
+            }
+        }
+        if (references == 0) {
+            return "no references";
+        }
+
+        Set<String> expected = new LinkedHashSet<>();
+        for (int i = 0; i < elements.length; i++) {
+            if (ids[i] == null || ids[i].isEmpty()) {
+                return "signed element " + elements[i].getLocalName() + " has no ID to be referenced";
+            }
+            expected.add("#" + ids[i]);
+        }
+        Set<String> unreferenced = new LinkedHashSet<>(expected);
+        for (Element reference = next(signedInfo.getFirstChild(), "Reference"); reference != null;
+             reference = next(reference.getNextSibling(), "Reference")) {
+            String uri = reference.getAttribute("URI");
+            if (!reference.hasAttribute("URI") || !expected.contains(uri)) {
+                return "reference " + uri + " does not point at a signed element " + expected;
+            }
+            unreferenced.remove(uri);
+        }
+        if (!unreferenced.isEmpty()) {
+            return "signed elements " + unreferenced + " are not referenced";
+        }
+
+        String algorithm = canonicalization.getAttribute("Algorithm");
+        if (!this.canonicalizations.contains(algorithm)) {
+            return "canonicalization " + algorithm + " not allowed";
+        }
+        algorithm = signatureMethod.getAttribute("Algorithm");
+        if (!this.signatureMethods.contains(algorithm)) {
+            return "signature method " + algorithm + " not allowed";
+        }
+
+        for (Element reference = next(signedInfo.getFirstChild(), "Reference"); reference != null;
+             reference = next(reference.getNextSibling(), "Reference")) {
+            Element transforms = next(reference.getFirstChild(), "Transforms");
+            if (transforms != null) {
+                for (Element transform = next(transforms.getFirstChild(), "Transform"); transform != null;
+                     transform = next(transform.getNextSibling(), "Transform")) {
+                    algorithm = transform.getAttribute("Algorithm");
+                    if (!this.transforms.contains(algorithm)) {
+                        return "transform " + algorithm + " not allowed";
+                    }
+                }
+            }
+            Element digestMethod = next(reference.getFirstChild(), "DigestMethod");
+            algorithm = digestMethod != null ? digestMethod.getAttribute("Algorithm") : "";
+            if (!this.digestMethods.contains(algorithm)) {
+                return "digest method " + algorithm + " not allowed";
+            }
+        }
+        return null;
+    }
+
+    /*
+     * The first XML Signature element with the given name, starting at the node and moving through its siblings.
+     */
+    private static Element next(final Node start, final String localName) {
+        for (Node node = start; node != null; node = node.getNextSibling()) {
+            if (node.getNodeType() == Node.ELEMENT_NODE && SigningKeys.DSIG_NS.equals(node.getNamespaceURI())
+                    && localName.equals(node.getLocalName())) {
+                return (Element) node;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "maxReferences=" + this.maxReferences + " canonicalizations=" + this.canonicalizations
+                + " transforms=" + this.transforms + " signatureMethods=" + this.signatureMethods
+                + " digestMethods=" + this.digestMethods;
+    }
+
+    /**
+     * Collects rules for a new {@link SignaturePolicy}.
+     */
+    public static final class Builder {
+
+        private int maxReferences = 1;
+        private final Set<String> canonicalizations = new LinkedHashSet<>();
+        private final Set<String> transforms = new LinkedHashSet<>();
+        private final Set<String> signatureMethods = new LinkedHashSet<>();
+        private final Set<String> digestMethods = new LinkedHashSet<>();
+
+        /**
+         * Starts with a policy allowing one reference and no algorithms.
+         */
+        public Builder() {
+        }
+
+        /**
+         * Starts with the rules of an existing policy, for example {@link SignaturePolicy#defaults()}.
+         *
+         * @param base policy to extend
+         */
+        public Builder(final SignaturePolicy base) {
+            this.maxReferences = base.maxReferences;
+            this.canonicalizations.addAll(base.canonicalizations);
+            this.transforms.addAll(base.transforms);
+            this.signatureMethods.addAll(base.signatureMethods);
+            this.digestMethods.addAll(base.digestMethods);
+        }
+
+        /**
+         * @param count maximum number of references in SignedInfo per element the signature must cover,
+         *              at least 1; all of them must point at those elements
+         * @return this builder
+         */
+        public Builder maxReferences(final int count) {
+            if (count < 1) {
+                throw new IllegalArgumentException("at least one reference must be allowed");
+            }
+            this.maxReferences = count;
+            return this;
+        }
+
+        /**
+         * @param algorithms SignedInfo canonicalization algorithm URIs to allow
+         * @return this builder
+         */
+        public Builder allowCanonicalization(final String... algorithms) {
+            Collections.addAll(this.canonicalizations, algorithms);
+            return this;
+        }
+
+        /**
+         * @param algorithms reference transform algorithm URIs to allow
+         * @return this builder
+         */
+        public Builder allowTransform(final String... algorithms) {
+            Collections.addAll(this.transforms, algorithms);
+            return this;
+        }
+
+        /**
+         * @param algorithms signature algorithm URIs to allow
+         * @return this builder
+         */
+        public Builder allowSignatureMethod(final String... algorithms) {
+            Collections.addAll(this.signatureMethods, algorithms);
+            return this;
+        }
+
+        /**
+         * @param algorithms digest algorithm URIs to allow
+         * @return this builder
+         */
+        public Builder allowDigestMethod(final String... algorithms) {
+            Collections.addAll(this.digestMethods, algorithms);
+            return this;
+        }
+
+        /**
+         * @param algorithm signature algorithm URI to remove, for example {@code SignatureMethod.RSA_SHA1}
+         * @return this builder
+         */
+        public Builder denySignatureMethod(final String algorithm) {
+            this.signatureMethods.remove(algorithm);
+            return this;
+        }
+
+        /**
+         * @param algorithm digest algorithm URI to remove, for example {@code DigestMethod.SHA1}
+         * @return this builder
+         */
+        public Builder denyDigestMethod(final String algorithm) {
+            this.digestMethods.remove(algorithm);
+            return this;
+        }
+
+        /**
+         * @return immutable policy
+         */
+        public SignaturePolicy build() {
+            return new SignaturePolicy(this);
+        }
+    }
+
+}
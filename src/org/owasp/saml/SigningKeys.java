@@ -0,0 +1,391 @@
+/*
+ * Copyright Pawel Krawczyk (c) 2014.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.saml;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.security.auth.x500.X500Principal;
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Immutable set of trusted signing keys.
+ * <p>
+ * Certificates are parsed once and kept as {@link PublicKey} objects. Several keys can
+ * be trusted at the same time, which allows overlapping certificates during a key
+ * rollover. Keys are indexed by SHA-1 and SHA-256 thumbprint, subject key identifier
+ * and issuer/serial number, so the key named in the signature's KeyInfo is found with
+ * a single hash lookup and tried first.
+ */
+public final class SigningKeys {
+
+    private final static Logger LOG = Logger.getLogger(SigningKeys.class.getName());
+
+    static final String DSIG_NS = "http://www.w3.org/2000/09/xmldsig#";
+    static final String WSSE_NS = "http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-secext-1.0.xsd";
+    private static final String THUMBPRINT_SHA1 = "#ThumbprintSHA1";
+    private static final String X509_SKI = "#X509SubjectKeyIdentifier";
+    private static final String SKI_OID = "2.5.29.14";
+
+    private final List<Key> keys;
+    private final Map<String, Key> byThumbprint;
+    private final Map<String, Key> bySki;
+    private final Map<String, Key> byIssuerSerial;
+
+    private SigningKeys(final List<Key> keys) {
+        Map<String, Key> byThumbprint = new HashMap<>();
+        Map<String, Key> bySki = new HashMap<>();
+        Map<String, Key> byIssuerSerial = new HashMap<>();
+        for (Key key : keys) {
+            byThumbprint.put(key.sha1, key);
+            byThumbprint.put(key.sha256, key);
+            if (key.ski != null) {
+                bySki.put(key.ski, key);
+            }
+            if (key.issuerSerial != null) {
+                byIssuerSerial.put(key.issuerSerial, key);
+            }
+        }
+        this.keys = Collections.unmodifiableList(new ArrayList<>(keys));
+        this.byThumbprint = byThumbprint;
+        this.bySki = bySki;
+        this.byIssuerSerial = byIssuerSerial;
+    }
+
+    /**
+     * Trusts the certificates stored in the given files.
+     *
+     * @param certificateFiles certificate files in DER or PEM format
+     * @return the key set
+     * @throws CertificateException if a certificate cannot be parsed
+     * @throws IOException          on file errors
+     */
+    public static SigningKeys fromFiles(final String... certificateFiles) throws CertificateException, IOException {
+        Builder builder = new Builder();
+        for (String file : certificateFiles) {
+            builder.addCertificateFile(file);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return all trusted keys, in the order they were added
+     */
+    public List<Key> getKeys() {
+        return this.keys;
+    }
+
+    /**
+     * Looks up a key by certificate thumbprint.
+     *
+     * @param thumbprint SHA-1 or SHA-256 thumbprint in hexadecimal
+     * @return the key or null if it is not trusted
+     */
+    public Key get(final String thumbprint) {
+        return this.byThumbprint.get(thumbprint.toLowerCase());
+    }
+
+    /*
+     * Returns the keys to try for a signature, most likely first. If the KeyInfo element identifies
+     * trusted keys only those are returned; if it identifies nothing all keys are tried in order.
+     */
+    List<Key> candidates(final Element keyInfo) {
+        if (keyInfo == null || this.keys.size() == 1) {
+            return this.keys;
+        }
+
+        Set<Key> matched = new LinkedHashSet<>();
+        collect(keyInfo, matched);
+
+        if (matched.isEmpty()) {
+            return this.keys;
+        }
+        return new ArrayList<>(matched);
+    }
+
+    private void collect(final Node node, final Set<Key> matched) {
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() != Node.ELEMENT_NODE) {
+                continue;
+            }
+            Element element = (Element) child;
+            String ns = element.getNamespaceURI();
+            String name = element.getLocalName();
+            Key key = null;
+
+            if (DSIG_NS.equals(ns) && "X509Certificate".equals(name)) {
+                key = this.byThumbprint.get(hex(digest("SHA-1", decode(element))));
+            } else if (DSIG_NS.equals(ns) && "X509SKI".equals(name)) {
+                key = this.bySki.get(hex(decode(element)));
+            } else if (DSIG_NS.equals(ns) && "X509IssuerSerial".equals(name)) {
+                key = this.byIssuerSerial.get(issuerSerial(element));
+            } else if (WSSE_NS.equals(ns) && "KeyIdentifier".equals(name)) {
+                String valueType = element.getAttribute("ValueType");
+                if (valueType.endsWith(THUMBPRINT_SHA1)) {
+                    key = this.byThumbprint.get(hex(decode(element)));
+                } else if (valueType.endsWith(X509_SKI)) {
+                    key = this.bySki.get(hex(decode(element)));
+                }
+            } else {
+                collect(element, matched);
+            }
+
+            if (key != null) {
+                matched.add(key);
+            }
+        }
+    }
+
+    /*
+     * Returns the certificates carried in X509Data of the KeyInfo element, in document order.
+     */
+    static List<X509Certificate> certificates(final Element keyInfo) throws CertificateException {
+        List<X509Certificate> certificates = new ArrayList<>();
+        if (keyInfo != null) {
+            collectCertificates(keyInfo, CertificateFactory.getInstance("X.509"), certificates);
+        }
+        return certificates;
+    }
+
+    private static void collectCertificates(final Node node, final CertificateFactory cf, final List<X509Certificate> certificates)
+            throws CertificateException {
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() != Node.ELEMENT_NODE) {
+                continue;
+            }
+            if (DSIG_NS.equals(child.getNamespaceURI()) && "X509Certificate".equals(child.getLocalName())) {
+                certificates.add((X509Certificate) cf.generateCertificate(new ByteArrayInputStream(decode((Element) child))));
+            } else {
+                collectCertificates(child, cf, certificates);
+            }
+        }
+    }
+
+    /*
+     * Key of a certificate that is trusted for another reason than being in this set, such as a
+     * validated certificate path.
+     */
+    static Key key(final X509Certificate certificate) throws CertificateEncodingException {
+        return new Key(certificate.getPublicKey(), certificate, certificate.getEncoded());
+    }
+
+    private static String issuerSerial(final Element issuerSerial) {
+        String issuer = null;
+        String serial = null;
+        for (Node child = issuerSerial.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if ("X509IssuerName".equals(child.getLocalName())) {
+                issuer = child.getTextContent().trim();
+            } else if ("X509SerialNumber".equals(child.getLocalName())) {
+                serial = child.getTextContent().trim();
+            }
+        }
+        if (issuer == null || serial == null) {
+            return null;
+        }
+        try {
+            return issuerSerial(new X500Principal(issuer), new BigInteger(serial));
+        } catch (IllegalArgumentException e) {
+            LOG.fine("Unparseable X509IssuerSerial " + issuer + " " + serial);
+            return null;
+        }
+    }
+
+    private static String issuerSerial(final X500Principal issuer, final BigInteger serial) {
+        return issuer.getName(X500Principal.CANONICAL) + "#" + serial;
+    }
+
+    private static byte[] decode(final Element element) {
+        try {
+            return Base64.getMimeDecoder().decode(element.getTextContent().trim());
+        } catch (IllegalArgumentException e) {
+            return new byte[0];
+        }
+    }
+
+    static byte[] digest(final String algorithm, final byte[] data) {
+        try {
+            return MessageDigest.getInstance(algorithm).digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(algorithm + " not available", e);
+        }
+    }
+
+    static String hex(final byte[] data) {
+        StringBuilder sb = new StringBuilder(data.length * 2);
+        for (byte b : data) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    /*
+     * The extension value is an OCTET STRING wrapping the DER encoded OCTET STRING of the key identifier.
+     */
+    private static String subjectKeyIdentifier(final X509Certificate cert) {
+        byte[] ext = cert.getExtensionValue(SKI_OID);
+        if (ext == null) {
+            return null;
+        }
+        int offset = 0;
+        for (int level = 0; level < 2; level++) {
+            if (offset + 2 > ext.length || ext[offset] != 0x04) {
+                return null;
+            }
+            int length = ext[offset + 1] & 0xff;
+            offset += 2;
+            if (length > 0x7f) {
+                int lengthBytes = length & 0x7f;
+                length = 0;
+                for (int i = 0; i < lengthBytes; i++) {
+                    length = (length << 8) | (ext[offset++] & 0xff);
+                }
+            }
+            if (level == 1) {
+                byte[] ski = new byte[Math.min(length, ext.length - offset)];
+                System.arraycopy(ext, offset, ski, 0, ski.length);
+                return hex(ski);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A trusted public key together with the identifiers under which it can be referenced.
+     */
+    public static final class Key {
+
+        private final PublicKey publicKey;
+        private final X509Certificate certificate;
+        private final String sha1;
+        private final String sha256;
+        private final String ski;
+        private final String issuerSerial;
+
+        private Key(final PublicKey publicKey, final X509Certificate certificate, final byte[] encoded) {
+            this.publicKey = publicKey;
+            this.certificate = certificate;
+            this.sha1 = hex(digest("SHA-1", encoded));
+            this.sha256 = hex(digest("SHA-256", encoded));
+            this.ski = certificate == null ? null : subjectKeyIdentifier(certificate);
+            this.issuerSerial = certificate == null ? null
+                    : issuerSerial(certificate.getIssuerX500Principal(), certificate.getSerialNumber());
+        }
+
+        /**
+         * @return the public key used to verify signatures
+         */
+        public PublicKey getPublicKey() {
+            return this.publicKey;
+        }
+
+        /**
+         * @return the certificate of the key, null if a bare public key was trusted
+         */
+        public X509Certificate getCertificate() {
+            return this.certificate;
+        }
+
+        /**
+         * Identifier of the key: SHA-256 thumbprint of the certificate in hexadecimal, or of the
+         * encoded public key if there is no certificate.
+         *
+         * @return key identifier
+         */
+        public String getId() {
+            return this.sha256;
+        }
+
+        @Override
+        public String toString() {
+            return this.certificate == null ? "key " + this.sha256
+                    : this.certificate.getSubjectX500Principal().getName() + " " + this.sha256;
+        }
+    }
+
+    /**
+     * Collects trusted keys for a {@link SigningKeys} set.
+     */
+    public static final class Builder {
+
+        private final List<Key> keys = new ArrayList<>();
+
+        /**
+         * @param certificate trusted signing certificate
+         * @return this builder
+         * @throws CertificateEncodingException if the certificate cannot be encoded
+         */
+        public Builder addCertificate(final X509Certificate certificate) throws CertificateEncodingException {
+            this.keys.add(new Key(certificate.getPublicKey(), certificate, certificate.getEncoded()));
+            return this;
+        }
+
+        /**
+         * @param certificateFile trusted signing certificate in DER or PEM format
+         * @return this builder
+         * @throws CertificateException if the certificate cannot be parsed
+         * @throws IOException          on file errors
+         */
+        public Builder addCertificateFile(final String certificateFile) throws CertificateException, IOException {
+            CertificateFactory cf = CertificateFactory.getInstance("X.509");
+            try (InputStream in = new FileInputStream(certificateFile)) {
+                for (Certificate cert : cf.generateCertificates(in)) {
+                    addCertificate((X509Certificate) cert);
+                    LOG.fine("Trusted signing certificate " + certificateFile + ": " + this.keys.get(this.keys.size() - 1));
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Trusts a bare public key, for example one that was never issued a certificate.
+         *
+         * @param publicKey trusted signing key
+         * @return this builder
+         */
+        public Builder addPublicKey(final PublicKey publicKey) {
+            this.keys.add(new Key(publicKey, null, publicKey.getEncoded()));
+            return this;
+        }
+
+        /**
+         * @return immutable key set
+         */
+        public SigningKeys build() {
+            if (this.keys.isEmpty()) {
+                throw new IllegalStateException("At least one signing key is required");
+            }
+            return new SigningKeys(this.keys);
+        }
+    }
+
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright Pawel Krawczyk (c) 2014.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.saml;
+
+/**
+ * Receives timing and outcome events from {@link ValidatorEngine}, for example to feed
+ * a metrics system. Set it with {@link Validator#setValidationListener(ValidationListener)};
+ * {@link ValidationMetrics} is a ready-made implementation.
+ * <p>
+ * Methods are called synchronously on the validating thread, possibly by many threads at
+ * once, so implementations must be thread-safe, fast and must not throw.
+ */
+public interface ValidationListener {
+
+    /**
+     * Called when a validation phase ends. A phase may be reported more than once for one
+     * document, for example the signature phase once for each candidate key.
+     *
+     * @param phase the phase that ended
+     * @param nanos time spent in the phase in nanoseconds
+     */
+    void phaseCompleted(Phase phase, long nanos);
+
+    /**
+     * Called once per document when validation ends, whatever the outcome.
+     *
+     * @param result validation result
+     */
+    void validationCompleted(ValidationResult result);
+
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright Pawel Krawczyk (c) 2014.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.saml;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Low-overhead {@link ValidationListener} aggregating validation outcomes and latencies.
+ * <p>
+ * Counts documents by {@link FailureCode} and keeps a {@link LatencyHistogram} of the
+ * time spent in each {@link Phase}, of the total time per document and of the signature
+ * verification time per signature algorithm. All updates are lock-free; call
+ * {@link #snapshot()} to export the numbers.
+ */
+public final class ValidationMetrics implements ValidationListener {
+
+    private static final FailureCode[] CODES = FailureCode.values();
+    private static final Phase[] PHASES = Phase.values();
+
+    private final LongAdder[] outcomes = new LongAdder[CODES.length];
+    private final LatencyHistogram[] phases = new LatencyHistogram[PHASES.length];
+    private final LatencyHistogram total = new LatencyHistogram();
+    private final ConcurrentMap<String, LatencyHistogram> algorithms = new ConcurrentHashMap<>();
+
+    public ValidationMetrics() {
+        for (int i = 0; i < this.outcomes.length; i++) {
+            this.outcomes[i] = new LongAdder();
+        }
+        for (int i = 0; i < this.phases.length; i++) {
+            this.phases[i] = new LatencyHistogram();
+        }
+    }
+
+    @Override
+    public void phaseCompleted(final Phase phase, final long nanos) {
+        this.phases[phase.ordinal()].record(nanos);
+    }
+
+    @Override
+    public void validationCompleted(final ValidationResult result) {
+        this.outcomes[result.getFailureCode().ordinal()].increment();
+        this.total.record(result.getTotalNanos());
+        String algorithm = result.getSignatureAlgorithm();
+        if (algorithm != null) {
+            LatencyHistogram histogram = this.algorithms.get(algorithm);
+            if (histogram == null) {
+                LatencyHistogram created = new LatencyHistogram();
+                histogram = this.algorithms.putIfAbsent(algorithm, created);
+                if (histogram == null) {
+                    histogram = created;
+                }
+            }
+            histogram.record(result.getNanos(Phase.SIGNATURE));
+        }
+    }
+
+    /**
+     * @return point-in-time copy of all counters and histograms
+     */
+    public Snapshot snapshot() {
+        Map<FailureCode, Long> outcomes = new EnumMap<>(FailureCode.class);
+        for (FailureCode code : CODES) {
+            outcomes.put(code, this.outcomes[code.ordinal()].sum());
+        }
+        Map<Phase, LatencyHistogram.Snapshot> phases = new EnumMap<>(Phase.class);
+        for (Phase phase : PHASES) {
+            phases.put(phase, this.phases[phase.ordinal()].snapshot());
+        }
+        Map<String, LatencyHistogram.Snapshot> algorithms = new TreeMap<>();
+        for (Map.Entry<String, LatencyHistogram> entry : this.algorithms.entrySet()) {
+            algorithms.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return new Snapshot(outcomes, phases, this.total.snapshot(), algorithms);
+    }
+
+    /**
+     * Immutable copy of {@link ValidationMetrics}. Latencies are in nanoseconds.
+     */
+    public static final class Snapshot {
+
+        private final Map<FailureCode, Long> outcomes;
+        private final Map<Phase, LatencyHistogram.Snapshot> phases;
+        private final LatencyHistogram.Snapshot total;
+        private final Map<String, LatencyHistogram.Snapshot> algorithms;
+
+        private Snapshot(final Map<FailureCode, Long> outcomes, final Map<Phase, LatencyHistogram.Snapshot> phases,
+                         final LatencyHistogram.Snapshot total, final Map<String, LatencyHistogram.Snapshot> algorithms) {
+            this.outcomes = Collections.unmodifiableMap(outcomes);
+            this.phases = Collections.unmodifiableMap(phases);
+            this.total = total;
+            this.algorithms = Collections.unmodifiableMap(algorithms);
+        }
+
+        /**
+         * @param code outcome, {@link FailureCode#NONE} for valid documents
+         * @return number of documents with this outcome
+         */
+        public long getCount(final FailureCode code) {
+            return this.outcomes.get(code);
+        }
+
+        /**
+         * @return number of documents validated, whatever the outcome
+         */
+        public long getCount() {
+            return this.total.getCount();
+        }
+
+        /**
+         * @return document counts by outcome
+         */
+        public Map<FailureCode, Long> getOutcomes() {
+            return this.outcomes;
+        }
+
+        /**
+         * @param phase validation phase
+         * @return latencies of the phase
+         */
+        public LatencyHistogram.Snapshot getPhase(final Phase phase) {
+            return this.phases.get(phase);
+        }
+
+        /**
+         * @return total validation time per document
+         */
+        public LatencyHistogram.Snapshot getTotal() {
+            return this.total;
+        }
+
+        /**
+         * @return signature verification time per document, by signature algorithm URI
+         */
+        public Map<String, LatencyHistogram.Snapshot> getSignatureAlgorithms() {
+            return this.algorithms;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("outcomes=").append(this.outcomes).append('\n');
+            sb.append("total: ").append(this.total).append('\n');
+            for (Map.Entry<Phase, LatencyHistogram.Snapshot> entry : this.phases.entrySet()) {
+                sb.append(entry.getKey().name().toLowerCase()).append(": ").append(entry.getValue()).append('\n');
+            }
+            for (Map.Entry<String, LatencyHistogram.Snapshot> entry : this.algorithms.entrySet()) {
+                sb.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+            }
+            return sb.toString();
+        }
+    }
+
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright Pawel Krawczyk (c) 2014.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.saml;
+
+import org.w3c.dom.Element;
+
+/**
+ * Immutable outcome of a single validation performed by {@link ValidatorEngine}.
+ * <p>
+ * Besides the verdict it carries the reason for rejection as a {@link FailureCode},
+ * the validated body, the identifier of the key that verified the signature and the
+ * time spent in each {@link Phase}, so that results can be logged, counted or charted
+ * without parsing log output.
+ */
+public final class ValidationResult {
+
+    private static final Phase[] PHASES = Phase.values();
+
+    private final FailureCode code;
+    private final String detail;
+    private final Element body;
+    private final byte[] signedBytes;
+    private final Claims claims;
+    private final String issuer;
+    private final String keyId;
+    private final String signatureAlgorithm;
+    private final long[] nanos;
+    private final Exception error;
+    private final Forensics forensics;
+
+    ValidationResult(final FailureCode code, final String detail, final Element body, final byte[] signedBytes,
+                     final Claims claims, final String issuer, final String keyId, final String signatureAlgorithm,
+                     final long[] nanos, final Exception error, final Forensics forensics) {
+        this.code = code;
+        this.detail = detail;
+        this.body = body;
+        this.signedBytes = signedBytes;
+        this.claims = claims;
+        this.issuer = issuer;
+        this.keyId = keyId;
+        this.signatureAlgorithm = signatureAlgorithm;
+        this.nanos = nanos.clone();
+        this.error = error;
+        this.forensics = forensics;
+    }
+
+    /**
+     * @return true if the document passed schema and signature validation
+     */
+    public boolean isValid() {
+        return this.code == FailureCode.NONE;
+    }
+
+    /**
+     * @return why the document was rejected, {@link FailureCode#NONE} if it is valid
+     */
+    public FailureCode getFailureCode() {
+        return this.code;
+    }
+
+    /**
+     * @return human readable description of the failure, null if the document is valid
+     */
+    public String getDetail() {
+        return this.detail;
+    }
+
+    /**
+     * Returns XML structure that is likely to be authentic.
+     *
+     * @return the signed body element if validation was successful, null if not or if the
+     * engine returns the body in another form, see {@link BodyForm}
+     */
+    public Element getBody() {
+        return this.body;
+    }
+
+    /**
+     * @return copy of the canonicalized bytes the body digest was computed over if validation was
+     * successful and the engine returns {@link BodyForm#CANONICAL}, null otherwise
+     */
+    public byte[] getSignedBytes() {
+        return this.signedBytes != null ? this.signedBytes.clone() : null;
+    }
+
+    /**
+     * @return claims of the first assertion in the body if validation was successful and the
+     * engine returns {@link BodyForm#CLAIMS}, null otherwise
+     */
+    public Claims getClaims() {
+        return this.claims;
+    }
+
+    /**
+     * @return issuer of the first assertion in the signed body if validation was successful, null
+     * otherwise or if the body has no assertion; for documents validated by {@link IdpRegistry} this
+     * is the issuer whose configuration accepted them
+     */
+    public String getIssuer() {
+        return this.issuer;
+    }
+
+    /**
+     * @return identifier of the key that verified the signature, see {@link SigningKeys.Key#getId()};
+     * null if no key did
+     */
+    public String getKeyId() {
+        return this.keyId;
+    }
+
+    /**
+     * @return URI of the SignatureMethod algorithm, null if validation ended before the signature was read
+     */
+    public String getSignatureAlgorithm() {
+        return this.signatureAlgorithm;
+    }
+
+    /**
+     * @param phase validation phase
+     * @return time spent in the phase in nanoseconds, 0 if the phase did not run
+     */
+    public long getNanos(final Phase phase) {
+        return this.nanos[phase.ordinal()];
+    }
+
+    /**
+     * @return time spent in all phases in nanoseconds
+     */
+    public long getTotalNanos() {
+        long total = 0;
+        for (long n : this.nanos) {
+            total += n;
+        }
+        return total;
+    }
+
+    /**
+     * @return the parser exception behind {@link FailureCode#SCHEMA_INVALID}, null otherwise
+     */
+    public Exception getError() {
+        return this.error;
+    }
+
+    /**
+     * @return detailed status of the signature checks if the signature failed validation and
+     * forensics were collected for it, see {@link DiagnosticsMode}; null otherwise
+     */
+    public Forensics getForensics() {
+        return this.forensics;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(isValid() ? "valid" : this.code + ": " + this.detail);
+        if (this.keyId != null) {
+            sb.append(" key=").append(this.keyId);
+        }
+        for (Phase phase : PHASES) {
+            sb.append(' ').append(phase.name().toLowerCase()).append('=').append(getNanos(phase) / 1000).append("us");
+        }
+        return sb.toString();
+    }
+
+    /*
+     * Collects phase timings while the engine works through a document. Time is charged to a phase
+     * when it ends, from the end of the previous one, so nothing between phases goes unaccounted.
+     * Phase ends and the final result are passed on to the listener, if there is one.
+     */
+    static final class Timer {
+
+        private final ValidationListener listener;
+        private final long[] nanos = new long[PHASES.length];
+        private long last = System.nanoTime();
+        private String signatureAlgorithm;
+        private Forensics forensics;
+
+        Timer(final ValidationListener listener) {
+            this.listener = listener;
+        }
+
+        void lap(final Phase phase) {
+            long now = System.nanoTime();
+            this.nanos[phase.ordinal()] += now - this.last;
+            if (this.listener != null) {
+                this.listener.phaseCompleted(phase, now - this.last);
+            }
+            this.last = now;
+        }
+
+        /*
+         * With several signatures in a document the first one, the primary binding, is reported.
+         */
+        void signatureAlgorithm(final String algorithm) {
+            if (this.signatureAlgorithm == null) {
+                this.signatureAlgorithm = algorithm;
+            }
+        }
+
+        void forensics(final Forensics forensics) {
+            this.forensics = forensics;
+        }
+
+        Forensics forensics() {
+            return this.forensics;
+        }
+
+        /*
+         * Adds the phase times of work done on other threads and restarts the clock, so the time spent
+         * waiting for that work is not charged again. Phase times then add up to more than the elapsed
+         * time when the work ran in parallel.
+         */
+        void merge(final Timer other) {
+            for (int i = 0; i < this.nanos.length; i++) {
+                if (other.nanos[i] != 0) {
+                    this.nanos[i] += other.nanos[i];
+                    if (this.listener != null) {
+                        this.listener.phaseCompleted(PHASES[i], other.nanos[i]);
+                    }
+                }
+            }
+            signatureAlgorithm(other.signatureAlgorithm);
+            this.last = System.nanoTime();
+        }
+
+        ValidationResult success(final Element body, final byte[] signedBytes, final Claims claims, final String issuer,
+                                 final String keyId) {
+            return completed(new ValidationResult(FailureCode.NONE, null, body, signedBytes, claims, issuer, keyId,
+                    this.signatureAlgorithm, this.nanos, null, null));
+        }
+
+        ValidationResult failure(final FailureCode code, final String detail) {
+            return completed(new ValidationResult(code, detail, null, null, null, null, null, this.signatureAlgorithm, this.nanos,
+                    null, this.forensics));
+        }
+
+        ValidationResult failure(final FailureCode code, final Exception error) {
+            return completed(new ValidationResult(code, error.getMessage(), null, null, null, null, null, this.signatureAlgorithm,
+                    this.nanos, error, this.forensics));
+        }
+
+        private ValidationResult completed(final ValidationResult result) {
+            if (this.listener != null) {
+                this.listener.validationCompleted(result);
+            }
+            return result;
+        }
+    }
+
+}
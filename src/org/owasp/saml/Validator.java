@@ -11,49 +11,54 @@
 
 package org.owasp.saml;
 
-import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.xml.sax.SAXException;
 
-import javax.xml.XMLConstants;
 import javax.xml.crypto.MarshalException;
-import javax.xml.crypto.dsig.Reference;
-import javax.xml.crypto.dsig.XMLSignature;
 import javax.xml.crypto.dsig.XMLSignatureException;
-import javax.xml.crypto.dsig.XMLSignatureFactory;
-import javax.xml.crypto.dsig.dom.DOMValidateContext;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.security.NoSuchAlgorithmException;
-import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
-import java.security.cert.CertificateFactory;
 import java.security.spec.InvalidKeySpecException;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.logging.Logger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The type Validator.
  */
 public class Validator {
 
-    private final static Logger LOG = Logger.getLogger(Validator.class.getName());
-    private String keyFile;
-    private String schemaFile;
-    private String signatureXPath;
-    private String bodyXPath;
+    private final String keyFile;
+    private final SigningKeys signingKeys;
+    private final String schemaFile;
+    private final String signatureXPath;
+    private final String bodyXPath;
     private Element validBody = null;
     private String idAttribute = null;
     private String idNamespace = null;
+    private SchemaCatalog schemaCatalog = null;
+    private ValidationListener validationListener = null;
+    private DiagnosticsMode diagnosticsMode = DiagnosticsMode.FAST_REJECT;
+    private int diagnosticsSampleRate = 100;
+    private VerifiedSignatureCache verifiedSignatureCache = null;
+    private ReplayStore replayStore = null;
+    private long replayWindowMillis;
+    private PrefixRegistry prefixRegistry = PrefixRegistry.defaults();
+    private ResourceLimits resourceLimits = ResourceLimits.defaults();
+    private SignaturePolicy signaturePolicy = SignaturePolicy.defaults();
+    private int parserPoolSize = 2 * Runtime.getRuntime().availableProcessors();
+    private BodyForm bodyForm = BodyForm.LIVE;
+    private final List<String> signedElements = new ArrayList<>();
+    private final List<String[]> bindings = new ArrayList<>();
+    private Executor verificationExecutor = null;
+    private PkixTrust pkixTrust = null;
+    private boolean preScreen = false;
+    private ValidatorEngine engine = null;
 
     /*
      * Validates digitally signed XML documents against a supplied XML schema
@@ -70,6 +75,26 @@ public class Validator {
     public Validator(final String keyFile, final String schemaFile,
                      final String signatureXPath, final String bodyXPath) {
         this.keyFile = keyFile;
+        this.signingKeys = null;
+        this.schemaFile = schemaFile;
+        this.signatureXPath = signatureXPath;
+        this.bodyXPath = bodyXPath;
+    }
+
+    /**
+     * Validates digitally signed XML documents against a supplied XML schema
+     * and a set of trusted keys, for example the old and the new certificate
+     * during a key rollover.
+     *
+     * @param signingKeys    trusted signing keys
+     * @param schemaFile     schema file for the input document
+     * @param signatureXPath XPath location of the Signature element in the validated document
+     * @param bodyXPath      XPath location of the signed body element in the validated document
+     */
+    public Validator(final SigningKeys signingKeys, final String schemaFile,
+                     final String signatureXPath, final String bodyXPath) {
+        this.keyFile = null;
+        this.signingKeys = signingKeys;
         this.schemaFile = schemaFile;
         this.signatureXPath = signatureXPath;
         this.bodyXPath = bodyXPath;
@@ -80,7 +105,10 @@ public class Validator {
      * validate() call was successful.
      *
      * @return the assertion if validation was successful, null if not.
+     * @deprecated the value is shared by all callers of this instance; use
+     * {@link ValidationResult#getBody()} from {@link #compile()}d engines instead
      */
+    @Deprecated
     public Element getValidBody() {
         return this.validBody;
     }
@@ -101,11 +129,262 @@ public class Validator {
     public void setIdAttribute(final String ns, final String attr) {
         this.idNamespace = ns;
         this.idAttribute = attr;
+        this.engine = null;
+    }
 
+    /**
+     * Sets the local copies of schemas and DTDs referenced by validated documents. If not
+     * set, all files from the "schemas" directory in the working directory are used.
+     *
+     * @param catalog schema catalog
+     */
+    public void setSchemaCatalog(final SchemaCatalog catalog) {
+        this.schemaCatalog = catalog;
+        this.engine = null;
+    }
+
+    /**
+     * Enables a streaming pre-screen of every document before it is parsed into DOM and
+     * validated against the schema. Documents with an unexpected root element, with no
+     * or more than one element at the signature location, without the body element, with
+     * duplicate Id values, a DOCTYPE, or excessive nesting or size are rejected early and
+     * cheaply. Disabled by default.
+     *
+     * @param enabled true to enable the pre-screen
+     */
+    public void setPreScreen(final boolean enabled) {
+        this.preScreen = enabled;
+        this.engine = null;
+    }
+
+    /**
+     * Sets a listener notified of the time spent in each validation phase and of every
+     * validation result, for example a shared {@link ValidationMetrics}.
+     *
+     * @param listener validation listener, null for none
+     */
+    public void setValidationListener(final ValidationListener listener) {
+        this.validationListener = listener;
+        this.engine = null;
+    }
+
+    /**
+     * Sets how much detail is collected about failed signatures. The default,
+     * {@link DiagnosticsMode#FAST_REJECT}, stops at the first failed check and collects nothing.
+     *
+     * @param mode diagnostics mode
+     * @see ValidationResult#getForensics()
+     */
+    public void setDiagnosticsMode(final DiagnosticsMode mode) {
+        if (mode == null) {
+            throw new IllegalArgumentException("diagnostics mode must not be null");
+        }
+        this.diagnosticsMode = mode;
+        this.engine = null;
+    }
+
+    /**
+     * Sets how often forensics are collected in {@link DiagnosticsMode#SAMPLED} mode. Default is 100.
+     *
+     * @param rate forensics are collected for one in every rate signature failures
+     */
+    public void setDiagnosticsSampleRate(final int rate) {
+        if (rate < 1) {
+            throw new IllegalArgumentException("sample rate must be positive");
+        }
+        this.diagnosticsSampleRate = rate;
+        this.engine = null;
+    }
+
+    /**
+     * Enables caching of verified signature values, so that tokens presented again within
+     * their validity are not put through the public key operation twice. Entries are bound
+     * to the verifying key, so one cache may be shared by several validators.
+     *
+     * @param cache verified signature cache, null to disable caching
+     */
+    public void setVerifiedSignatureCache(final VerifiedSignatureCache cache) {
+        this.verifiedSignatureCache = cache;
+        this.engine = null;
+    }
+
+    /**
+     * Enables replay detection. Every document that passes validation is recorded in the store by
+     * the issuer and the ID of its signed element, and a document whose signed element was recorded
+     * before is rejected as {@link FailureCode#REPLAYED}. Elements are remembered until the assertion's
+     * NotOnOrAfter, but no longer than the window; replays older than the window are not detected, so
+     * it should not be shorter than the lifetime of the assertions.
+     *
+     * @param store     replay store, for example {@link InMemoryReplayStore}; null to disable replay detection
+     * @param maxWindow longest time a signed element is remembered
+     * @param unit      unit of maxWindow
+     */
+    public void setReplayStore(final ReplayStore store, final long maxWindow, final TimeUnit unit) {
+        this.replayStore = store;
+        this.replayWindowMillis = unit.toMillis(maxWindow);
+        this.engine = null;
+    }
+
+    /**
+     * Sets the namespaces of prefixes used in the signature and body paths that the validated
+     * documents do not declare on their root element. Defaults to {@link PrefixRegistry#defaults()}.
+     *
+     * @param registry prefix registry
+     */
+    public void setPrefixRegistry(final PrefixRegistry registry) {
+        if (registry == null) {
+            throw new IllegalArgumentException("prefix registry must not be null");
+        }
+        this.prefixRegistry = registry;
+        this.engine = null;
+    }
+
+    /**
+     * Sets the size, depth, node and time budget of a single document. Defaults to
+     * {@link ResourceLimits#defaults()}: 4 MiB, depth 100, 100 attributes per element and 10000
+     * nodes. Earlier versions had no such limits, so larger documents that used to validate are
+     * now rejected as {@link FailureCode#RESOURCE_LIMIT} unless the limits are raised here.
+     *
+     * @param limits resource limits
+     */
+    public void setResourceLimits(final ResourceLimits limits) {
+        if (limits == null) {
+            throw new IllegalArgumentException("resource limits must not be null");
+        }
+        this.resourceLimits = limits;
+        this.engine = null;
+    }
+
+    /**
+     * Sets the structural rules checked on the signature before it is verified. Defaults to
+     * {@link SignaturePolicy#defaults()}, which requires a single reference to the body element.
+     *
+     * @param policy signature policy; null disables the checks
+     */
+    public void setSignaturePolicy(final SignaturePolicy policy) {
+        this.signaturePolicy = policy;
+        this.engine = null;
+    }
+
+    /**
+     * Sets how many idle XML parsers the engine keeps for reuse. Parsers are created on demand,
+     * so more threads than this can validate at the same time, but parsers above this number
+     * are dropped after use. Defaults to twice the number of processors.
+     *
+     * @param size maximum number of idle parsers, at least 1
+     */
+    public void setParserPoolSize(final int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("parser pool size must be positive");
+        }
+        this.parserPoolSize = size;
+        this.engine = null;
+    }
+
+    /**
+     * Sets the form in which the validated content is returned. Defaults to {@link BodyForm#LIVE},
+     * the body element of the parsed document. With the other forms the document is not referenced
+     * by the result and {@link #getValidBody()} returns the detached copy or null.
+     *
+     * @param form body form
+     */
+    public void setBodyForm(final BodyForm form) {
+        if (form == null) {
+            throw new IllegalArgumentException("body form must not be null");
+        }
+        this.bodyForm = form;
+        this.engine = null;
+    }
+
+    /**
+     * Adds an element the signature given to the constructor must cover besides the body, such as
+     * the wsu:Timestamp or the security token of a WS-Security header. The element must be present
+     * in every document, its ID is registered like the body's, and the signature policy then
+     * requires every reference to point at the body or one of these elements and each of them to be
+     * referenced. The validation result carries the body.
+     *
+     * @param xpath location of the element, same syntax as in the constructor
+     */
+    public void addSignedElement(final String xpath) {
+        // fail here rather than on compile()
+        ElementLocator.compile(xpath);
+        this.signedElements.add(xpath);
+        this.engine = null;
+    }
+
+    /**
+     * Adds another signature that must be present and valid in every document, together with the
+     * elements it signs, such as an individually signed Assertion inside a signed Response. The same
+     * wrapping protections apply as to the pair given to the constructor: the first matching element
+     * is taken at every step and the signature policy is checked against the located elements, see
+     * {@link #addSignedElement(String)}. The validation result carries the body given to the constructor.
+     *
+     * @param signatureXPath location of the additional Signature element, same syntax as in the constructor
+     * @param bodyXPath      location of the element it must sign
+     * @param otherXPaths    locations of further elements it must sign
+     */
+    public void addBinding(final String signatureXPath, final String bodyXPath, final String... otherXPaths) {
+        String[] binding = new String[2 + otherXPaths.length];
+        binding[0] = signatureXPath;
+        binding[1] = bodyXPath;
+        System.arraycopy(otherXPaths, 0, binding, 2, otherXPaths.length);
+        // fail here rather than on compile()
+        for (String xpath : binding) {
+            ElementLocator.compile(xpath);
+        }
+        this.bindings.add(binding);
+        this.engine = null;
+    }
+
+    /**
+     * Sets the executor on which the signatures of several bindings, and the reference digests of
+     * signatures with several references, are verified in parallel. The calling thread takes part
+     * in the work, so a busy or small pool slows validation down but cannot block it. By default
+     * everything is verified in the calling thread.
+     *
+     * @param executor executor shared by all validations, for example a ForkJoinPool; null verifies
+     *                 in the calling thread
+     * @see #addBinding(String, String, String...)
+     */
+    public void setVerificationExecutor(final Executor executor) {
+        this.verificationExecutor = executor;
+        this.engine = null;
+    }
+
+    /**
+     * Validates the certificate carried in the signature's KeyInfo against trust anchors instead of
+     * requiring it to be pinned. A signature whose KeyInfo has a certificate is verified with that
+     * certificate only, and only if its path is valid; otherwise the document is rejected as
+     * {@link FailureCode#UNTRUSTED_CERTIFICATE}. Signatures without a certificate in KeyInfo are
+     * still verified with the keys given to the constructor. Disabled by default.
+     *
+     * @param trust trust anchors and CRLs; null disables path validation
+     */
+    public void setPkixTrust(final PkixTrust trust) {
+        this.pkixTrust = trust;
+        this.engine = null;
+    }
+
+    /**
+     * Compiles the current configuration into an immutable engine that can be shared
+     * between threads. Later changes to this Validator do not affect the returned engine.
+     *
+     * @return compiled validation engine
+     * @throws SAXException on schema errors
+     * @throws ParserConfigurationException if the XML parser cannot be configured
+     * @throws IOException if the schemas or the key file cannot be read
+     * @throws CertificateException if the key file cannot be parsed
+     */
+    public ValidatorEngine compile() throws SAXException, ParserConfigurationException, IOException, CertificateException {
+        return new ValidatorEngine(this);
     }
 
     /**
      * Perform schema and signature validation on supplied XML document.
+     * <p>
+     * The configuration is compiled on first use and reused by subsequent calls. This
+     * method is not thread-safe because of {@link #getValidBody()}; use {@link #compile()}
+     * to obtain an engine that can be shared between threads.
      *
      * @param input the input document for validation
      * @return true if successful, false if not
@@ -115,252 +394,160 @@ public class Validator {
     public boolean validate(final String input)
             throws SAXException, IOException, // db.parse()
             ParserConfigurationException // factory.newDocumentBuilder()
-            , XPathExpressionException // xpath.evaluate()
+            , XPathExpressionException // no longer thrown, kept for source compatibility
             , NoSuchAlgorithmException, CertificateException // ks.load()
             , MarshalException // unmarshal()
             , XMLSignatureException, InvalidKeySpecException {
 
-        Element bodyElement;
-        Element signatureElement;
-
-        LOG.info("Validator starting...");
-
-		/*
-		 * Create base for XML document parser. Enable XML namespace processing, as SAML
-		 * documents use namespaces. Enable XML validation, which is one of the safeguards against
-		 * wrapping attacks.
-		 */
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        factory.setNamespaceAware(true);
-        factory.setValidating(true);
-
-    	/*
-    	 * Tell the factory that W3C XML schema language will be used.
-    	 */
-        factory.setAttribute("http://java.sun.com/xml/jaxp/properties/schemaLanguage", XMLConstants.W3C_XML_SCHEMA_NS_URI);
-    	
-    	/*
-    	 * Specify the *initial* schema. This should be schema for the root document even if
-    	 * it uses a number of other schemas (through namespaces).
-    	 *
-    	 * We supply it as InputSource because if it's supplied as string, the parser will
-    	 * download it automatically each time the validator is run. InputSource will point
-    	 * to the same file, just downloaded and stored locally. Example on how to supply it:
-    	 * 
-    	 * All remaining schemas will be supplied through entity resolver (see below). The tricky
-    	 * part seems to be that if the initial schema is not supplied via schemaSource, the entity resolver
-    	 * will not be ever called.
-    	 */
-        factory.setAttribute("http://java.sun.com/xml/jaxp/properties/schemaSource", new FileInputStream(schemaFile));
-
-        /*
-         * Process XML documents within resource limits to prevent DoS.
-         *
-         * Reference:
-         * http://docs.oracle.com/javase/7/docs/api/javax/xml/XMLConstants.html#FEATURE_SECURE_PROCESSING
-         */
-        factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
-
-        /*
-         * Prevent automated downloads of external DTD and schemas and only use those
-         * provided locally by EntityResolver.
-         *
-         * References:
-         * http://docs.oracle.com/javase/7/docs/api/javax/xml/XMLConstants.html#ACCESS_EXTERNAL_DTD
-         * http://docs.oracle.com/javase/7/docs/api/javax/xml/XMLConstants.html#ACCESS_EXTERNAL_SCHEMA
-         */
-
-        factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_DTD, "file,jar");
-        factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "file,jar");
-
-        /*
-         *  Try to enable stricter validator settings if the XML parser implementation supports them
-         *  and disable automation that could potentially lead to attacks.
-         *
-         *  Reference:
-         *  http://xerces.apache.org/xerces2-j/features.html
-         */
-
-        final Map<String, Boolean> hm = new HashMap<>();
-        // disable DTD to prevent override of ID elements
-        hm.put("http://apache.org/xml/features/nonvalidating/load-dtd-grammar", false);
-        // disable schemaLocation override and only rely on local EntityResolver
-        hm.put("http://apache.org/xml/features/honour-all-schemaLocations", false);
-        // validate schema
-        hm.put("http://apache.org/xml/features/validation/schema", true);
-        hm.put("http://apache.org/xml/features/validation/schema-full-checking", true);
-        // additional features, not available in all parsers
-        hm.put("http://apache.org/xml/features/validation/id-idref-checking", true);
-        hm.put("http://apache.org/xml/features/validation/identity-constraint-checking", true);
-        hm.put("http://apache.org/xml/features/standard-uri-conformant", true);
-        hm.put("http://xml.org/sax/features/unicode-normalization-checking", true);
-        // prevent external entity processing (XXE)
-        hm.put("http://xml.org/sax/features/external-general-entities", false);
-        hm.put("http://apache.org/xml/features/disallow-doctype-decl", false);
-
-        for (Map.Entry<String, Boolean> entry : hm.entrySet()) {
-            try {
-                factory.setFeature(entry.getKey(), entry.getValue());
-            } catch (Exception e) {
-                LOG.warning("Unsupported XML parser feature " + entry.getKey());
-            }
-        }
+        return apply(engine().validate(input));
+    }
+
+    /**
+     * Perform schema and signature validation on a document held in memory.
+     *
+     * @param input the input document for validation
+     * @return true if successful, false if not
+     * @throws SAXException on XML parser errors
+     * @see ValidatorEngine#validate(byte[])
+     */
+    public boolean validate(final byte[] input)
+            throws SAXException, IOException, ParserConfigurationException,
+            NoSuchAlgorithmException, CertificateException, MarshalException,
+            XMLSignatureException, InvalidKeySpecException {
+        return apply(engine().validate(input));
+    }
 
-    	/*
-    	 * Create XML parser object from previously configured builder.
-    	 */
-        DocumentBuilder db = factory.newDocumentBuilder();
-    	
-    	/*
-    	 * Assign a separate error handler to the XML parses. This wouldn't be really necessary
-    	 * but it's Java requirement. If you use validation (and we do) you need to have an
-    	 * error handler. Our error handler will just print what happened.  
-    	 */
-        db.setErrorHandler(new ErrorHandler());
-        
-         /*
-          * Configure an entity resolver, function that will return appropriate schemas
-          * to the parser on demand. This is needed for two reasons:
-          * 1) parser would normally download them automatically, but it usually takes a lot of time and they are not cached;
-          * 2) schemas that are referenced with non-URL addresses (not "http://") cannot be downloaded automatically
-          */
-        db.setEntityResolver(new EntityResolver());
-    	
-    	 /* Finally load, parse and validate the XML document. Any XML structure manipulations should be
-    	  * detected here and result in failed validation.
-    	  */
-        LOG.info("XML parsing and validation...");
-        Document doc = db.parse(new FileInputStream(input));
-
-        // Show the root element of the document and its namespace
-        LOG.info("Input document root=" + doc.getFirstChild().getLocalName() + " namespace=" + doc.getFirstChild().getNamespaceURI());
-
-        LOG.info("Xpath starting...");
-		 /*
-		  * Use XPath finder to extract Assertion and Signature elements. They will be
-		  * necessary for further digital signature validation.
-		  */
-        XPath xpath = XPathFactory.newInstance().newXPath();
-
-        xpath.setNamespaceContext(new NamespaceResolver(doc));
-
-        bodyXPath = toFastXPath(bodyXPath, doc);
-        bodyElement = (Element) xpath.evaluate(bodyXPath, doc, XPathConstants.NODE);
-        if (bodyElement == null) {
-            LOG.severe("Body element not found in the document, exiting");
-            return false;
+    /**
+     * Perform schema and signature validation on a document read from a stream.
+     * The stream is not closed.
+     *
+     * @param input the input document for validation
+     * @return true if successful, false if not
+     * @throws SAXException on XML parser errors
+     * @throws IOException  on stream errors
+     * @see ValidatorEngine#validate(InputStream)
+     */
+    public boolean validate(final InputStream input)
+            throws SAXException, IOException, ParserConfigurationException,
+            NoSuchAlgorithmException, CertificateException, MarshalException,
+            XMLSignatureException, InvalidKeySpecException {
+        return apply(engine().validate(input));
+    }
+
+    private ValidatorEngine engine() throws SAXException, ParserConfigurationException, IOException, CertificateException {
+        if (this.engine == null) {
+            this.engine = compile();
         }
-        LOG.info("body=" + bodyElement.getLocalName());
+        return this.engine;
+    }
 
-        signatureXPath = toFastXPath(signatureXPath, doc);
-        signatureElement = (Element) xpath.evaluate(signatureXPath, doc, XPathConstants.NODE);
-        if (signatureElement == null) {
-            LOG.severe("Signature element not found in the document, exiting");
-            return false;
+    /*
+     * Parser and schema errors have always been thrown from here, while the engine reports them
+     * in the result, so they are rethrown for existing callers.
+     */
+    private boolean apply(final ValidationResult result) throws SAXException {
+        if (result.getError() instanceof SAXException) {
+            this.validBody = null;
+            throw (SAXException) result.getError();
         }
+        this.validBody = result.getBody();
+        return result.isValid();
+    }
 
-        LOG.info("signature_element=" + signatureElement.getLocalName());
+    String getKeyFile() {
+        return this.keyFile;
+    }
 
-        if (this.idAttribute != null) {
-            if (idNamespace != null) {
-                bodyElement.setIdAttributeNS(this.idNamespace, this.idAttribute, true);
-            } else {
-                bodyElement.setIdAttribute(this.idAttribute, true);
-            }
-        }
+    SigningKeys getSigningKeys() {
+        return this.signingKeys;
+    }
 
-        LOG.info("XML digital signature validation starting...");
-        
-        /*
-         * Create signature validator object.
-         */
-        XMLSignatureFactory fac = XMLSignatureFactory.getInstance("DOM");
-        
-        /*
-         * Create signature validation context referring to this particular signature element
-         * and certificate validation method.
-         */
-        CertificateFactory cf = CertificateFactory.getInstance("X.509");
-        Certificate cert = cf.generateCertificate(new FileInputStream(keyFile));
-        LOG.info("cert=" + cert);
-        DOMValidateContext valContext = new DOMValidateContext(cert.getPublicKey(), signatureElement);
-
-        LOG.info("valContext=" + valContext);
-
-        XMLSignature signature = fac.unmarshalXMLSignature(valContext);
-        LOG.info("signature=" + signature.getSignatureValue().getId());
-
-        boolean coreValidity = signature.validate(valContext);
-        LOG.info("validity=" + coreValidity);
-
-        if (coreValidity) {
-        	/*
-             * Copy the validation assertion element for user retrieval.
-             */
-            validBody = bodyElement;
-        } else {
-            LOG.warning("Signature failed core validation");
-            boolean sv = signature.getSignatureValue().validate(valContext);
-            LOG.info("signature validation status: " + sv);
-            // check the validation status of each Reference
-            Iterator i = signature.getSignedInfo().getReferences().iterator();
-            for (int j = 0; i.hasNext(); j++) {
-                boolean refValid =
-                        ((Reference) i.next()).validate(valContext);
-                LOG.info("ref[" + j + "] validity status: " + refValid);
-            }
-        }
+    String getSchemaFile() {
+        return this.schemaFile;
+    }
 
-        return coreValidity;
+    String getSignatureXPath() {
+        return this.signatureXPath;
+    }
 
+    String getBodyXPath() {
+        return this.bodyXPath;
     }
 
-    /*
-     * A very primitive conversion from standard XPath into hardened syntax. Only supports /a/b and /ns1:a/ns2:b syntax
-     * (with any number of any levels). The input XPath expression must be absolute, i.e. it must start from /
-     *
-     * @param xpath Input XPath string
-     * @param doc Validated document (for namespace resolution)
-     *
-     * Example:
-     * Input: /soape:Envelope/soape:Body
-     * Output: /*[local-name()="Envelope" and namespace-uri()="http://schemas.xmlsoap.org/soap/envelope/"][1]/*[local-name()="Body" and namespace-uri()="http://schemas.xmlsoap.org/soap/envelope/"][1]
-     * Reference: http://www.nds.ruhr-uni-bochum.de/research/publications/xspres-closer/
-     */
-    private String toFastXPath(String xpath, Document doc) {
-        String[] parts = xpath.split("/");
-        NamespaceResolver nsres = new NamespaceResolver(doc);
+    String getIdAttribute() {
+        return this.idAttribute;
+    }
 
-        if (!xpath.startsWith("/")) {
-            throw new IllegalArgumentException("XPath must be absoluve (start with /)");
-        }
+    String getIdNamespace() {
+        return this.idNamespace;
+    }
 
-        String output = "/*";
-
-        for (String part : parts) {
-            if (!output.endsWith("/*")) {
-                output += "/*";
-            }
-            // we get ["soape:Envelope", ...]
-            if (part.length() == 0)
-                continue;
-
-            String[] elemparts = part.split(":");
-            // we get ["soape", "Envelope"]
-
-            if (elemparts.length == 1) {
-                // no namespace
-                output += String.format("[local-name()=\"%s\"][1]", elemparts[0]);
-            } else if (elemparts.length == 2) {
-                // with namespace
-                output += String.format("[local-name()=\"%s\" and namespace-uri()=\"%s\"][1]", elemparts[1], nsres.getNamespaceURI(elemparts[0]));
-            } else {
-                throw new IllegalArgumentException("invalid XPath syntax: " + part);
-            }
-        }
+    SchemaCatalog getSchemaCatalog() {
+        return this.schemaCatalog;
+    }
+
+    ValidationListener getValidationListener() {
+        return this.validationListener;
+    }
+
+    DiagnosticsMode getDiagnosticsMode() {
+        return this.diagnosticsMode;
+    }
+
+    int getDiagnosticsSampleRate() {
+        return this.diagnosticsSampleRate;
+    }
+
+    VerifiedSignatureCache getVerifiedSignatureCache() {
+        return this.verifiedSignatureCache;
+    }
+
+    ReplayStore getReplayStore() {
+        return this.replayStore;
+    }
+
+    long getReplayWindowMillis() {
+        return this.replayWindowMillis;
+    }
+
+    PrefixRegistry getPrefixRegistry() {
+        return this.prefixRegistry;
+    }
+
+    ResourceLimits getResourceLimits() {
+        return this.resourceLimits;
+    }
+
+    SignaturePolicy getSignaturePolicy() {
+        return this.signaturePolicy;
+    }
+
+    int getParserPoolSize() {
+        return this.parserPoolSize;
+    }
+
+    BodyForm getBodyForm() {
+        return this.bodyForm;
+    }
+
+    List<String> getSignedElements() {
+        return this.signedElements;
+    }
+
+    List<String[]> getBindings() {
+        return this.bindings;
+    }
+
+    Executor getVerificationExecutor() {
+        return this.verificationExecutor;
+    }
+
+    PkixTrust getPkixTrust() {
+        return this.pkixTrust;
+    }
 
-        LOG.info("toFastXPath input= " + xpath + " output= " + output);
-        return output;
+    boolean isPreScreen() {
+        return this.preScreen;
     }
 
 }
@@ -0,0 +1,119 @@
+/*
+ * Copyright Pawel Krawczyk (c) 2014.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.saml;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Command line client of {@link ValidatorDaemon}.
+ * <p>
+ * Usage: {@code ValidatorClient [-p port] profile file...}, where a file name of {@code -}
+ * reads the document from standard input. One verdict line is printed per document,
+ * prefixed with the file name. The exit status is 0 if all documents are valid, 1 if
+ * any is not and 2 on errors.
+ */
+public final class ValidatorClient {
+
+    private final String base;
+
+    /**
+     * @param port port of the daemon on the loopback interface
+     */
+    public ValidatorClient(final int port) {
+        this.base = "http://127.0.0.1:" + port + "/validate/";
+    }
+
+    /**
+     * Submits one document. The stream is read to the end but not closed.
+     *
+     * @param profile profile configured in the daemon
+     * @param input   the document
+     * @return the verdict line returned by the daemon
+     * @throws IOException if the daemon cannot be reached or reports an error
+     */
+    public String validate(final String profile, final InputStream input) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(this.base
+                + URLEncoder.encode(profile, "UTF-8")).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        // the document is sent as it is read, without knowing its size
+        connection.setChunkedStreamingMode(8192);
+        connection.setRequestProperty("Content-Type", "application/xml");
+        try (OutputStream out = connection.getOutputStream()) {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = input.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+        }
+        int status = connection.getResponseCode();
+        InputStream response = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        String body;
+        try (InputStream in = response) {
+            body = in == null ? "" : new String(SchemaCatalog.readFully(in), StandardCharsets.UTF_8).trim();
+        }
+        if (status != 200) {
+            throw new IOException("Daemon returned " + status + ": " + body);
+        }
+        return body;
+    }
+
+    /**
+     * @param verdict verdict line returned by {@link #validate(String, InputStream)}
+     * @return true if the verdict says the document is valid
+     */
+    public static boolean isValid(final String verdict) {
+        return verdict.startsWith("{\"valid\":true");
+    }
+
+    /**
+     * Submits files or standard input to a running daemon.
+     *
+     * @param args optional {@code -p port}, the profile and the files
+     */
+    public static void main(final String[] args) {
+        int i = 0;
+        int port = ValidatorDaemon.DEFAULT_PORT;
+        if (args.length > 1 && "-p".equals(args[0])) {
+            port = Integer.parseInt(args[1]);
+            i = 2;
+        }
+        if (args.length < i + 2) {
+            System.err.println("Usage: ValidatorClient [-p port] profile file... (- for standard input)");
+            System.exit(2);
+        }
+        ValidatorClient client = new ValidatorClient(port);
+        String profile = args[i++];
+        int status = 0;
+        for (; i < args.length; i++) {
+            try (InputStream in = "-".equals(args[i]) ? System.in : new FileInputStream(args[i])) {
+                String verdict = client.validate(profile, in);
+                System.out.println(args[i] + ": " + verdict);
+                if (!isValid(verdict)) {
+                    status = Math.max(status, 1);
+                }
+            } catch (IOException e) {
+                System.err.println(args[i] + ": " + e.getMessage());
+                status = 2;
+            }
+        }
+        System.exit(status);
+    }
+
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright Pawel Krawczyk (c) 2014.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.saml;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Resident validation service for scripts and batch jobs that would otherwise start a new JVM
+ * for every document.
+ * <p>
+ * The daemon compiles a set of named profiles once and serves them over HTTP on the loopback
+ * interface. A request is {@code POST /validate/<profile>} with the document as the body; the
+ * verdict is a single line of JSON with the validity, failure code, detail, key and signature
+ * algorithm, and the validation time in microseconds. {@code GET /metrics} returns the
+ * per-outcome and per-phase statistics of all requests so far. Requests are served by a fixed
+ * pool of threads sharing the engines.
+ * <p>
+ * Profiles are read from a properties file, see {@link #loadProfiles(Properties)}. Use
+ * {@link ValidatorClient} to submit documents from the command line.
+ */
+public final class ValidatorDaemon implements AutoCloseable {
+
+    private final static Logger LOG = Logger.getLogger(ValidatorDaemon.class.getName());
+
+    /**
+     * Port used when none is given.
+     */
+    public static final int DEFAULT_PORT = 8089;
+
+    private final Map<String, ValidatorEngine> profiles;
+    private final ValidationMetrics metrics;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * Binds the daemon to the loopback interface; call {@link #start()} to accept requests.
+     *
+     * @param profiles compiled engines by profile name
+     * @param metrics  metrics the engines report to, or null if they report nowhere
+     * @param port     TCP port, 0 for any free port
+     * @param threads  number of requests served at the same time
+     * @throws IOException if the port cannot be bound
+     */
+    public ValidatorDaemon(final Map<String, ValidatorEngine> profiles, final ValidationMetrics metrics,
+                           final int port, final int threads) throws IOException {
+        this.profiles = Collections.unmodifiableMap(new LinkedHashMap<>(profiles));
+        this.metrics = metrics;
+        // only local processes may submit documents, the daemon has no authentication
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.executor = Executors.newFixedThreadPool(threads);
+        this.server.setExecutor(this.executor);
+        this.server.createContext("/validate/", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                validate(exchange);
+            }
+        });
+        this.server.createContext("/metrics", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                String body = ValidatorDaemon.this.metrics == null ? "no metrics\n" : ValidatorDaemon.this.metrics.snapshot() + "\n";
+                respond(exchange, 200, "text/plain", body);
+            }
+        });
+    }
+
+    /**
+     * Reads profiles from properties. The {@code profiles} property lists the profile names,
+     * separated by commas; each profile is configured with properties prefixed by its name:
+     * <pre>
+     * profiles=sts
+     * sts.key=signer.der
+     * sts.schema=schemas/soap-envelope.xsd
+     * sts.signature=/soape:Envelope/soape:Header/wsse:Security/ds:Signature
+     * sts.body=/soape:Envelope/soape:Body
+     * sts.idNamespace=http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-utility-1.0.xsd
+     * sts.idAttribute=Id
+     * sts.schemas=schemas
+     * sts.preScreen=true
+     * sts.trustAnchors=ca.der
+     * sts.crls=ca.crl
+     * </pre>
+     * {@code idNamespace}, {@code idAttribute}, {@code schemas} (directory of the schema catalog),
+     * {@code preScreen}, {@code trustAnchors} and {@code crls} (comma separated files for
+     * {@link PkixTrust}; without CRLs revocation is not checked) are optional.
+     *
+     * @param properties profile definitions
+     * @param metrics    metrics all profiles report to, or null
+     * @return compiled engines by profile name
+     * @throws Exception if a profile is incomplete or cannot be compiled
+     */
+    public static Map<String, ValidatorEngine> loadProfiles(final Properties properties, final ValidationMetrics metrics) throws Exception {
+        Map<String, ValidatorEngine> profiles = new LinkedHashMap<>();
+        for (String name : properties.getProperty("profiles", "").split(",")) {
+            name = name.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            Validator val = new Validator(required(properties, name, "key"), required(properties, name, "schema"),
+                    required(properties, name, "signature"), required(properties, name, "body"));
+            String idAttribute = properties.getProperty(name + ".idAttribute");
+            if (idAttribute != null) {
+                val.setIdAttribute(properties.getProperty(name + ".idNamespace"), idAttribute);
+            }
+            String schemas = properties.getProperty(name + ".schemas");
+            if (schemas != null) {
+                val.setSchemaCatalog(SchemaCatalog.fromDirectory(new File(schemas)));
+            }
+            val.setPreScreen(Boolean.parseBoolean(properties.getProperty(name + ".preScreen", "false")));
+            String anchors = properties.getProperty(name + ".trustAnchors");
+            if (anchors != null) {
+                PkixTrust.Builder trust = new PkixTrust.Builder();
+                for (String file : anchors.split(",")) {
+                    trust.addTrustAnchorFile(file.trim());
+                }
+                String crls = properties.getProperty(name + ".crls");
+                if (crls != null) {
+                    for (String file : crls.split(",")) {
+                        trust.addCrlFile(file.trim());
+                    }
+                }
+                val.setPkixTrust(trust.revocation(crls != null).build());
+            }
+            if (metrics != null) {
+                val.setValidationListener(metrics);
+            }
+            profiles.put(name, val.compile());
+            LOG.info("Profile " + name + " ready");
+        }
+        if (profiles.isEmpty()) {
+            throw new IllegalArgumentException("No profiles defined, set the profiles property");
+        }
+        return profiles;
+    }
+
+    /**
+     * Same as {@link #loadProfiles(Properties, ValidationMetrics)} without metrics.
+     *
+     * @param properties profile definitions
+     * @return compiled engines by profile name
+     * @throws Exception if a profile is incomplete or cannot be compiled
+     */
+    public static Map<String, ValidatorEngine> loadProfiles(final Properties properties) throws Exception {
+        return loadProfiles(properties, null);
+    }
+
+    private static String required(final Properties properties, final String profile, final String key) {
+        String value = properties.getProperty(profile + "." + key);
+        if (value == null) {
+            throw new IllegalArgumentException("Profile " + profile + " has no " + key);
+        }
+        return value;
+    }
+
+    /**
+     * Starts accepting requests.
+     */
+    public void start() {
+        this.server.start();
+        LOG.info("Validator daemon listening on " + this.server.getAddress() + " with profiles " + this.profiles.keySet());
+    }
+
+    /**
+     * @return the port the daemon is bound to
+     */
+    public int getPort() {
+        return this.server.getAddress().getPort();
+    }
+
+    private void validate(final HttpExchange exchange) throws IOException {
+        try (InputStream body = exchange.getRequestBody()) {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, "application/json", "{\"error\":\"POST the document\"}\n");
+                return;
+            }
+            String profile = exchange.getRequestURI().getPath().substring("/validate/".length());
+            ValidatorEngine engine = this.profiles.get(profile);
+            if (engine == null) {
+                respond(exchange, 404, "application/json", "{\"error\":" + quote("unknown profile " + profile) + "}\n");
+                return;
+            }
+            ValidationResult result;
+            try {
+                result = engine.validate(body);
+            } catch (Exception e) {
+                LOG.warning("Validation error in profile " + profile + ": " + e);
+                respond(exchange, 500, "application/json", "{\"error\":" + quote(e.toString()) + "}\n");
+                return;
+            }
+            respond(exchange, 200, "application/json", verdict(result));
+        } catch (RuntimeException e) {
+            LOG.warning("Request failed: " + e);
+            respond(exchange, 500, "application/json", "{\"error\":" + quote(e.toString()) + "}\n");
+        }
+    }
+
+    /*
+     * One line of JSON per document, so verdicts of many requests can be concatenated and grepped.
+     */
+    static String verdict(final ValidationResult result) {
+        return "{\"valid\":" + result.isValid()
+                + ",\"code\":" + quote(result.getFailureCode().name())
+                + ",\"detail\":" + quote(result.getDetail())
+                + ",\"keyId\":" + quote(result.getKeyId())
+                + ",\"algorithm\":" + quote(result.getSignatureAlgorithm())
+                + ",\"micros\":" + TimeUnit.NANOSECONDS.toMicros(result.getTotalNanos())
+                + "}\n";
+    }
+
+    private static String quote(final String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private static void respond(final HttpExchange exchange, final int status, final String type, final String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", type + "; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Stops accepting requests and waits up to a second for those in progress.
+     */
+    @Override
+    public void close() {
+        this.server.stop(1);
+        this.executor.shutdown();
+    }
+
+    /**
+     * Runs the daemon until the JVM is stopped.
+     * <p>
+     * Usage: {@code ValidatorDaemon profiles.properties [port] [threads]}
+     *
+     * @param args profiles file, optional port (default {@value #DEFAULT_PORT}) and number of threads
+     *             (default number of processors)
+     * @throws Exception if the profiles cannot be loaded or the port cannot be bound
+     */
+    public static void main(final String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: ValidatorDaemon profiles.properties [port] [threads]");
+            System.exit(2);
+        }
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(args[0])) {
+            properties.load(in);
+        }
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        ValidationMetrics metrics = new ValidationMetrics();
+        final ValidatorDaemon daemon = new ValidatorDaemon(loadProfiles(properties, metrics), metrics, port, threads);
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                daemon.close();
+            }
+        }));
+        daemon.start();
+    }
+
+}
@@ -0,0 +1,1089 @@
+/*
+ * Copyright Pawel Krawczyk (c) 2014.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.saml;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+import javax.xml.XMLConstants;
+import javax.xml.crypto.MarshalException;
+import javax.xml.crypto.dsig.Reference;
+import javax.xml.crypto.dsig.XMLSignature;
+import javax.xml.crypto.dsig.XMLSignatureException;
+import javax.xml.crypto.dsig.XMLSignatureFactory;
+import javax.xml.crypto.dsig.dom.DOMValidateContext;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.security.spec.InvalidKeySpecException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Immutable, compiled form of a {@link Validator} configuration.
+ * <p>
+ * The schema and the hardened parser settings are prepared once when the engine
+ * is created, so the same engine can be shared between threads and used for any
+ * number of documents. Create it with {@link Validator#compile()}.
+ */
+public final class ValidatorEngine {
+
+    private final static Logger LOG = Logger.getLogger(ValidatorEngine.class.getName());
+
+    private final SigningKeys signingKeys;
+    private final ElementLocator signatureLocator;
+    private final ElementLocator bodyLocator;
+    private final Binding[] bindings;
+    private final Executor executor;
+    private final PkixTrust pkixTrust;
+    private final String idAttribute;
+    private final String idNamespace;
+    private final PreScreen preScreen;
+    private final PrefixRegistry prefixes;
+    private final ResourceLimits limits;
+    private final SignaturePolicy signaturePolicy;
+    private final BodyForm bodyForm;
+    private final ValidationListener listener;
+    private final DiagnosticsMode diagnosticsMode;
+    private final int diagnosticsSampleRate;
+    private final AtomicLong signatureFailures = new AtomicLong();
+    private final VerifiedSignatureCache signatureCache;
+    private final ReplayStore replayStore;
+    private final long replayWindowMillis;
+
+    private final DocumentBuilderPool parsers;
+    private final SchemaCatalog catalog;
+    private final Schema schema;
+    private final String schemaKey;
+    private final ErrorHandler errorHandler = new ErrorHandler();
+    private final EntityResolver entityResolver;
+
+    ValidatorEngine(final Validator config) throws SAXException, ParserConfigurationException, IOException, CertificateException {
+        this(config, null);
+    }
+
+    /*
+     * With a schema cache, compiled schemas and the default catalog are shared with other engines
+     * using the same cache instead of being loaded again.
+     */
+    ValidatorEngine(final Validator config, final SchemaCache schemas)
+            throws SAXException, ParserConfigurationException, IOException, CertificateException {
+        this.signingKeys = config.getSigningKeys() != null ? config.getSigningKeys()
+                : SigningKeys.fromFiles(config.getKeyFile());
+        this.signatureLocator = ElementLocator.compile(config.getSignatureXPath());
+        this.bodyLocator = ElementLocator.compile(config.getBodyXPath());
+        List<Binding> bindings = new ArrayList<>();
+        List<ElementLocator> signedElements = new ArrayList<>();
+        signedElements.add(this.bodyLocator);
+        for (String xpath : config.getSignedElements()) {
+            signedElements.add(ElementLocator.compile(xpath));
+        }
+        bindings.add(new Binding(this.signatureLocator, signedElements));
+        for (String[] binding : config.getBindings()) {
+            signedElements = new ArrayList<>();
+            for (int i = 1; i < binding.length; i++) {
+                signedElements.add(ElementLocator.compile(binding[i]));
+            }
+            bindings.add(new Binding(ElementLocator.compile(binding[0]), signedElements));
+        }
+        this.bindings = bindings.toArray(new Binding[bindings.size()]);
+        this.executor = config.getVerificationExecutor();
+        this.pkixTrust = config.getPkixTrust();
+        this.idAttribute = config.getIdAttribute();
+        this.idNamespace = config.getIdNamespace();
+        this.prefixes = config.getPrefixRegistry();
+        this.limits = config.getResourceLimits();
+        this.signaturePolicy = config.getSignaturePolicy();
+        this.bodyForm = config.getBodyForm();
+        this.preScreen = config.isPreScreen()
+                ? new PreScreen(this.signatureLocator, this.bodyLocator, this.idNamespace, this.idAttribute, this.prefixes, this.limits) : null;
+        this.listener = config.getValidationListener();
+        this.diagnosticsMode = config.getDiagnosticsMode();
+        this.diagnosticsSampleRate = config.getDiagnosticsSampleRate();
+        this.signatureCache = config.getVerifiedSignatureCache();
+        this.replayStore = config.getReplayStore();
+        this.replayWindowMillis = config.getReplayWindowMillis();
+
+        SchemaCatalog catalog = config.getSchemaCatalog();
+        if (catalog == null) {
+            catalog = schemas != null ? schemas.defaultCatalog() : defaultCatalog();
+        }
+        this.catalog = catalog;
+        this.entityResolver = new EntityResolver(catalog);
+
+        if (schemas != null) {
+            final String schemaFile = config.getSchemaFile();
+            final SchemaCatalog schemaCatalog = catalog;
+            this.schemaKey = SchemaCache.key(schemaFile, catalog);
+            this.schema = schemas.get(this.schemaKey, new SchemaCache.Compiler() {
+                @Override
+                public Schema compile() throws SAXException, IOException {
+                    return compileSchema(schemaFile, schemaCatalog);
+                }
+            });
+        } else {
+            this.schemaKey = null;
+            this.schema = compileSchema(config.getSchemaFile(), catalog);
+        }
+
+        /*
+         * Create base for XML document parser. Enable XML namespace processing, as SAML
+         * documents use namespaces. Enable XML validation against the compiled schema,
+         * which is one of the safeguards against wrapping attacks.
+         */
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        factory.setSchema(this.schema);
+
+        /*
+         * Process XML documents within resource limits to prevent DoS.
+         *
+         * Reference:
+         * http://docs.oracle.com/javase/7/docs/api/javax/xml/XMLConstants.html#FEATURE_SECURE_PROCESSING
+         */
+        factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+
+        /*
+         * Prevent automated downloads of external DTD and schemas and only use those
+         * provided locally by EntityResolver.
+         *
+         * References:
+         * http://docs.oracle.com/javase/7/docs/api/javax/xml/XMLConstants.html#ACCESS_EXTERNAL_DTD
+         * http://docs.oracle.com/javase/7/docs/api/javax/xml/XMLConstants.html#ACCESS_EXTERNAL_SCHEMA
+         */
+        factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_DTD, "file,jar");
+        factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "file,jar");
+
+        /*
+         *  Try to enable stricter validator settings if the XML parser implementation supports them
+         *  and disable automation that could potentially lead to attacks. Schema validation itself
+         *  is driven by the compiled Schema above, so the Xerces schema validation switches are not
+         *  repeated here.
+         *
+         *  Reference:
+         *  http://xerces.apache.org/xerces2-j/features.html
+         */
+        final Map<String, Boolean> hm = new HashMap<>();
+        // disable DTD to prevent override of ID elements
+        hm.put("http://apache.org/xml/features/nonvalidating/load-dtd-grammar", false);
+        // disable schemaLocation override and only rely on local EntityResolver
+        hm.put("http://apache.org/xml/features/honour-all-schemaLocations", false);
+        // additional features, not available in all parsers
+        hm.put("http://apache.org/xml/features/validation/id-idref-checking", true);
+        hm.put("http://apache.org/xml/features/validation/identity-constraint-checking", true);
+        hm.put("http://apache.org/xml/features/standard-uri-conformant", true);
+        hm.put("http://xml.org/sax/features/unicode-normalization-checking", true);
+        // prevent external entity processing (XXE)
+        hm.put("http://xml.org/sax/features/external-general-entities", false);
+        hm.put("http://apache.org/xml/features/disallow-doctype-decl", false);
+        if (this.executor != null) {
+            // signatures are verified by several threads at once, which is only safe if reading the
+            // document does not change it; deferred nodes are expanded in place on first access
+            hm.put("http://apache.org/xml/features/dom/defer-node-expansion", false);
+        }
+
+        for (Map.Entry<String, Boolean> entry : hm.entrySet()) {
+            try {
+                factory.setFeature(entry.getKey(), entry.getValue());
+            } catch (Exception e) {
+                LOG.warning("Unsupported XML parser feature " + entry.getKey());
+            }
+        }
+
+        /*
+         * The resource limits are enforced on the input stream, before the parser sees it. The
+         * parser's own limits are set to the same values as a second line of defence for encodings
+         * the stream scanner cannot follow.
+         *
+         * Reference:
+         * https://docs.oracle.com/javase/tutorial/jaxp/limits/limits.html
+         */
+        final Map<String, Object> properties = new HashMap<>();
+        properties.put("http://www.oracle.com/xml/jaxp/properties/maxElementDepth", String.valueOf(this.limits.getMaxDepth()));
+        properties.put("http://www.oracle.com/xml/jaxp/properties/elementAttributeLimit", String.valueOf(this.limits.getMaxAttributes()));
+        for (Map.Entry<String, Object> entry : properties.entrySet()) {
+            try {
+                factory.setAttribute(entry.getKey(), entry.getValue());
+            } catch (IllegalArgumentException e) {
+                LOG.warning("Unsupported XML parser property " + entry.getKey());
+            }
+        }
+
+        // fail early on configuration errors rather than on the first document
+        factory.newDocumentBuilder();
+
+        this.parsers = new DocumentBuilderPool(factory, this.errorHandler, this.entityResolver, config.getParserPoolSize());
+    }
+
+    /*
+     * Rough estimate of the heap held by this engine, for caches of many engines: a fixed part for
+     * the locators, policy and factory, the trusted keys and certificates, and the idle parsers it
+     * may keep. Schemas are not counted, they are usually shared and counted by the SchemaCache.
+     */
+    long weight() {
+        long weight = 16 * 1024;
+        for (SigningKeys.Key key : this.signingKeys.getKeys()) {
+            weight += key.getPublicKey().getEncoded().length;
+            if (key.getCertificate() != null) {
+                // parsed certificate with its extensions and names
+                weight += 4 * 1024;
+            }
+        }
+        return weight + this.parsers.getMaxIdle() * 64L * 1024;
+    }
+
+    Schema getSchema() {
+        return this.schema;
+    }
+
+    /*
+     * Key of the schema in the SchemaCache the engine was compiled with, null without one.
+     */
+    String getSchemaKey() {
+        return this.schemaKey;
+    }
+
+    SchemaCatalog getSchemaCatalog() {
+        return this.catalog;
+    }
+
+    SignaturePolicy getSignaturePolicy() {
+        return this.signaturePolicy;
+    }
+
+    /**
+     * @return pool of XML parsers used by this engine, for monitoring its size and leaks
+     */
+    public DocumentBuilderPool getParserPool() {
+        return this.parsers;
+    }
+
+    /*
+     * Without an explicit catalog the schemas are taken from the "schemas" directory, as they
+     * always were, but they are now read only once per engine.
+     */
+    static SchemaCatalog defaultCatalog() throws IOException {
+        File directory = new File("schemas");
+        if (!directory.isDirectory()) {
+            LOG.warning("No schema catalog configured and no schemas directory in " + new File("").getAbsolutePath());
+            return new SchemaCatalog.Builder().build();
+        }
+        return SchemaCatalog.fromDirectory(directory);
+    }
+
+    /*
+     * Compiles the initial schema of the validated document. This should be the schema for the root
+     * document even if it uses a number of other schemas (through namespaces); all remaining schemas
+     * are supplied on demand through the entity resolver, so nothing is ever downloaded.
+     *
+     * The initial schema is read from disk if the file exists, otherwise it is looked up in the catalog
+     * by name, which allows running entirely from the classpath.
+     */
+    private Schema compileSchema(final String schemaFile, final SchemaCatalog catalog) throws SAXException, IOException {
+        SchemaFactory sf = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+        sf.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+        sf.setProperty(XMLConstants.ACCESS_EXTERNAL_DTD, "file,jar");
+        sf.setProperty(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "file,jar");
+        try {
+            sf.setFeature("http://apache.org/xml/features/validation/schema-full-checking", true);
+        } catch (SAXException e) {
+            LOG.warning("Unsupported XML schema feature http://apache.org/xml/features/validation/schema-full-checking");
+        }
+        sf.setErrorHandler(this.errorHandler);
+        sf.setResourceResolver(this.entityResolver);
+
+        LOG.info("Compiling schema " + schemaFile);
+        File file = new File(schemaFile);
+        if (file.isFile()) {
+            return sf.newSchema(new StreamSource(file));
+        }
+        InputStream in = catalog.open(null, schemaFile);
+        if (in == null) {
+            throw new FileNotFoundException("Schema not found on disk or in catalog: " + schemaFile);
+        }
+        return sf.newSchema(new StreamSource(in, schemaFile));
+    }
+
+    /**
+     * Perform schema and signature validation on supplied XML document.
+     *
+     * @param input the input document for validation (filename)
+     * @return validation result, never null; documents that are not well-formed or not valid
+     * against the schema are reported as {@link FailureCode#SCHEMA_INVALID}
+     * @throws IOException  on file errors
+     */
+    public ValidationResult validate(final String input)
+            throws SAXException, IOException, ParserConfigurationException,
+            NoSuchAlgorithmException, CertificateException, MarshalException,
+            XMLSignatureException, InvalidKeySpecException {
+        try (InputStream in = new FileInputStream(input)) {
+            return validateStream(in, null);
+        }
+    }
+
+    /**
+     * Perform schema and signature validation on a document held in memory, such as
+     * a decoded POST body.
+     *
+     * @param input the input document for validation; the array is not modified
+     * @return validation result, never null; documents that are not well-formed or not valid
+     * against the schema are reported as {@link FailureCode#SCHEMA_INVALID}
+     */
+    public ValidationResult validate(final byte[] input)
+            throws SAXException, IOException, ParserConfigurationException,
+            NoSuchAlgorithmException, CertificateException, MarshalException,
+            XMLSignatureException, InvalidKeySpecException {
+        return validateStream(new ByteArrayInputStream(input), null);
+    }
+
+    /*
+     * Validates a document routed to this engine by its issuer, see IdpRegistry. The document is
+     * rejected if the signed body has another issuer: the routing issuer is read from anywhere in the
+     * document, possibly from an unsigned header, and would otherwise let one partner's valid
+     * signature vouch for an assertion of another.
+     */
+    ValidationResult validate(final byte[] input, final String issuer)
+            throws SAXException, IOException, ParserConfigurationException,
+            NoSuchAlgorithmException, CertificateException, MarshalException,
+            XMLSignatureException, InvalidKeySpecException {
+        return validateStream(new ByteArrayInputStream(input), issuer);
+    }
+
+    /**
+     * Perform schema and signature validation on a document read from a stream.
+     * The stream is read up to the end of the document but it is not closed;
+     * closing it remains the responsibility of the caller.
+     *
+     * @param input the input document for validation
+     * @return validation result, never null; documents that are not well-formed or not valid
+     * against the schema are reported as {@link FailureCode#SCHEMA_INVALID}
+     * @throws IOException  on stream errors
+     */
+    public ValidationResult validate(final InputStream input)
+            throws SAXException, IOException, ParserConfigurationException,
+            NoSuchAlgorithmException, CertificateException, MarshalException,
+            XMLSignatureException, InvalidKeySpecException {
+        // the XML parser closes its input when done, which must not reach the caller's stream
+        return validateStream(new FilterInputStream(input) {
+            @Override
+            public void close() {
+            }
+        }, null);
+    }
+
+    /**
+     * Perform schema and signature validation on the remaining bytes of a buffer.
+     * Heap, direct and memory-mapped buffers are read in place, without an
+     * intermediate copy, and the position of the buffer is not changed.
+     *
+     * @param input the input document for validation
+     * @return validation result, never null; documents that are not well-formed or not valid
+     * against the schema are reported as {@link FailureCode#SCHEMA_INVALID}
+     */
+    public ValidationResult validate(final ByteBuffer input)
+            throws SAXException, IOException, ParserConfigurationException,
+            NoSuchAlgorithmException, CertificateException, MarshalException,
+            XMLSignatureException, InvalidKeySpecException {
+        return validateStream(new ByteBufferInputStream(input), null);
+    }
+
+    /**
+     * Perform schema and signature validation on a file, which is memory-mapped
+     * instead of being read through a stream. Best suited to large documents; the
+     * file is closed before this method returns.
+     *
+     * @param input the input document for validation
+     * @return validation result, never null; documents that are not well-formed or not valid
+     * against the schema are reported as {@link FailureCode#SCHEMA_INVALID}
+     * @throws IOException  on file errors
+     */
+    public ValidationResult validate(final Path input)
+            throws SAXException, IOException, ParserConfigurationException,
+            NoSuchAlgorithmException, CertificateException, MarshalException,
+            XMLSignatureException, InvalidKeySpecException {
+        try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+            return validate(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    private ValidationResult validateStream(InputStream input, final String issuer)
+            throws SAXException, IOException // parse()
+            , ParserConfigurationException // DocumentBuilderPool.acquire()
+            , NoSuchAlgorithmException, CertificateException
+            , MarshalException // unmarshal()
+            , XMLSignatureException, InvalidKeySpecException {
+
+        ValidationResult.Timer timer = new ValidationResult.Timer(this.listener);
+        // string building below is skipped entirely unless debugging is enabled
+        final boolean debug = LOG.isLoggable(Level.FINE);
+
+        LOG.fine("Validator starting...");
+        final long start = System.nanoTime();
+
+        if (this.preScreen != null) {
+            /*
+             * Cheap streaming check of the document shape before the DOM is built. The input is
+             * read twice, so streams that cannot be rewound are buffered in memory first, but
+             * never more than the size limit.
+             */
+            if (!input.markSupported()) {
+                try {
+                    input = new ByteArrayInputStream(SchemaCatalog.readFully(new LimitedInputStream(input, this.limits, start)));
+                } catch (LimitedInputStream.LimitExceededException e) {
+                    timer.lap(Phase.PRE_SCREEN);
+                    return timer.failure(FailureCode.RESOURCE_LIMIT, e);
+                }
+            }
+            input.mark(Integer.MAX_VALUE);
+            String reason;
+            LimitedInputStream limited = new LimitedInputStream(input, this.limits, start);
+            try {
+                reason = this.preScreen.check(limited);
+            } catch (SAXException e) {
+                timer.lap(Phase.PRE_SCREEN);
+                return limited.exceeded() != null ? timer.failure(FailureCode.RESOURCE_LIMIT, limited.exceeded())
+                        : timer.failure(FailureCode.SCHEMA_INVALID, e);
+            }
+            timer.lap(Phase.PRE_SCREEN);
+            if (reason != null) {
+                LOG.warning("Document rejected by pre-screen: " + reason);
+                return timer.failure(FailureCode.PRE_SCREEN_REJECTED, reason);
+            }
+            input.reset();
+        }
+
+        /* Finally load, parse and validate the XML document. Any XML structure manipulations should be
+         * detected here and result in failed validation. The parser comes from the engine's pool and
+         * is only returned to it if the parse completed; a builder that failed mid-way is replaced.
+         * The document is read through the resource limits, so the parse is aborted as soon as
+         * the document goes over budget and no more of it is buffered.
+         */
+        LOG.fine("XML parsing and validation...");
+        Document doc;
+        LimitedInputStream limited = new LimitedInputStream(input, this.limits, start);
+        try (DocumentBuilderPool.Lease lease = this.parsers.acquire()) {
+            try {
+                doc = lease.builder().parse(limited);
+            } catch (SAXException | IOException e) {
+                lease.discard();
+                timer.lap(Phase.PARSE);
+                if (limited.exceeded() != null) {
+                    LOG.warning("Document over resource limits: " + limited.exceeded().getMessage());
+                    return timer.failure(FailureCode.RESOURCE_LIMIT, limited.exceeded());
+                }
+                if (e instanceof IOException) {
+                    throw (IOException) e;
+                }
+                return timer.failure(FailureCode.SCHEMA_INVALID, e);
+            } catch (RuntimeException e) {
+                lease.discard();
+                throw e;
+            }
+        }
+        timer.lap(Phase.PARSE);
+        if (this.limits.isOverTime(start)) {
+            return timer.failure(FailureCode.RESOURCE_LIMIT, overTime());
+        }
+
+        // Show the root element of the document and its namespace
+        if (debug) {
+            LOG.fine("Input document root=" + doc.getFirstChild().getLocalName() + " namespace=" + doc.getFirstChild().getNamespaceURI());
+        }
+
+        LOG.fine("Locating elements...");
+        /*
+         * Use the precompiled locators to extract the signed elements and their Signature elements,
+         * one pair per binding. They will be necessary for further digital signature validation.
+         */
+        NamespaceResolver namespaces = new NamespaceResolver(doc, this.prefixes);
+
+        final Signed[] signed = new Signed[this.bindings.length];
+        for (int i = 0; i < signed.length; i++) {
+            Binding binding = this.bindings[i];
+            Element[] elements = new Element[binding.elements.length];
+            for (int j = 0; j < elements.length; j++) {
+                elements[j] = binding.elements[j].locate(doc, namespaces);
+                if (elements[j] == null) {
+                    LOG.severe("Signed element not found in the document, exiting");
+                    timer.lap(Phase.LOCATE);
+                    return timer.failure(FailureCode.BODY_NOT_FOUND, "no element at " + binding.elements[j]);
+                }
+                if (debug) {
+                    LOG.fine("body=" + elements[j].getLocalName());
+                }
+            }
+
+            Element signatureElement = binding.signature.locate(doc, namespaces);
+            if (signatureElement == null) {
+                LOG.severe("Signature element not found in the document, exiting");
+                timer.lap(Phase.LOCATE);
+                return timer.failure(FailureCode.SIGNATURE_NOT_FOUND, "no element at " + binding.signature);
+            }
+
+            if (debug) {
+                LOG.fine("signature_element=" + signatureElement.getLocalName());
+            }
+
+            // registered before any verification starts, verification only reads the document
+            for (Element element : elements) {
+                Attr id = idAttribute(element);
+                if (id != null && !id.isId()) {
+                    element.setIdAttributeNode(id, true);
+                }
+            }
+            signed[i] = new Signed(elements, signatureElement);
+        }
+        timer.lap(Phase.LOCATE);
+
+        /*
+         * Cheap structural checks of the signature before anything is canonicalized, digested or
+         * verified with a key. A signature that does not cover exactly the located elements is
+         * rejected here, which closes most wrapping attempts at the cost of a few DOM lookups.
+         */
+        if (this.signaturePolicy != null) {
+            for (Signed s : signed) {
+                String[] ids = new String[s.elements.length];
+                for (int j = 0; j < ids.length; j++) {
+                    ids[j] = bodyId(s.elements[j]);
+                }
+                String reason = this.signaturePolicy.check(s.signature, s.elements, ids);
+                if (reason != null) {
+                    timer.lap(Phase.POLICY);
+                    LOG.warning("Signature rejected by policy: " + reason);
+                    return timer.failure(FailureCode.POLICY_VIOLATION, reason);
+                }
+            }
+            timer.lap(Phase.POLICY);
+        }
+
+        LOG.fine("XML digital signature validation starting...");
+
+        /*
+         * The signatures are independent of each other. With an executor they are verified at the
+         * same time, each with its own timer whose phase times are added up afterwards; without one
+         * they are verified in order and the first failure ends validation.
+         */
+        if (this.executor != null && signed.length > 1) {
+            List<Callable<Boolean>> tasks = new ArrayList<>(signed.length);
+            for (final Signed s : signed) {
+                s.timer = new ValidationResult.Timer(null);
+                tasks.add(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        return verify(s, start);
+                    }
+                });
+            }
+            invokeAll(tasks);
+            for (Signed s : signed) {
+                timer.merge(s.timer);
+            }
+        } else {
+            for (Signed s : signed) {
+                s.timer = timer;
+                if (!verify(s, start)) {
+                    break;
+                }
+            }
+        }
+        for (Signed s : signed) {
+            if (s.code != null) {
+                timer.forensics(s.timer.forensics());
+                return timer.failure(s.code, s.detail);
+            }
+        }
+
+        LOG.fine("validity=true");
+        Signed primary = signed[0];
+        String bodyIssuer = SamlAssertion.issuer(primary.body);
+        if (issuer != null && !issuer.equals(bodyIssuer)) {
+            LOG.warning("Document routed by issuer " + issuer + " carries a signed body from " + bodyIssuer);
+            return timer.failure(FailureCode.ISSUER_MISMATCH, "signed body issuer " + bodyIssuer + " is not " + issuer);
+        }
+        if (this.replayStore != null) {
+            // only authentic elements are recorded, forged ones must not be able to block genuine ones
+            for (Signed s : signed) {
+                String replayKey = replayKey(s.body, s.xmlSignature);
+                boolean fresh = this.replayStore.markIfAbsent(replayKey, replayExpiry(s.body));
+                if (!fresh) {
+                    timer.lap(Phase.REPLAY);
+                    LOG.warning("Replayed signed element " + replayKey);
+                    return timer.failure(FailureCode.REPLAYED, "already accepted: " + replayKey);
+                }
+            }
+            timer.lap(Phase.REPLAY);
+        }
+
+        switch (this.bodyForm) {
+            case DETACHED:
+                return timer.success(detach(primary.body), null, null, bodyIssuer, primary.keyId);
+            case CANONICAL:
+                return timer.success(null, signedBytes(primary.body, primary.xmlSignature), null, bodyIssuer, primary.keyId);
+            case CLAIMS:
+                return timer.success(null, null, SamlAssertion.claims(primary.body), bodyIssuer, primary.keyId);
+            default:
+                return timer.success(primary.body, null, null, bodyIssuer, primary.keyId);
+        }
+    }
+
+    /*
+     * Verifies the signature of one binding, charging the work to its timer. Returns false and records
+     * the reason in the binding if the signature does not verify with any trusted key.
+     */
+    private boolean verify(final Signed s, final long start)
+            throws MarshalException, XMLSignatureException, IOException {
+        final boolean debug = LOG.isLoggable(Level.FINE);
+        final ValidationResult.Timer timer = s.timer;
+        final Element signatureElement = s.signature;
+
+        /*
+         * Create signature validator object.
+         */
+        XMLSignatureFactory fac = XMLSignatureFactory.getInstance("DOM");
+
+        /*
+         * Try the trusted keys, starting with the ones identified by KeyInfo. Each attempt needs
+         * a fresh signature object because validation results are cached inside it.
+         *
+         * Core validation is done in two steps so that each can be timed and reported on its own:
+         * the signature value is verified with the key first, and only if it matches are the
+         * reference digests computed. The digests do not depend on the key, so once a key has
+         * verified the signature value a digest mismatch ends validation.
+         */
+        Element keyInfo = child(signatureElement, SigningKeys.DSIG_NS, "KeyInfo");
+        List<SigningKeys.Key> candidates = this.signingKeys.candidates(keyInfo);
+
+        /*
+         * A certificate presented in KeyInfo is only trusted if its path validates, and then it is the
+         * only key the signature may verify with. Paths are cached, so this is usually a hash lookup.
+         */
+        if (this.pkixTrust != null) {
+            try {
+                List<X509Certificate> presented = SigningKeys.certificates(keyInfo);
+                if (!presented.isEmpty()) {
+                    X509Certificate leaf = PkixTrust.leaf(presented);
+                    String reason = this.pkixTrust.check(leaf, presented);
+                    timer.lap(Phase.CERTIFICATE);
+                    if (reason != null) {
+                        LOG.warning("Untrusted signing certificate: " + reason);
+                        return s.fail(FailureCode.UNTRUSTED_CERTIFICATE, reason);
+                    }
+                    candidates = Collections.singletonList(SigningKeys.key(leaf));
+                }
+            } catch (CertificateException e) {
+                timer.lap(Phase.CERTIFICATE);
+                return s.fail(FailureCode.UNTRUSTED_CERTIFICATE, "unparseable certificate in KeyInfo: " + e.getMessage());
+            }
+        }
+        XMLSignature signature = null;
+        DOMValidateContext valContext = null;
+        Element signedInfo = null;
+        Element signatureValue = null;
+        if (this.signatureCache != null) {
+            signedInfo = child(signatureElement, SigningKeys.DSIG_NS, "SignedInfo");
+            signatureValue = child(signatureElement, SigningKeys.DSIG_NS, "SignatureValue");
+        }
+
+        for (SigningKeys.Key key : candidates) {
+            if (this.limits.isOverTime(start)) {
+                return s.fail(FailureCode.RESOURCE_LIMIT, overTime());
+            }
+            /*
+             * Create signature validation context referring to this particular signature element
+             * and public key.
+             */
+            valContext = new DOMValidateContext(key.getPublicKey(), signatureElement);
+            if (this.bodyForm == BodyForm.CANONICAL) {
+                // keeps the digest input of each reference for signedBytes()
+                valContext.setProperty("javax.xml.crypto.dsig.cacheReference", Boolean.TRUE);
+            }
+            if (debug) {
+                LOG.fine("key=" + key);
+            }
+
+            signature = fac.unmarshalXMLSignature(valContext);
+            timer.signatureAlgorithm(signature.getSignedInfo().getSignatureMethod().getAlgorithm());
+            if (debug) {
+                LOG.fine("signature=" + signature.getSignatureValue().getId());
+            }
+            timer.lap(Phase.UNMARSHAL);
+
+            /*
+             * A signature value already verified over the same SignedInfo with the same key need
+             * not be verified again; the references below are checked in any case.
+             */
+            String cacheKey = null;
+            boolean sv;
+            if (signedInfo != null && signatureValue != null) {
+                cacheKey = VerifiedSignatureCache.key(signedInfo, signatureValue, key.getId());
+                sv = this.signatureCache.contains(cacheKey) || signature.getSignatureValue().validate(valContext);
+            } else {
+                sv = signature.getSignatureValue().validate(valContext);
+            }
+            timer.lap(Phase.SIGNATURE);
+            if (debug) {
+                LOG.fine("signature validation status: " + sv);
+            }
+            if (!sv) {
+                continue;
+            }
+
+            int invalid = invalidReference(signature, valContext);
+            timer.lap(Phase.DIGEST);
+            if (invalid < 0) {
+                if (cacheKey != null) {
+                    this.signatureCache.put(cacheKey, SamlAssertion.notOnOrAfter(s.body));
+                }
+                s.xmlSignature = signature;
+                s.keyId = key.getId();
+                return true;
+            }
+            LOG.warning("Signature failed core validation");
+            if (forensics()) {
+                timer.forensics(Forensics.collect(true, signature, valContext));
+                timer.lap(Phase.DIGEST);
+            }
+            return s.fail(FailureCode.REFERENCE_DIGEST_MISMATCH, "digest of reference " + invalid + " does not match");
+        }
+
+        LOG.warning("Signature failed core validation");
+        if (forensics()) {
+            // the digests do not depend on the key, the last attempt is as good as any
+            timer.forensics(Forensics.collect(false, signature, valContext));
+            timer.lap(Phase.DIGEST);
+        }
+
+        return s.fail(FailureCode.SIGNATURE_VALUE_MISMATCH, "signature value does not verify with any of "
+                + candidates.size() + " candidate keys");
+    }
+
+    /*
+     * Returns the index of the first reference whose digest does not match, -1 if they all match.
+     * Without an executor references after the first mismatch are not digested; with one, all the
+     * references of the signature are digested at the same time.
+     */
+    private int invalidReference(final XMLSignature signature, final DOMValidateContext valContext)
+            throws MarshalException, XMLSignatureException, IOException {
+        List<?> references = signature.getSignedInfo().getReferences();
+        if (this.executor != null && references.size() > 1) {
+            List<Callable<Boolean>> digests = new ArrayList<>(references.size());
+            for (final Object reference : references) {
+                digests.add(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws XMLSignatureException {
+                        return ((Reference) reference).validate(valContext);
+                    }
+                });
+            }
+            return invokeAll(digests).indexOf(Boolean.FALSE);
+        }
+        int j = 0;
+        for (Object reference : references) {
+            if (!((Reference) reference).validate(valContext)) {
+                return j;
+            }
+            j++;
+        }
+        return -1;
+    }
+
+    /*
+     * Runs the tasks on the verification executor and returns their results in order. The calling
+     * thread runs every task no worker has started yet instead of waiting idle, so nested calls
+     * cannot deadlock a bounded pool and a saturated or rejecting executor only costs parallelism.
+     * All tasks have finished when this method returns or throws, nothing touches the document after.
+     */
+    private <T> List<T> invokeAll(final List<Callable<T>> tasks) throws MarshalException, XMLSignatureException, IOException {
+        List<FutureTask<T>> futures = new ArrayList<>(tasks.size());
+        for (Callable<T> task : tasks) {
+            futures.add(new FutureTask<>(task));
+        }
+        // the first task is left to the calling thread
+        for (int i = 1; i < futures.size(); i++) {
+            try {
+                this.executor.execute(futures.get(i));
+            } catch (RejectedExecutionException e) {
+                LOG.fine("Verification task rejected, running it in the calling thread");
+            }
+        }
+        for (FutureTask<T> future : futures) {
+            // no-op for tasks already started by a worker
+            future.run();
+        }
+
+        List<T> results = new ArrayList<>(futures.size());
+        ExecutionException failure = null;
+        boolean interrupted = false;
+        for (FutureTask<T> future : futures) {
+            while (true) {
+                try {
+                    results.add(future.get());
+                    break;
+                } catch (ExecutionException e) {
+                    failure = failure != null ? failure : e;
+                    results.add(null);
+                    break;
+                } catch (InterruptedException e) {
+                    // the task is already running and cannot be abandoned half way through the document
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            Throwable cause = failure.getCause();
+            if (cause instanceof MarshalException) {
+                throw (MarshalException) cause;
+            }
+            if (cause instanceof XMLSignatureException) {
+                throw (XMLSignatureException) cause;
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new XMLSignatureException(cause);
+        }
+        return results;
+    }
+
+    /*
+     * Copies the body into a document of its own, so that the rest of the parsed document is not
+     * kept alive by the result. Namespace declarations in scope on the original are redeclared on
+     * the copy, the nearest one winning, and ID attributes stay registered as IDs.
+     */
+    private static Element detach(final Element body) {
+        Document doc = body.getOwnerDocument().getImplementation().createDocument(null, null, null);
+        Element copy = (Element) doc.importNode(body, true);
+        doc.appendChild(copy);
+        for (Node ancestor = body.getParentNode(); ancestor != null && ancestor.getNodeType() == Node.ELEMENT_NODE;
+             ancestor = ancestor.getParentNode()) {
+            NamedNodeMap attributes = ancestor.getAttributes();
+            for (int i = 0; i < attributes.getLength(); i++) {
+                Attr attr = (Attr) attributes.item(i);
+                if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attr.getNamespaceURI())
+                        && !copy.hasAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, attr.getLocalName())) {
+                    copy.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, attr.getName(), attr.getValue());
+                }
+            }
+        }
+        NamedNodeMap attributes = body.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            Attr attr = (Attr) attributes.item(i);
+            if (attr.isId()) {
+                copy.setIdAttributeNS(attr.getNamespaceURI(), attr.getLocalName(), true);
+            }
+        }
+        return copy;
+    }
+
+    /*
+     * Returns the canonicalized input of the digest over the body, cached by the reference during
+     * validation. The reference to the body is the one the policy checked, or the only one.
+     */
+    private byte[] signedBytes(final Element body, final XMLSignature signature) throws IOException {
+        List<?> references = signature.getSignedInfo().getReferences();
+        Reference selected = (Reference) references.get(0);
+        String uri = "#" + bodyId(body);
+        for (Object reference : references) {
+            if (uri.equals(((Reference) reference).getURI())) {
+                selected = (Reference) reference;
+                break;
+            }
+        }
+        InputStream digested = selected.getDigestInputStream();
+        if (digested == null) {
+            throw new IOException("digest input of reference " + selected.getURI() + " was not cached");
+        }
+        return SchemaCatalog.readFully(digested);
+    }
+
+    /*
+     * Identifies the signed element by its issuer and ID, which SAML requires to be unique. The ID is
+     * taken from the attribute configured with setIdAttribute(), or from the reference URI without it.
+     */
+    private String replayKey(final Element body, final XMLSignature signature) {
+        String id = "";
+        if (this.idAttribute != null) {
+            id = this.idNamespace != null ? body.getAttributeNS(this.idNamespace, this.idAttribute)
+                    : body.getAttribute(this.idAttribute);
+        }
+        if (id.isEmpty()) {
+            id = ((Reference) signature.getSignedInfo().getReferences().get(0)).getURI();
+            if (id != null && id.startsWith("#")) {
+                id = id.substring(1);
+            }
+        }
+        String issuer = SamlAssertion.issuer(body);
+        if (issuer == null) {
+            issuer = "";
+        }
+        // length-prefixed, an issuer cannot be crafted to collide with another issuer and ID
+        return issuer.length() + ":" + issuer + id;
+    }
+
+    private String overTime() {
+        return "validation took longer than " + this.limits.getMaxTime(TimeUnit.MILLISECONDS) + "ms";
+    }
+
+    /*
+     * The ID the signature must reference: the configured ID attribute, otherwise an attribute typed
+     * as ID by the schema or, failing that, one of the commonly used Id attribute names.
+     */
+    private String bodyId(final Element body) {
+        Attr id = idAttribute(body);
+        return id != null ? id.getValue() : null;
+    }
+
+    /*
+     * The configured ID attribute applies to every binding, elements that do not have it, such as a
+     * SAML assertion signed inside a WS-Security envelope, fall back to the other ID attributes.
+     */
+    private Attr idAttribute(final Element body) {
+        if (this.idAttribute != null) {
+            Attr configured = this.idNamespace != null ? body.getAttributeNodeNS(this.idNamespace, this.idAttribute)
+                    : body.getAttributeNode(this.idAttribute);
+            if (configured != null) {
+                return configured;
+            }
+        }
+        NamedNodeMap attributes = body.getAttributes();
+        Attr named = null;
+        for (int i = 0; i < attributes.getLength(); i++) {
+            Attr attribute = (Attr) attributes.item(i);
+            if (attribute.isId()) {
+                return attribute;
+            }
+            String name = attribute.getLocalName() != null ? attribute.getLocalName() : attribute.getName();
+            if (named == null && ("Id".equals(name) || "ID".equals(name) || "id".equals(name))) {
+                named = attribute;
+            }
+        }
+        return named;
+    }
+
+    /*
+     * Elements are remembered until the assertion expires, but no longer than the replay window. The
+     * engine does not enforce NotOnOrAfter, so elements of expired assertions get the full window.
+     */
+    private long replayExpiry(final Element body) {
+        long now = System.currentTimeMillis();
+        long notOnOrAfter = SamlAssertion.notOnOrAfter(body);
+        long window = now + this.replayWindowMillis;
+        return notOnOrAfter > now ? Math.min(notOnOrAfter, window) : window;
+    }
+
+    /*
+     * Decides whether the current signature failure is worth the extra work of full forensics.
+     */
+    private boolean forensics() {
+        switch (this.diagnosticsMode) {
+            case FULL:
+                return true;
+            case SAMPLED:
+                return this.signatureFailures.incrementAndGet() % this.diagnosticsSampleRate == 0;
+            default:
+                return false;
+        }
+    }
+
+    private static Element child(final Element parent, final String ns, final String localName) {
+        for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node.getNodeType() == Node.ELEMENT_NODE && localName.equals(node.getLocalName())
+                    && ns.equals(node.getNamespaceURI())) {
+                return (Element) node;
+            }
+        }
+        return null;
+    }
+
+    /*
+     * A signature location and the locations of the elements it must sign, the body first.
+     */
+    private static final class Binding {
+
+        final ElementLocator signature;
+        final ElementLocator[] elements;
+
+        Binding(final ElementLocator signature, final List<ElementLocator> elements) {
+            this.signature = signature;
+            this.elements = elements.toArray(new ElementLocator[elements.size()]);
+        }
+    }
+
+    /*
+     * State of one binding during a single validation, written by the thread verifying it.
+     */
+    private static final class Signed {
+
+        final Element[] elements;
+        final Element body;
+        final Element signature;
+        ValidationResult.Timer timer;
+        XMLSignature xmlSignature;
+        String keyId;
+        FailureCode code;
+        String detail;
+
+        Signed(final Element[] elements, final Element signature) {
+            this.elements = elements;
+            this.body = elements[0];
+            this.signature = signature;
+        }
+
+        boolean fail(final FailureCode code, final String detail) {
+            this.code = code;
+            this.detail = detail;
+            return false;
+        }
+    }
+
+}
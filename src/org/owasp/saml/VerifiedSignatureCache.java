@@ -0,0 +1,176 @@
+/*
+ * Copyright Pawel Krawczyk (c) 2014.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.saml;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import javax.xml.XMLConstants;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded cache of signature values that were already verified, shared by engines that
+ * validate the same tokens many times, for example on retries or when a token is
+ * forwarded between services.
+ * <p>
+ * An entry records that a given SignedInfo, with a given SignatureValue, verified with a
+ * given trusted key. When the same combination is seen again the public key operation is
+ * skipped. The document is still parsed and schema validated, and the reference digests are
+ * still computed, so a cached signature can never vouch for a body other than the one it
+ * signed.
+ * <p>
+ * Entries expire at the earliest NotOnOrAfter of the assertion conditions in the signed body,
+ * or after the maximum time to live, whichever comes first. When the cache is full, expired
+ * entries are dropped first and then those closest to expiry. Disabled unless set with
+ * {@link Validator#setVerifiedSignatureCache(VerifiedSignatureCache)}.
+ */
+public final class VerifiedSignatureCache {
+
+    private final ExpiringSet signatures;
+
+    /**
+     * @param maxEntries maximum number of remembered signatures
+     * @param maxTtl     maximum time an entry is kept, also for assertions without NotOnOrAfter
+     * @param unit       unit of maxTtl
+     */
+    public VerifiedSignatureCache(final int maxEntries, final long maxTtl, final TimeUnit unit) {
+        this.signatures = new ExpiringSet(maxEntries, unit.toMillis(maxTtl));
+    }
+
+    /*
+     * True if the signature identified by the key was verified before and has not expired.
+     */
+    boolean contains(final String key) {
+        return this.signatures.contains(key);
+    }
+
+    /*
+     * Remembers a verified signature until notOnOrAfter, in milliseconds since the epoch, but no
+     * longer than the maximum time to live.
+     */
+    void put(final String key, final long notOnOrAfter) {
+        this.signatures.add(key, notOnOrAfter);
+    }
+
+    /**
+     * Forgets all remembered signatures, for example after the trusted keys have changed.
+     */
+    public void clear() {
+        this.signatures.clear();
+    }
+
+    /**
+     * @return number of remembered signatures, including expired ones not yet dropped
+     */
+    public int size() {
+        return this.signatures.size();
+    }
+
+    /**
+     * @return number of lookups that found a verified signature
+     */
+    public long getHits() {
+        return this.signatures.getHits();
+    }
+
+    /**
+     * @return number of lookups that did not
+     */
+    public long getMisses() {
+        return this.signatures.getMisses();
+    }
+
+    /*
+     * Cache key of a signature: SHA-256 over everything the canonical form of SignedInfo can depend
+     * on, the SignatureValue and the key id. Hashing the DOM structure directly avoids running the
+     * canonicalization twice, and it is conservative: the SignedInfo subtree with names, namespaces,
+     * attributes and text, plus the namespace declarations and xml:* attributes inherited from the
+     * ancestors, which inclusive canonicalization would pull in. Equal keys mean equal canonical
+     * SignedInfo, so a signature value verified once over it stays valid.
+     */
+    static String key(final Element signedInfo, final Element signatureValue, final String keyId) {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        for (Node n = signedInfo.getParentNode(); n != null && n.getNodeType() == Node.ELEMENT_NODE; n = n.getParentNode()) {
+            NamedNodeMap attributes = n.getAttributes();
+            for (int i = 0; i < attributes.getLength(); i++) {
+                Attr attr = (Attr) attributes.item(i);
+                String ns = attr.getNamespaceURI();
+                if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(ns) || XMLConstants.XML_NS_URI.equals(ns)) {
+                    update(md, 'I', attr.getName(), attr.getValue());
+                }
+            }
+        }
+        hash(md, signedInfo);
+        update(md, 'V', signatureValue.getTextContent().replaceAll("\\s", ""), keyId);
+        return SigningKeys.hex(md.digest());
+    }
+
+    private static void hash(final MessageDigest md, final Node node) {
+        switch (node.getNodeType()) {
+            case Node.ELEMENT_NODE:
+                update(md, 'E', node.getNamespaceURI(), node.getNodeName());
+                NamedNodeMap attributes = node.getAttributes();
+                for (int i = 0; i < attributes.getLength(); i++) {
+                    Attr attr = (Attr) attributes.item(i);
+                    update(md, 'A', attr.getNamespaceURI(), attr.getName(), attr.getValue());
+                }
+                for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+                    hash(md, child);
+                }
+                update(md, 'e');
+                break;
+            case Node.TEXT_NODE:
+            case Node.CDATA_SECTION_NODE:
+                update(md, 'T', node.getNodeValue());
+                break;
+            case Node.COMMENT_NODE:
+                update(md, 'C', node.getNodeValue());
+                break;
+            case Node.PROCESSING_INSTRUCTION_NODE:
+                update(md, 'P', node.getNodeName(), node.getNodeValue());
+                break;
+            default:
+                update(md, '?', node.getNodeName(), node.getNodeValue());
+                break;
+        }
+    }
+
+    /*
+     * Length-prefixed fields, so that no two different sequences of strings hash the same input.
+     */
+    private static void update(final MessageDigest md, final char tag, final String... values) {
+        md.update((byte) tag);
+        for (String value : values) {
+            if (value == null) {
+                md.update((byte) 0xff);
+                continue;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            md.update((byte) (bytes.length >>> 24));
+            md.update((byte) (bytes.length >>> 16));
+            md.update((byte) (bytes.length >>> 8));
+            md.update((byte) bytes.length);
+            md.update(bytes);
+        }
+    }
+
+}
@@ -0,0 +1,396 @@
+/*
+ * Copyright Pawel Krawczyk (c) 2014.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.owasp.saml;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import javax.xml.XMLConstants;
+import javax.xml.crypto.dsig.CanonicalizationMethod;
+import javax.xml.crypto.dsig.DigestMethod;
+import javax.xml.crypto.dsig.SignedInfo;
+import javax.xml.crypto.dsig.XMLSignatureFactory;
+import javax.xml.crypto.dsig.dom.DOMSignContext;
+import javax.xml.crypto.dsig.keyinfo.KeyInfo;
+import javax.xml.crypto.dsig.keyinfo.KeyInfoFactory;
+import javax.xml.crypto.dsig.spec.C14NMethodParameterSpec;
+import javax.xml.crypto.dsig.spec.TransformParameterSpec;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Eager initialization of an engine before it serves real documents.
+ * <p>
+ * The first validation in a JVM is many times slower than the following ones: XML, XPath and
+ * signature factories are looked up, JCA providers and algorithms are initialized and nothing
+ * is compiled by the JIT yet. {@link #run(ValidatorEngine, int, byte[])} pays this cost up
+ * front in two parts:
+ * <ul>
+ * <li>the engine's parser pool is filled and, if the caller supplies a sample document, the
+ * sample is validated with the engine itself, exercising its own parsers, compiled schema,
+ * element locators and keys;</li>
+ * <li>synthetic documents, signed with throwaway keys, are validated with every signature
+ * algorithm the engine's {@link SignaturePolicy} allows and the generator supports. These run
+ * on a separate engine compiled for the SOAP schema, so they only warm state shared by the
+ * whole JVM (factories, JCA providers, JIT-compiled code), not the given engine's schema or
+ * caches. SHA-1 is left out: current JDKs forbid it under secure validation, and an algorithm
+ * the runtime still rejects is skipped.</li>
+ * </ul>
+ * Deployments can report ready only after the warm-up finished.
+ * <p>
+ * {@link #main(String[])} runs the same warm-up in a fresh JVM and reports the time to the
+ * first validation. Run it with {@code -XX:DumpLoadedClassList=validator.classlist} (JDK 8u40
+ * and later) or {@code -XX:ArchiveClassesAtExit=validator.jsa} (JDK 13 and later) to produce
+ * the class list or the AppCDS archive for the application's startup.
+ */
+public final class WarmUp {
+
+    private final static Logger LOG = Logger.getLogger(WarmUp.class.getName());
+
+    private static final String RSA_SHA256 = "http://www.w3.org/2001/04/xmldsig-more#rsa-sha256";
+    private static final String ECDSA_SHA256 = "http://www.w3.org/2001/04/xmldsig-more#ecdsa-sha256";
+    private static final String SOAP_NS = "http://schemas.xmlsoap.org/soap/envelope/";
+    private static final String WSU_NS = "http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-utility-1.0.xsd";
+
+    private static final String[] ALGORITHMS = {RSA_SHA256, ECDSA_SHA256};
+
+    private WarmUp() {
+    }
+
+    /**
+     * Warms up an engine without a sample document: only the parser pool of the engine itself
+     * is filled, the synthetic validations warm the JVM-wide state.
+     *
+     * @param engine     engine to warm up
+     * @param iterations number of validations per signature algorithm
+     * @return timings of the warm-up
+     * @throws Exception if the synthetic documents cannot be generated or validated
+     * @see #run(ValidatorEngine, int, byte[])
+     */
+    public static Report run(final ValidatorEngine engine, final int iterations) throws Exception {
+        return run(engine, iterations, null);
+    }
+
+    /**
+     * Warms up an engine. The sample, if given, is validated {@code iterations} times (at least
+     * once) with the engine itself; it goes through the engine's listener, signature cache and
+     * replay store like any other document, so with a replay store all but the first validation
+     * fail with {@link FailureCode#REPLAYED}, which still exercises the parse, schema and signature
+     * path. A sample that fails validation does not fail the warm-up, its result is reported.
+     * <p>
+     * The synthetic documents are SOAP envelopes, validated with the SOAP schema from the
+     * engine's catalog by an engine compiled for them; if the catalog has no SOAP schema they
+     * are skipped.
+     *
+     * @param engine     engine to warm up
+     * @param iterations number of validations of the sample and per signature algorithm
+     * @param sample     document representative of the engine's traffic, may be null
+     * @return timings of the warm-up
+     * @throws Exception if the synthetic documents cannot be generated or validated
+     */
+    public static Report run(final ValidatorEngine engine, final int iterations, final byte[] sample) throws Exception {
+        long start = System.nanoTime();
+        XMLSignatureFactory.getInstance("DOM");
+        engine.getParserPool().prefill();
+
+        long first = 0;
+        long sampleTotal = 0;
+        ValidationResult sampleResult = null;
+        int sampleRuns = sample == null ? 0 : Math.max(1, iterations);
+        for (int i = 0; i < sampleRuns; i++) {
+            sampleResult = engine.validate(sample);
+            if (first == 0) {
+                first = sampleResult.getTotalNanos();
+            }
+            sampleTotal += sampleResult.getTotalNanos();
+        }
+        if (sampleResult != null && !sampleResult.isValid()) {
+            LOG.warning("Warm-up sample rejected by the engine: " + sampleResult);
+        }
+
+        /*
+         * Keys and documents are prepared first: generating RSA keys takes long, but it is not
+         * what a real first validation pays for. The synthetic engines share one schema cache,
+         * so the SOAP schema is compiled once for all of them.
+         */
+        Map<String, ValidatorEngine> engines = new LinkedHashMap<>();
+        Map<String, byte[]> documents = new LinkedHashMap<>();
+        SchemaCatalog catalog = engine.getSchemaCatalog();
+        if (!catalog.contains("soap-envelope.xsd")) {
+            LOG.warning("No soap-envelope.xsd in the schema catalog, skipping synthetic validations");
+        } else {
+            SchemaCache schemas = new SchemaCache();
+            SignaturePolicy policy = engine.getSignaturePolicy();
+            for (String algorithm : ALGORITHMS) {
+                if (policy != null && !policy.getSignatureMethods().contains(algorithm)) {
+                    continue;
+                }
+                Synthetic generator = new Synthetic(algorithm);
+                Validator val = new Validator(generator.getSigningKeys(), "soap-envelope.xsd",
+                        "/soape:Envelope/soape:Header/wsse:Security/ds:Signature",
+                        "/soape:Envelope/soape:Body");
+                val.setIdAttribute(WSU_NS, "Id");
+                val.setSchemaCatalog(catalog);
+                val.setParserPoolSize(1);
+                engines.put(algorithm, new ValidatorEngine(val, schemas));
+                documents.put(algorithm, generator.generate());
+            }
+        }
+
+        Map<String, Long> algorithms = new LinkedHashMap<>();
+        for (Map.Entry<String, ValidatorEngine> entry : engines.entrySet()) {
+            byte[] document = documents.get(entry.getKey());
+            long total = 0;
+            boolean rejected = false;
+            for (int i = 0; i < iterations && !rejected; i++) {
+                ValidationResult result = entry.getValue().validate(document);
+                if (!result.isValid()) {
+                    /*
+                     * The policy allows the algorithm but the runtime may not (e.g. the JDK's
+                     * secure validation policy): nothing to warm up then.
+                     */
+                    if (i > 0) {
+                        throw new IllegalStateException("Synthetic document rejected: " + result);
+                    }
+                    LOG.fine("Skipping " + entry.getKey() + " in warm-up: " + result);
+                    rejected = true;
+                    continue;
+                }
+                if (first == 0) {
+                    first = result.getTotalNanos();
+                }
+                total += result.getTotalNanos();
+            }
+            if (!rejected) {
+                algorithms.put(entry.getKey(), iterations == 0 ? 0 : total / iterations);
+            }
+        }
+
+        Report report = new Report(first, System.nanoTime() - start, sampleResult,
+                sampleRuns == 0 ? 0 : sampleTotal / sampleRuns, algorithms);
+        LOG.info("Warm-up done: " + report);
+        return report;
+    }
+
+    /**
+     * Timings of a warm-up.
+     */
+    public static final class Report {
+
+        private final long firstValidationNanos;
+        private final long totalNanos;
+        private final ValidationResult sampleResult;
+        private final long sampleMeanNanos;
+        private final Map<String, Long> meanNanos;
+
+        Report(final long firstValidationNanos, final long totalNanos, final ValidationResult sampleResult,
+               final long sampleMeanNanos, final Map<String, Long> meanNanos) {
+            this.firstValidationNanos = firstValidationNanos;
+            this.totalNanos = totalNanos;
+            this.sampleResult = sampleResult;
+            this.sampleMeanNanos = sampleMeanNanos;
+            this.meanNanos = Collections.unmodifiableMap(meanNanos);
+        }
+
+        /**
+         * @param unit time unit
+         * @return duration of the first, cold validation, 0 if none was made; this is the
+         * first validation of the sample by the engine itself if a sample was given, of a
+         * synthetic document otherwise
+         */
+        public long getFirstValidation(final TimeUnit unit) {
+            return unit.convert(this.firstValidationNanos, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * @param unit time unit
+         * @return duration of the whole warm-up
+         */
+        public long getTotal(final TimeUnit unit) {
+            return unit.convert(this.totalNanos, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * @return result of the last validation of the sample by the warmed-up engine, null if
+         * no sample was given
+         */
+        public ValidationResult getSampleResult() {
+            return this.sampleResult;
+        }
+
+        /**
+         * @param unit time unit
+         * @return mean time the warmed-up engine took to validate the sample, 0 without a sample
+         */
+        public long getSampleMean(final TimeUnit unit) {
+            return unit.convert(this.sampleMeanNanos, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * @return mean validation time in nanoseconds by signature algorithm, measured on the
+         * synthetic engines and not on the warmed-up engine
+         */
+        public Map<String, Long> getMeanNanos() {
+            return this.meanNanos;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("first=").append(getFirstValidation(TimeUnit.MICROSECONDS)).append("us");
+            sb.append(" total=").append(getTotal(TimeUnit.MILLISECONDS)).append("ms");
+            if (this.sampleResult != null) {
+                sb.append(" sample=").append(getSampleMean(TimeUnit.MICROSECONDS)).append("us")
+                        .append(this.sampleResult.isValid() ? "" : "(" + this.sampleResult.getFailureCode() + ")");
+            }
+            for (Map.Entry<String, Long> entry : this.meanNanos.entrySet()) {
+                String algorithm = entry.getKey();
+                sb.append(' ').append(algorithm.substring(algorithm.lastIndexOf('#') + 1))
+                        .append('=').append(TimeUnit.NANOSECONDS.toMicros(entry.getValue())).append("us");
+            }
+            return sb.toString();
+        }
+    }
+
+    /*
+     * Signed SOAP envelopes with the layout of the sample documents, carrying a small SAML 2.0
+     * assertion. The key pair is generated for each instance and thrown away with it.
+     */
+    private static final class Synthetic {
+
+        private final String signatureMethod;
+        private final KeyPair keyPair;
+
+        Synthetic(final String signatureMethod) throws GeneralSecurityException {
+            KeyPairGenerator generator;
+            if (ECDSA_SHA256.equals(signatureMethod)) {
+                generator = KeyPairGenerator.getInstance("EC");
+                generator.initialize(new ECGenParameterSpec("secp256r1"));
+            } else {
+                generator = KeyPairGenerator.getInstance("RSA");
+                generator.initialize(2048);
+            }
+            this.signatureMethod = signatureMethod;
+            this.keyPair = generator.generateKeyPair();
+        }
+
+        SigningKeys getSigningKeys() {
+            return new SigningKeys.Builder().addPublicKey(this.keyPair.getPublic()).build();
+        }
+
+        byte[] generate() throws Exception {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            Document doc = factory.newDocumentBuilder().newDocument();
+
+            Element envelope = doc.createElementNS(SOAP_NS, "soape:Envelope");
+            envelope.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, "xmlns:soape", SOAP_NS);
+            doc.appendChild(envelope);
+            Element security = append(append(envelope, SOAP_NS, "soape:Header"), SigningKeys.WSSE_NS, "wsse:Security");
+            security.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, "xmlns:wsse", SigningKeys.WSSE_NS);
+            Element body = append(envelope, SOAP_NS, "soape:Body");
+            body.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, "xmlns:wsu", WSU_NS);
+            body.setAttributeNS(WSU_NS, "wsu:Id", "body");
+
+            Element assertion = append(body, SamlAssertion.SAML2_NS, "saml2:Assertion");
+            assertion.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, "xmlns:saml2", SamlAssertion.SAML2_NS);
+            assertion.setAttribute("ID", "assertion");
+            assertion.setAttribute("IssueInstant", "2014-01-01T00:00:00Z");
+            assertion.setAttribute("Version", "2.0");
+            append(assertion, SamlAssertion.SAML2_NS, "saml2:Issuer").setTextContent("https://idp.example.org/");
+            Element subject = append(assertion, SamlAssertion.SAML2_NS, "saml2:Subject");
+            append(subject, SamlAssertion.SAML2_NS, "saml2:NameID").setTextContent("user@example.org");
+            Element statement = append(assertion, SamlAssertion.SAML2_NS, "saml2:AttributeStatement");
+            for (int i = 0; i < 6; i++) {
+                Element attribute = append(statement, SamlAssertion.SAML2_NS, "saml2:Attribute");
+                attribute.setAttribute("Name", "attribute-" + i);
+                append(attribute, SamlAssertion.SAML2_NS, "saml2:AttributeValue").setTextContent("value of attribute " + i);
+            }
+
+            XMLSignatureFactory fac = XMLSignatureFactory.getInstance("DOM");
+            KeyInfoFactory kif = fac.getKeyInfoFactory();
+            KeyInfo keyInfo = kif.newKeyInfo(Collections.singletonList(kif.newKeyValue(this.keyPair.getPublic())));
+            DOMSignContext context = new DOMSignContext(this.keyPair.getPrivate(), security);
+            context.setIdAttributeNS(body, WSU_NS, "Id");
+            context.setDefaultNamespacePrefix("ds");
+            SignedInfo signedInfo = fac.newSignedInfo(
+                    fac.newCanonicalizationMethod(CanonicalizationMethod.EXCLUSIVE, (C14NMethodParameterSpec) null),
+                    fac.newSignatureMethod(this.signatureMethod, null),
+                    Collections.singletonList(fac.newReference("#body", fac.newDigestMethod(DigestMethod.SHA256, null),
+                            Collections.singletonList(fac.newTransform(CanonicalizationMethod.EXCLUSIVE, (TransformParameterSpec) null)),
+                            null, null)));
+            fac.newXMLSignature(signedInfo, keyInfo).sign(context);
+
+            Transformer transformer = TransformerFactory.newInstance().newTransformer();
+            transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            transformer.transform(new DOMSource(doc), new StreamResult(out));
+            return out.toByteArray();
+        }
+
+        private static Element append(final Element parent, final String ns, final String name) {
+            Element child = parent.getOwnerDocument().createElementNS(ns, name);
+            parent.appendChild(child);
+            return child;
+        }
+    }
+
+    /**
+     * Startup benchmark: compiles an engine over a schema directory, warms it up with a synthetic
+     * sample signed for that engine and prints the time from JVM start to the first validation
+     * and the warm-up timings.
+     * <p>
+     * Usage: {@code WarmUp [schemas directory] [iterations]}
+     *
+     * @param args schema directory (default "schemas") and iterations per algorithm (default 200)
+     * @throws Exception if the warm-up fails
+     */
+    public static void main(final String[] args) throws Exception {
+        File schemas = new File(args.length > 0 ? args[0] : "schemas");
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        Synthetic generator = new Synthetic(RSA_SHA256);
+        byte[] sample = generator.generate();
+        long compileStart = System.nanoTime();
+        Validator val = new Validator(generator.getSigningKeys(), "soap-envelope.xsd",
+                "/soape:Envelope/soape:Header/wsse:Security/ds:Signature",
+                "/soape:Envelope/soape:Body");
+        val.setIdAttribute(WSU_NS, "Id");
+        val.setSchemaCatalog(SchemaCatalog.fromDirectory(schemas));
+        ValidatorEngine engine = val.compile();
+        long compiled = System.nanoTime() - compileStart;
+
+        Report report = run(engine, iterations, sample);
+        long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+        System.out.println("engine compiled in " + TimeUnit.NANOSECONDS.toMillis(compiled) + "ms");
+        System.out.println("first validation took " + report.getFirstValidation(TimeUnit.MICROSECONDS) + "us");
+        System.out.println("warm " + uptime + "ms after JVM start");
+        System.out.println(report);
+    }
+
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright Pawel Krawczyk (c) 2013.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package test.org.owasp.saml;
+
+import org.junit.Test;
+import org.owasp.saml.AsyncValidator;
+import org.owasp.saml.Phase;
+import org.owasp.saml.ValidationListener;
+import org.owasp.saml.ValidationResult;
+import org.owasp.saml.Validator;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * AsyncValidator Tester.
+ */
+public class AsyncValidatorTest {
+
+    /*
+     * Holds the worker thread in the first phase of validation until opened.
+     */
+    private static final class Gate implements ValidationListener {
+
+        volatile CountDownLatch started = new CountDownLatch(1);
+        volatile CountDownLatch open = new CountDownLatch(0);
+
+        @Override
+        public void phaseCompleted(final Phase phase, final long nanos) {
+            if (phase == Phase.PARSE) {
+                this.started.countDown();
+                try {
+                    this.open.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override
+        public void validationCompleted(final ValidationResult result) {
+        }
+
+        void close() {
+            this.started = new CountDownLatch(1);
+            this.open = new CountDownLatch(1);
+        }
+    }
+
+    @Test
+    public void saturated_validator_rejects_and_expires_documents() throws Exception {
+        Gate gate = new Gate();
+        Validator val = new Validator("documents/signer1.der", "schemas/soap-envelope.xsd",
+                "/soape:Envelope/soape:Header/wsse:Security/ds:Signature",
+                "/soape:Envelope/soape:Body");
+        val.setIdAttribute("http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-utility-1.0.xsd", "Id");
+        val.setValidationListener(gate);
+        byte[] document = Files.readAllBytes(Paths.get("documents/file0.xml"));
+
+        try (AsyncValidator async = new AsyncValidator(val.compile(), 1, 1)) {
+            assertEquals(2, async.getMaxInFlight());
+
+            gate.close();
+            CompletableFuture<ValidationResult> running = async.validateAsync(document);
+            assertTrue(gate.started.await(10, TimeUnit.SECONDS));
+            CompletableFuture<ValidationResult> queued = async.validateAsync(document);
+            CompletableFuture<ValidationResult> shed = async.validateAsync(document);
+            assertTrue(shed.isCompletedExceptionally());
+            try {
+                shed.get();
+                fail("saturated validator must reject");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof RejectedExecutionException);
+            }
+            assertEquals(1, async.getRejected());
+            assertEquals(1, async.getQueued());
+
+            gate.open.countDown();
+            assertTrue(running.get().isValid());
+            assertTrue(queued.get().isValid());
+
+            gate.close();
+            running = async.validateAsync(document);
+            assertTrue(gate.started.await(10, TimeUnit.SECONDS));
+            CompletableFuture<ValidationResult> late = async.validateAsync(document, 50, TimeUnit.MILLISECONDS);
+            try {
+                late.get(10, TimeUnit.SECONDS);
+                fail("document must expire in the queue");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof TimeoutException);
+            }
+            gate.open.countDown();
+            assertTrue(running.get().isValid());
+            assertEquals(1, async.getExpired());
+        }
+    }
+
+    @Test
+    public void errors_thrown_during_validation_fail_the_future() throws Exception {
+        Validator val = new Validator("documents/signer1.der", "schemas/soap-envelope.xsd",
+                "/soape:Envelope/soape:Header/wsse:Security/ds:Signature",
+                "/soape:Envelope/soape:Body");
+        val.setIdAttribute("http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-utility-1.0.xsd", "Id");
+        val.setValidationListener(new ValidationListener() {
+            @Override
+            public void phaseCompleted(final Phase phase, final long nanos) {
+            }
+
+            @Override
+            public void validationCompleted(final ValidationResult result) {
+                throw new AssertionError("listener failed");
+            }
+        });
+        byte[] document = Files.readAllBytes(Paths.get("documents/file0.xml"));
+
+        try (AsyncValidator async = new AsyncValidator(val.compile(), 1, 0)) {
+            try {
+                async.validateAsync(document).get(10, TimeUnit.SECONDS);
+                fail("error must fail the future");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof AssertionError);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright Pawel Krawczyk (c) 2013.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package test.org.owasp.saml;
+
+import org.junit.Test;
+import org.owasp.saml.FailureCode;
+import org.owasp.saml.IdpRegistry;
+import org.owasp.saml.ValidationResult;
+import org.owasp.saml.Validator;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * IdpRegistry Tester.
+ */
+public class IdpRegistryTest {
+
+    /*
+     * Configurations of the partners, as if read from a metadata store.
+     */
+    private static final class Partners implements IdpRegistry.Loader {
+
+        final Map<String, SignedDocumentGenerator> generators = new HashMap<>();
+        final List<String> loaded = new ArrayList<>();
+
+        Partners(final int count) throws GeneralSecurityException {
+            for (int i = 0; i < count; i++) {
+                String issuer = "https://idp" + i + ".example.org/";
+                this.generators.put(issuer, new SignedDocumentGenerator(SignedDocumentGenerator.RSA_SHA256, i).issuer(issuer));
+            }
+        }
+
+        @Override
+        public synchronized Validator load(final String issuer) throws IOException {
+            this.loaded.add(issuer);
+            SignedDocumentGenerator generator = this.generators.get(issuer);
+            if (generator == null) {
+                return null;
+            }
+            Validator val = new Validator(generator.getSigningKeys(), "schemas/soap-envelope.xsd",
+                    "/soape:Envelope/soape:Header/wsse:Security/ds:Signature",
+                    "/soape:Envelope/soape:Body");
+            val.setIdAttribute("http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-utility-1.0.xsd", "Id");
+            val.setParserPoolSize(1);
+            return val;
+        }
+
+        byte[] document(final int i) throws Exception {
+            return this.generators.get("https://idp" + i + ".example.org/").generate();
+        }
+    }
+
+    @Test
+    public void documents_are_validated_with_their_issuers_configuration() throws Exception {
+        Partners partners = new Partners(3);
+        IdpRegistry registry = new IdpRegistry(partners, 10 * 1024 * 1024);
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals("https://idp" + i + ".example.org/", registry.issuer(partners.document(i)));
+            ValidationResult result = registry.validate(partners.document(i));
+            assertTrue(result.isValid());
+            assertEquals("https://idp" + i + ".example.org/", result.getIssuer());
+        }
+        assertTrue(registry.validate(partners.document(0)).isValid());
+        assertEquals(3, registry.size());
+        assertEquals(3, partners.loaded.size());
+        assertEquals(1, registry.getHits());
+        // all partners use the same schemas
+        assertEquals(1, registry.getSchemaCount());
+        assertSame(registry.getEngine("https://idp1.example.org/"), registry.getEngine("https://idp1.example.org/"));
+
+        // a document signed by one partner but claiming to come from another
+        String forged = new String(partners.document(0), "UTF-8").replace("https://idp0.example.org/", "https://idp1.example.org/");
+        assertEquals(FailureCode.SIGNATURE_VALUE_MISMATCH, registry.validate(forged.getBytes("UTF-8")).getFailureCode());
+
+        String unknown = new String(partners.document(0), "UTF-8").replace("https://idp0.example.org/", "https://evil.example.org/");
+        assertEquals(FailureCode.UNKNOWN_ISSUER, registry.validate(unknown.getBytes("UTF-8")).getFailureCode());
+        assertNull(registry.getEngine("https://evil.example.org/"));
+        assertEquals(3, registry.size());
+        assertEquals(FailureCode.UNKNOWN_ISSUER, registry.validate("<a/>".getBytes("UTF-8")).getFailureCode());
+    }
+
+    @Test
+    public void signed_body_must_come_from_the_routing_issuer() throws Exception {
+        Partners partners = new Partners(2);
+        IdpRegistry registry = new IdpRegistry(partners, 10 * 1024 * 1024);
+
+        // partner 0 signs an assertion in the name of partner 1 and routes it to its own keys
+        String impersonating = new String(partners.generators.get("https://idp0.example.org/")
+                .issuer("https://idp1.example.org/").generate(), "UTF-8");
+        String routed = impersonating.replace("<soape:Header>", "<soape:Header>"
+                + "<saml2:Issuer xmlns:saml2=\"urn:oasis:names:tc:SAML:2.0:assertion\">https://idp0.example.org/</saml2:Issuer>");
+        assertEquals("https://idp0.example.org/", registry.issuer(routed.getBytes("UTF-8")));
+        assertTrue(registry.getEngine("https://idp0.example.org/").validate(routed.getBytes("UTF-8")).isValid());
+
+        ValidationResult result = registry.validate(routed.getBytes("UTF-8"));
+        assertEquals(FailureCode.ISSUER_MISMATCH, result.getFailureCode());
+        assertNull(result.getIssuer());
+        assertEquals(FailureCode.SIGNATURE_VALUE_MISMATCH, registry.validate(impersonating.getBytes("UTF-8")).getFailureCode());
+    }
+
+    @Test
+    public void cold_issuers_are_evicted_within_budget() throws Exception {
+        Partners partners = new Partners(4);
+        IdpRegistry registry = new IdpRegistry(partners, 1);
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(registry.validate(partners.document(i)).isValid());
+            // the most recently used engine is always kept
+            assertEquals(1, registry.size());
+            assertTrue(registry.getWeight() > registry.getMaxWeight());
+        }
+        assertEquals(3, registry.getEvictions());
+        // the shared schema counts once
+        assertEquals(1, registry.getSchemaCount());
+        assertTrue(registry.getSchemaWeight() > 0);
+
+        long engineWeight = registry.getWeight() - registry.getSchemaWeight();
+        registry = new IdpRegistry(partners, engineWeight * 2 + registry.getSchemaWeight());
+        registry.validate(partners.document(0));
+        registry.validate(partners.document(1));
+        registry.validate(partners.document(0));
+        registry.validate(partners.document(2));
+        assertEquals(2, registry.size());
+        partners.loaded.clear();
+        // 1 was the least recently used
+        registry.validate(partners.document(0));
+        registry.validate(partners.document(2));
+        assertTrue(partners.loaded.isEmpty());
+        registry.validate(partners.document(1));
+        assertEquals(1, partners.loaded.size());
+
+        registry.invalidate("https://idp1.example.org/");
+        assertEquals(1, registry.size());
+        assertEquals(1, registry.getSchemaCount());
+        registry.clear();
+        assertEquals(0, registry.size());
+        assertEquals(0, registry.getWeight());
+        assertEquals(0, registry.getSchemaCount());
+    }
+
+}
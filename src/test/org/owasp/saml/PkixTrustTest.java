@@ -0,0 +1,102 @@
+/*
+ * Copyright Pawel Krawczyk (c) 2013.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package test.org.owasp.saml;
+
+import org.junit.Test;
+import org.owasp.saml.FailureCode;
+import org.owasp.saml.PkixTrust;
+import org.owasp.saml.ValidationResult;
+import org.owasp.saml.Validator;
+import org.owasp.saml.ValidatorEngine;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * PkixTrust Tester.
+ * <p>
+ * signer3 and signer4 are issued by the test CA in ca.der; signer4 is listed in crl.der.
+ */
+public class PkixTrustTest {
+
+    private static SignedDocumentGenerator signer(final String file) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream in = new FileInputStream(file)) {
+            keyStore.load(in, "changeit".toCharArray());
+        }
+        return new SignedDocumentGenerator(SignedDocumentGenerator.RSA_SHA256,
+                (PrivateKey) keyStore.getKey("signer", "changeit".toCharArray()),
+                (X509Certificate) keyStore.getCertificate("signer"));
+    }
+
+    private static ValidatorEngine engine(final PkixTrust trust) throws Exception {
+        Validator val = new Validator("documents/signer1.der", "schemas/soap-envelope.xsd",
+                "/soape:Envelope/soape:Header/wsse:Security/ds:Signature",
+                "/soape:Envelope/soape:Body");
+        val.setIdAttribute("http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-utility-1.0.xsd", "Id");
+        val.setPkixTrust(trust);
+        return val.compile();
+    }
+
+    @Test
+    public void certificates_in_key_info_are_validated_against_anchors_and_crls() throws Exception {
+
+        PkixTrust trust = new PkixTrust.Builder()
+                .addTrustAnchorFile("documents/ca.der")
+                .addCrlFile("documents/crl.der")
+                .build();
+        ValidatorEngine engine = engine(trust);
+        byte[] trusted = signer("documents/signer3.p12").generate();
+        byte[] revoked = signer("documents/signer4.p12").generate();
+
+        ValidationResult result = engine.validate(trusted);
+        assertTrue(result.toString(), result.isValid());
+        assertEquals(1, trust.getCachedPaths());
+        assertEquals(0, trust.getCacheHits());
+
+        // the path is not built again
+        assertTrue(engine.validate(trusted).isValid());
+        assertEquals(1, trust.getCacheHits());
+
+        assertEquals(FailureCode.UNTRUSTED_CERTIFICATE, engine.validate(revoked).getFailureCode());
+        assertEquals(1, trust.getCachedPaths());
+
+        // signatures without a certificate are still verified with the pinned keys
+        assertTrue(engine.validate("documents/file0.xml").isValid());
+
+    }
+
+    @Test
+    public void paths_need_an_anchor_and_a_crl() throws Exception {
+
+        byte[] trusted = signer("documents/signer3.p12").generate();
+        byte[] revoked = signer("documents/signer4.p12").generate();
+
+        ValidatorEngine other = engine(new PkixTrust.Builder().addTrustAnchorFile("documents/signer1.der").revocation(false).build());
+        assertEquals(FailureCode.UNTRUSTED_CERTIFICATE, other.validate(trusted).getFailureCode());
+
+        ValidatorEngine noCrl = engine(new PkixTrust.Builder().addTrustAnchorFile("documents/ca.der").build());
+        assertEquals(FailureCode.UNTRUSTED_CERTIFICATE, noCrl.validate(trusted).getFailureCode());
+
+        ValidatorEngine unchecked = engine(new PkixTrust.Builder().addTrustAnchorFile("documents/ca.der").revocation(false).build());
+        assertTrue(unchecked.validate(trusted).isValid());
+        assertTrue(unchecked.validate(revoked).isValid());
+
+    }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright Pawel Krawczyk (c) 2013.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package test.org.owasp.saml;
+
+import org.junit.Test;
+import org.owasp.saml.FailureCode;
+import org.owasp.saml.ReloadingValidator;
+import org.owasp.saml.Validator;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ReloadingValidator Tester.
+ */
+public class ReloadingValidatorTest {
+
+    @Test
+    public void rotated_certificate_is_picked_up() throws Exception {
+        Path directory = Files.createTempDirectory("saml-keys");
+        Path key = directory.resolve("signer.der");
+        Files.copy(Paths.get("documents/signer2.der"), key);
+        byte[] document = Files.readAllBytes(Paths.get("documents/file0.xml"));
+
+        Validator val = new Validator(key.toString(), "schemas/soap-envelope.xsd",
+                "/soape:Envelope/soape:Header/wsse:Security/ds:Signature",
+                "/soape:Envelope/soape:Body");
+        val.setIdAttribute("http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-utility-1.0.xsd", "Id");
+
+        try (ReloadingValidator reloading = new ReloadingValidator(val)) {
+            assertEquals(FailureCode.SIGNATURE_VALUE_MISMATCH, reloading.validate(document).getFailureCode());
+
+            // a broken certificate leaves the old engine in use
+            Path partial = directory.resolve("signer.tmp");
+            Files.write(partial, new byte[]{0x30, 0x03});
+            Files.move(partial, key, StandardCopyOption.REPLACE_EXISTING);
+            await(reloading, 0, 1);
+            assertNotNull(reloading.getLastError());
+            assertEquals(FailureCode.SIGNATURE_VALUE_MISMATCH, reloading.validate(document).getFailureCode());
+
+            Files.copy(Paths.get("documents/signer1.der"), partial);
+            Files.move(partial, key, StandardCopyOption.REPLACE_EXISTING);
+            await(reloading, 1, 1);
+            assertTrue(reloading.validate(document).isValid());
+            assertTrue(reloading.getLastReloadTime(TimeUnit.NANOSECONDS) > 0);
+        } finally {
+            Files.deleteIfExists(key);
+            Files.deleteIfExists(directory.resolve("signer.tmp"));
+            Files.delete(directory);
+        }
+    }
+
+    private static void await(final ReloadingValidator reloading, final long reloads, final long failures) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30000;
+        while ((reloading.getReloads() < reloads || reloading.getFailures() < failures) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(reloads, reloading.getReloads());
+        assertEquals(failures, reloading.getFailures());
+    }
+
+}
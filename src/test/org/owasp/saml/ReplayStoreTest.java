@@ -0,0 +1,94 @@
+/*
+ * Copyright Pawel Krawczyk (c) 2013.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package test.org.owasp.saml;
+
+import org.junit.Test;
+import org.owasp.saml.FailureCode;
+import org.owasp.saml.InMemoryReplayStore;
+import org.owasp.saml.ReplayStore;
+import org.owasp.saml.Validator;
+import org.owasp.saml.ValidatorEngine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ReplayStore Tester.
+ */
+public class ReplayStoreTest {
+
+    /*
+     * Stands in for a shared store such as a cache cluster.
+     */
+    private static final class SharedStore implements ReplayStore {
+
+        final Map<String, Long> entries = new HashMap<>();
+        final List<Long> expiries = new ArrayList<>();
+
+        @Override
+        public synchronized boolean markIfAbsent(final String key, final long expiresAt) {
+            this.expiries.add(expiresAt);
+            return this.entries.put(key, expiresAt) == null;
+        }
+    }
+
+    @Test
+    public void replayed_document_is_rejected() throws Exception {
+        SharedStore store = new SharedStore();
+
+        Validator val = new Validator("documents/signer1.der", "schemas/soap-envelope.xsd",
+                "/soape:Envelope/soape:Header/wsse:Security/ds:Signature",
+                "/soape:Envelope/soape:Body");
+        val.setIdAttribute("http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-utility-1.0.xsd", "Id");
+        val.setReplayStore(store, 10, TimeUnit.MINUTES);
+        ValidatorEngine engine = val.compile();
+
+        // a forged document is not recorded
+        assertEquals(FailureCode.REFERENCE_DIGEST_MISMATCH, engine.validate("documents/file1.xml").getFailureCode());
+        assertTrue(store.entries.isEmpty());
+
+        long before = System.currentTimeMillis();
+        assertTrue(engine.validate("documents/file0.xml").isValid());
+        assertEquals(1, store.entries.size());
+        assertTrue(store.entries.keySet().iterator().next().endsWith("id-2A66FBEDF2F5EA95CA13809224774714"));
+        // no NotOnOrAfter in the sample document, the window applies
+        assertTrue(store.expiries.get(0) >= before + TimeUnit.MINUTES.toMillis(10));
+
+        // file2.xml is a copy of file0.xml
+        assertEquals(FailureCode.REPLAYED, engine.validate("documents/file2.xml").getFailureCode());
+        assertFalse(engine.validate("documents/file0.xml").isValid());
+    }
+
+    @Test
+    public void in_memory_store_forgets_expired_keys() throws Exception {
+        InMemoryReplayStore store = new InMemoryReplayStore(10, TimeUnit.MILLISECONDS);
+        long now = System.currentTimeMillis();
+
+        assertTrue(store.markIfAbsent("a", now + 50));
+        assertFalse(store.markIfAbsent("a", now + 50));
+        assertTrue(store.markIfAbsent("b", now + 60000));
+
+        Thread.sleep(100);
+        assertTrue(store.markIfAbsent("a", System.currentTimeMillis() + 50));
+        assertFalse(store.markIfAbsent("b", System.currentTimeMillis() + 50));
+        // "a" was purged with its bucket and recorded again
+        assertEquals(2, store.size());
+    }
+
+}
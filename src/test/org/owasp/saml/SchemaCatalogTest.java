@@ -0,0 +1,67 @@
+/*
+ * Copyright Pawel Krawczyk (c) 2013.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package test.org.owasp.saml;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.owasp.saml.SchemaCatalog;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * SchemaCatalog Tester.
+ */
+public class SchemaCatalogTest {
+
+    private static SchemaCatalog catalog;
+
+    @BeforeClass
+    public static void load() throws IOException {
+        catalog = SchemaCatalog.fromDirectory(new File("schemas"));
+    }
+
+    @Test
+    public void resolves_by_file_name_in_url() {
+        assertTrue(catalog.contains("http://www.w3.org/2001/xml.xsd"));
+        assertTrue(catalog.contains("http://www.w3.org/TR/xmldsig-core/xmldsig-core-schema.xsd"));
+    }
+
+    @Test
+    public void resolves_by_namespace() {
+        assertTrue(catalog.contains("urn:oasis:names:tc:SAML:2.0:assertion"));
+        assertTrue(catalog.contains("urn:oasis:names:tc:SAML:1.0:protocol"));
+        assertTrue(catalog.contains("http://www.w3.org/2000/09/xmldsig#"));
+        assertTrue(catalog.contains("http://www.w3.org/2001/10/xml-exc-c14n#"));
+        assertTrue(catalog.contains("http://schemas.xmlsoap.org/ws/2004/08/addressing/"));
+    }
+
+    @Test
+    public void resolves_by_public_id() throws IOException {
+        try (InputStream in = catalog.open("-//W3C//DTD XMLSchema 200102//EN", "http://example.com/unknown.dtd")) {
+            assertNotNull(in);
+        }
+    }
+
+    @Test
+    public void unknown_entity_is_not_resolved() {
+        assertFalse(catalog.contains("http://example.com/evil.xsd"));
+        assertNull(catalog.open(null, "urn:example:unknown"));
+    }
+
+}
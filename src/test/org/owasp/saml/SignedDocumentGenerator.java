@@ -0,0 +1,341 @@
+/*
+ * Copyright Pawel Krawczyk (c) 2014.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package test.org.owasp.saml;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.owasp.saml.SigningKeys;
+
+import javax.xml.XMLConstants;
+import javax.xml.crypto.dsig.CanonicalizationMethod;
+import javax.xml.crypto.dsig.DigestMethod;
+import javax.xml.crypto.dsig.Reference;
+import javax.xml.crypto.dsig.SignatureMethod;
+import javax.xml.crypto.dsig.SignedInfo;
+import javax.xml.crypto.dsig.Transform;
+import javax.xml.crypto.dsig.XMLSignatureFactory;
+import javax.xml.crypto.dsig.dom.DOMSignContext;
+import javax.xml.crypto.dsig.keyinfo.KeyInfo;
+import javax.xml.crypto.dsig.keyinfo.KeyInfoFactory;
+import javax.xml.crypto.dsig.spec.C14NMethodParameterSpec;
+import javax.xml.crypto.dsig.spec.TransformParameterSpec;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.ByteArrayOutputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.cert.X509Certificate;
+import java.security.spec.ECGenParameterSpec;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Generates signed SOAP envelopes carrying a SAML 2.0 assertion, for benchmarks and tests.
+ * <p>
+ * Documents have the layout of the sample documents: the signature is at
+ * {@code /soape:Envelope/soape:Header/wsse:Security/ds:Signature}, the signed body at
+ * {@code /soape:Envelope/soape:Body} and references use the {@code wsu:Id} attribute.
+ * The key pair is derived from a seed, so the same settings always produce the same key
+ * and, for RSA, byte-for-byte the same document. ECDSA signature values differ between
+ * runs but always verify with the same key.
+ * <p>
+ * Kept with the tests, out of the library: the keys are predictable by design.
+ */
+public final class SignedDocumentGenerator {
+
+    /**
+     * RSA PKCS#1 v1.5 with SHA-1, as in the sample documents.
+     */
+    public static final String RSA_SHA1 = SignatureMethod.RSA_SHA1;
+    /**
+     * RSA PKCS#1 v1.5 with SHA-256.
+     */
+    public static final String RSA_SHA256 = "http://www.w3.org/2001/04/xmldsig-more#rsa-sha256";
+    /**
+     * ECDSA on curve P-256 with SHA-256.
+     */
+    public static final String ECDSA_SHA256 = "http://www.w3.org/2001/04/xmldsig-more#ecdsa-sha256";
+
+    static final String SOAP_NS = "http://schemas.xmlsoap.org/soap/envelope/";
+    static final String WSSE_NS = "http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-secext-1.0.xsd";
+    static final String WSU_NS = "http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-utility-1.0.xsd";
+    static final String SAML2_NS = "urn:oasis:names:tc:SAML:2.0:assertion";
+
+    private final String signatureMethod;
+    private final KeyPair keyPair;
+    private final X509Certificate certificate;
+    private String digestMethod = DigestMethod.SHA256;
+    private int bodySize = 1024;
+    private int references = 1;
+    private boolean signedAssertion = false;
+    private boolean signedTimestamp = false;
+    private String issuer = "https://idp.example.org/";
+    private Date notBefore = new Date(1388534400000L); // 2014-01-01T00:00:00Z
+    private Date notOnOrAfter = new Date(4102444800000L); // 2100-01-01T00:00:00Z
+
+    /**
+     * @param signatureMethod signature algorithm, one of {@link #RSA_SHA1}, {@link #RSA_SHA256} or {@link #ECDSA_SHA256}
+     * @param seed            seed of the key pair
+     * @throws GeneralSecurityException if the key pair cannot be generated
+     */
+    public SignedDocumentGenerator(final String signatureMethod, final long seed) throws GeneralSecurityException {
+        SecureRandom random = SecureRandom.getInstance("SHA1PRNG");
+        random.setSeed(seed);
+        KeyPairGenerator generator;
+        if (ECDSA_SHA256.equals(signatureMethod)) {
+            generator = KeyPairGenerator.getInstance("EC");
+            generator.initialize(new ECGenParameterSpec("secp256r1"), random);
+        } else if (RSA_SHA1.equals(signatureMethod) || RSA_SHA256.equals(signatureMethod)) {
+            generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048, random);
+        } else {
+            throw new IllegalArgumentException("Unsupported signature method " + signatureMethod);
+        }
+        this.signatureMethod = signatureMethod;
+        this.keyPair = generator.generateKeyPair();
+        this.certificate = null;
+    }
+
+    /**
+     * Signs with an existing key and puts its certificate into KeyInfo, for testing certificate
+     * path validation.
+     *
+     * @param signatureMethod signature algorithm matching the key
+     * @param privateKey      signing key
+     * @param certificate     certificate of the signing key
+     */
+    public SignedDocumentGenerator(final String signatureMethod, final PrivateKey privateKey, final X509Certificate certificate) {
+        this.signatureMethod = signatureMethod;
+        this.keyPair = new KeyPair(certificate.getPublicKey(), privateKey);
+        this.certificate = certificate;
+    }
+
+    /**
+     * @param digestMethod digest algorithm of the references, SHA-256 by default
+     * @return this generator
+     */
+    public SignedDocumentGenerator digestMethod(final String digestMethod) {
+        this.digestMethod = digestMethod;
+        return this;
+    }
+
+    /**
+     * @param bytes approximate size of the signed body; the assertion is padded with attributes to reach it
+     * @return this generator
+     */
+    public SignedDocumentGenerator bodySize(final int bytes) {
+        this.bodySize = bytes;
+        return this;
+    }
+
+    /**
+     * @param count number of signed references; all of them point at the body, which is the only element
+     *              the validator registers as a reference target, so the digest work grows with the count
+     * @return this generator
+     */
+    public SignedDocumentGenerator references(final int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("at least one reference is needed");
+        }
+        this.references = count;
+        return this;
+    }
+
+    /**
+     * @param signed whether the assertion carries an enveloped signature of its own, at
+     *               {@code /soape:Envelope/soape:Body/saml2:Assertion/ds:Signature} and referencing
+     *               the assertion ID, as individually signed assertions in SAML responses do
+     * @return this generator
+     */
+    public SignedDocumentGenerator signedAssertion(final boolean signed) {
+        this.signedAssertion = signed;
+        return this;
+    }
+
+    /**
+     * @param signed whether the envelope signature also covers a {@code wsu:Timestamp} in the
+     *               security header, with a second reference, as WS-Security senders do
+     * @return this generator
+     */
+    public SignedDocumentGenerator signedTimestamp(final boolean signed) {
+        this.signedTimestamp = signed;
+        return this;
+    }
+
+    /**
+     * @param issuer entity id of the assertion issuer
+     * @return this generator
+     */
+    public SignedDocumentGenerator issuer(final String issuer) {
+        this.issuer = issuer;
+        return this;
+    }
+
+    /**
+     * @param notBefore    start of the assertion validity
+     * @param notOnOrAfter end of the assertion validity
+     * @return this generator
+     */
+    public SignedDocumentGenerator validity(final Date notBefore, final Date notOnOrAfter) {
+        this.notBefore = notBefore;
+        this.notOnOrAfter = notOnOrAfter;
+        return this;
+    }
+
+    /**
+     * @return a key set trusting the public key of this generator
+     */
+    public SigningKeys getSigningKeys() {
+        return new SigningKeys.Builder().addPublicKey(this.keyPair.getPublic()).build();
+    }
+
+    /**
+     * @return a new signed document
+     * @throws GeneralSecurityException if the document cannot be signed
+     */
+    public byte[] generate() throws GeneralSecurityException {
+        try {
+            return serialize(sign(build()));
+        } catch (GeneralSecurityException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new GeneralSecurityException("Cannot generate document: " + e.getMessage(), e);
+        }
+    }
+
+    private Document build() throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        Document doc = factory.newDocumentBuilder().newDocument();
+
+        Element envelope = doc.createElementNS(SOAP_NS, "soape:Envelope");
+        envelope.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, "xmlns:soape", SOAP_NS);
+        doc.appendChild(envelope);
+        Element header = append(envelope, SOAP_NS, "soape:Header");
+        Element security = append(header, WSSE_NS, "wsse:Security");
+        security.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, "xmlns:wsse", WSSE_NS);
+        security.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, "xmlns:wsu", WSU_NS);
+
+        Element body = append(envelope, SOAP_NS, "soape:Body");
+        body.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, "xmlns:wsu", WSU_NS);
+        body.setAttributeNS(WSU_NS, "wsu:Id", "body");
+
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.ROOT);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        if (this.signedTimestamp) {
+            Element timestamp = append(security, WSU_NS, "wsu:Timestamp");
+            timestamp.setAttributeNS(WSU_NS, "wsu:Id", "timestamp");
+            append(timestamp, WSU_NS, "wsu:Created").setTextContent(format.format(this.notBefore));
+        }
+
+        Element assertion = append(body, SAML2_NS, "saml2:Assertion");
+        assertion.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, "xmlns:saml2", SAML2_NS);
+        assertion.setAttribute("ID", "assertion");
+        assertion.setAttribute("IssueInstant", format.format(this.notBefore));
+        assertion.setAttribute("Version", "2.0");
+        append(assertion, SAML2_NS, "saml2:Issuer").setTextContent(this.issuer);
+        Element subject = append(assertion, SAML2_NS, "saml2:Subject");
+        append(subject, SAML2_NS, "saml2:NameID").setTextContent("user@example.org");
+        Element conditions = append(assertion, SAML2_NS, "saml2:Conditions");
+        conditions.setAttribute("NotBefore", format.format(this.notBefore));
+        conditions.setAttribute("NotOnOrAfter", format.format(this.notOnOrAfter));
+        Element statement = append(assertion, SAML2_NS, "saml2:AttributeStatement");
+        // each attribute adds a little over 100 bytes
+        for (int i = 0; i * 110 < this.bodySize - 400; i++) {
+            Element attribute = append(statement, SAML2_NS, "saml2:Attribute");
+            attribute.setAttribute("Name", "attribute-" + i);
+            append(attribute, SAML2_NS, "saml2:AttributeValue").setTextContent("value of attribute " + i);
+        }
+        return doc;
+    }
+
+    private static Element append(final Element parent, final String ns, final String name) {
+        Element child = parent.getOwnerDocument().createElementNS(ns, name);
+        parent.appendChild(child);
+        return child;
+    }
+
+    private Document sign(final Document doc) throws Exception {
+        XMLSignatureFactory fac = XMLSignatureFactory.getInstance("DOM");
+        KeyInfoFactory kif = fac.getKeyInfoFactory();
+        KeyInfo keyInfo = this.certificate != null
+                ? kif.newKeyInfo(Collections.singletonList(kif.newX509Data(Collections.singletonList(this.certificate))))
+                : kif.newKeyInfo(Collections.singletonList(kif.newKeyValue(this.keyPair.getPublic())));
+
+        if (this.signedAssertion) {
+            // signed first, so that the signature over the body covers it; it goes after the Issuer as the schema requires
+            Element assertion = (Element) doc.getElementsByTagNameNS(SAML2_NS, "Assertion").item(0);
+            DOMSignContext assertionContext = new DOMSignContext(this.keyPair.getPrivate(), assertion,
+                    doc.getElementsByTagNameNS(SAML2_NS, "Subject").item(0));
+            assertionContext.setIdAttributeNS(assertion, null, "ID");
+            List<Transform> transforms = new ArrayList<>();
+            transforms.add(fac.newTransform(Transform.ENVELOPED, (TransformParameterSpec) null));
+            transforms.add(fac.newTransform(CanonicalizationMethod.EXCLUSIVE, (TransformParameterSpec) null));
+            SignedInfo assertionInfo = fac.newSignedInfo(
+                    fac.newCanonicalizationMethod(CanonicalizationMethod.EXCLUSIVE, (C14NMethodParameterSpec) null),
+                    fac.newSignatureMethod(this.signatureMethod, null),
+                    Collections.singletonList(fac.newReference("#assertion", fac.newDigestMethod(this.digestMethod, null),
+                            transforms, null, null)));
+            assertionContext.setDefaultNamespacePrefix("ds");
+            fac.newXMLSignature(assertionInfo, keyInfo).sign(assertionContext);
+        }
+
+        Element security = (Element) doc.getElementsByTagNameNS(WSSE_NS, "Security").item(0);
+        DOMSignContext context = new DOMSignContext(this.keyPair.getPrivate(), security);
+
+        Element body = (Element) doc.getElementsByTagNameNS(SOAP_NS, "Body").item(0);
+        context.setIdAttributeNS(body, WSU_NS, "Id");
+
+        List<Reference> refs = new ArrayList<>();
+        for (int i = 0; i < this.references; i++) {
+            refs.add(fac.newReference("#body", fac.newDigestMethod(this.digestMethod, null),
+                    Collections.singletonList(fac.newTransform(CanonicalizationMethod.EXCLUSIVE, (TransformParameterSpec) null)),
+                    null, null));
+        }
+        if (this.signedTimestamp) {
+            Element timestamp = (Element) doc.getElementsByTagNameNS(WSU_NS, "Timestamp").item(0);
+            context.setIdAttributeNS(timestamp, WSU_NS, "Id");
+            refs.add(fac.newReference("#timestamp", fac.newDigestMethod(this.digestMethod, null),
+                    Collections.singletonList(fac.newTransform(CanonicalizationMethod.EXCLUSIVE, (TransformParameterSpec) null)),
+                    null, null));
+        }
+
+        SignedInfo signedInfo = fac.newSignedInfo(
+                fac.newCanonicalizationMethod(CanonicalizationMethod.EXCLUSIVE, (C14NMethodParameterSpec) null),
+                fac.newSignatureMethod(this.signatureMethod, null), refs);
+        context.setDefaultNamespacePrefix("ds");
+        fac.newXMLSignature(signedInfo, keyInfo).sign(context);
+        return doc;
+    }
+
+    private static byte[] serialize(final Document doc) throws Exception {
+        Transformer transformer = TransformerFactory.newInstance().newTransformer();
+        transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        transformer.transform(new DOMSource(doc), new StreamResult(out));
+        return out.toByteArray();
+    }
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright Pawel Krawczyk (c) 2013.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package test.org.owasp.saml;
+
+import org.junit.Test;
+import org.owasp.saml.FailureCode;
+import org.owasp.saml.LatencyHistogram;
+import org.owasp.saml.Phase;
+import org.owasp.saml.ValidationMetrics;
+import org.owasp.saml.Validator;
+import org.owasp.saml.ValidatorEngine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ValidationMetrics and LatencyHistogram Tester.
+ */
+public class ValidationMetricsTest {
+
+    @Test
+    public void histogram_percentiles_are_within_precision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 100000; i++) {
+            histogram.record(i * 1000);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(100000, snapshot.getCount());
+        assertEquals(100000000, snapshot.getMax());
+        assertEquals(50000500, snapshot.getMean(), 1);
+        long p50 = snapshot.getValueAtPercentile(50);
+        long p99 = snapshot.getValueAtPercentile(99);
+        assertTrue("p50=" + p50, Math.abs(p50 - 50000000) < 50000000 * 0.035);
+        assertTrue("p99=" + p99, Math.abs(p99 - 99000000) < 99000000 * 0.035);
+        assertEquals(100000000, snapshot.getValueAtPercentile(100));
+        assertEquals(0, new LatencyHistogram().snapshot().getValueAtPercentile(99));
+    }
+
+    @Test
+    public void metrics_count_outcomes_and_phases() throws Exception {
+        ValidationMetrics metrics = new ValidationMetrics();
+
+        Validator val = new Validator("documents/signer1.der", "schemas/soap-envelope.xsd",
+                "/soape:Envelope/soape:Header/wsse:Security/ds:Signature",
+                "/soape:Envelope/soape:Body");
+        val.setIdAttribute("http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-utility-1.0.xsd", "Id");
+        val.setValidationListener(metrics);
+        ValidatorEngine engine = val.compile();
+
+        engine.validate("documents/file0.xml");
+        engine.validate("documents/file1.xml");
+        engine.validate("documents/file2.xml");
+
+        ValidationMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(3, snapshot.getCount());
+        assertEquals(2, snapshot.getCount(FailureCode.NONE));
+        assertEquals(1, snapshot.getCount(FailureCode.REFERENCE_DIGEST_MISMATCH));
+        assertEquals(3, snapshot.getPhase(Phase.PARSE).getCount());
+        assertEquals(3, snapshot.getPhase(Phase.SIGNATURE).getCount());
+        assertEquals(0, snapshot.getPhase(Phase.PRE_SCREEN).getCount());
+        assertEquals(3, snapshot.getSignatureAlgorithms().get("http://www.w3.org/2000/09/xmldsig#rsa-sha1").getCount());
+        assertTrue(snapshot.getTotal().getMax() > 0);
+    }
+
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright Pawel Krawczyk (c) 2013.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package test.org.owasp.saml;
+
+import org.junit.Test;
+import org.owasp.saml.ValidationMetrics;
+import org.owasp.saml.ValidatorClient;
+import org.owasp.saml.ValidatorDaemon;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * ValidatorDaemon Tester.
+ */
+public class ValidatorDaemonTest {
+
+    @Test
+    public void daemon_returns_verdicts() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("profiles", "sts");
+        properties.setProperty("sts.key", "documents/signer1.der");
+        properties.setProperty("sts.schema", "schemas/soap-envelope.xsd");
+        properties.setProperty("sts.signature", "/soape:Envelope/soape:Header/wsse:Security/ds:Signature");
+        properties.setProperty("sts.body", "/soape:Envelope/soape:Body");
+        properties.setProperty("sts.idNamespace", "http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-utility-1.0.xsd");
+        properties.setProperty("sts.idAttribute", "Id");
+
+        ValidationMetrics metrics = new ValidationMetrics();
+        try (ValidatorDaemon daemon = new ValidatorDaemon(ValidatorDaemon.loadProfiles(properties, metrics), metrics, 0, 2)) {
+            daemon.start();
+            ValidatorClient client = new ValidatorClient(daemon.getPort());
+
+            String verdict;
+            try (InputStream in = new FileInputStream("documents/file0.xml")) {
+                verdict = client.validate("sts", in);
+            }
+            assertTrue(verdict, ValidatorClient.isValid(verdict));
+            assertTrue(verdict, verdict.contains("\"code\":\"NONE\""));
+
+            try (InputStream in = new FileInputStream("documents/file1.xml")) {
+                verdict = client.validate("sts", in);
+            }
+            assertFalse(verdict, ValidatorClient.isValid(verdict));
+            assertTrue(verdict, verdict.contains("\"code\":\"REFERENCE_DIGEST_MISMATCH\""));
+
+            try (InputStream in = new FileInputStream("documents/file0.xml")) {
+                client.validate("idp", in);
+                fail("unknown profile accepted");
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("404"));
+            }
+            assertEquals(2, metrics.snapshot().getCount());
+        }
+    }
+
+}
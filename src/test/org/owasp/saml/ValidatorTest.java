@@ -12,20 +12,61 @@
 package test.org.owasp.saml;
 
 import org.junit.Test;
+import org.owasp.saml.BatchValidator;
+import org.owasp.saml.BodyForm;
+import org.owasp.saml.Claims;
+import org.owasp.saml.DiagnosticsMode;
+import org.owasp.saml.DocumentBuilderPool;
+import org.owasp.saml.FailureCode;
+import org.owasp.saml.Forensics;
+import org.owasp.saml.Phase;
+import org.owasp.saml.PrefixRegistry;
+import org.owasp.saml.ResourceLimits;
+import org.owasp.saml.SchemaCatalog;
+import org.owasp.saml.SignaturePolicy;
+import org.owasp.saml.SigningKeys;
+import org.owasp.saml.ValidationResult;
 import org.owasp.saml.Validator;
+import org.owasp.saml.ValidatorEngine;
+import org.owasp.saml.VerifiedSignatureCache;
+import org.owasp.saml.WarmUp;
+import org.w3c.dom.Element;
 import org.xml.sax.SAXException;
 
 import javax.xml.crypto.MarshalException;
 import javax.xml.crypto.dsig.XMLSignatureException;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.xpath.XPathExpressionException;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.security.KeyStoreException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
 import java.security.spec.InvalidKeySpecException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -86,5 +127,601 @@ public class ValidatorTest {
 
     }
 
+    @Test
+    public void engine_is_shared_between_threads() throws Exception {
+
+        Validator val = new Validator("documents/signer1.der", "schemas/soap-envelope.xsd",
+                // basic XPath syntax
+                "/soape:Envelope/soape:Header/wsse:Security/ds:Signature",
+                "/soape:Envelope/soape:Body");
+
+        // soap-envelope.xsd does not specify Id field so XML signature validator will crash if this is not specified
+        val.setIdAttribute("http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-utility-1.0.xsd", "Id");
+
+        final ValidatorEngine engine = val.compile();
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<ValidationResult>> results = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                final String input = i % 2 == 0 ? "documents/file0.xml" : "documents/file1.xml";
+                results.add(pool.submit(new Callable<ValidationResult>() {
+                    @Override
+                    public ValidationResult call() throws Exception {
+                        return engine.validate(input);
+                    }
+                }));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                ValidationResult result = results.get(i).get();
+                assertEquals(i % 2 == 0, result.isValid());
+                assertEquals(i % 2 == 0, result.getBody() != null);
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+    }
+
+    @Test
+    public void schema_is_loaded_from_catalog() throws Exception {
+
+        // the schema file is not in the working directory, only in the catalog
+        Validator val = new Validator("documents/signer1.der", "soap-envelope.xsd",
+                "/soape:Envelope/soape:Header/wsse:Security/ds:Signature",
+                "/soape:Envelope/soape:Body");
+        val.setSchemaCatalog(SchemaCatalog.fromDirectory(new File("schemas")));
+        val.setIdAttribute("http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-utility-1.0.xsd", "Id");
+
+        assertTrue(val.validate("documents/file0.xml"));
+
+    }
+
+    @Test
+    public void success_with_overlapping_keys() throws Exception {
+
+        // old and new signing certificate during a key rollover
+        SigningKeys keys = SigningKeys.fromFiles("documents/signer2.der", "documents/signer1.der");
+
+        Validator val = new Validator(keys, "schemas/soap-envelope.xsd",
+                "/soape:Envelope/soape:Header/wsse:Security/ds:Signature",
+                "/soape:Envelope/soape:Body");
+        val.setIdAttribute("http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-utility-1.0.xsd", "Id");
+
+        assertTrue(val.validate("documents/file0.xml"));
+        assertFalse(val.validate("documents/file1.xml"));
+
+        byte[] der = Files.readAllBytes(Paths.get("documents/signer1.der"));
+        String thumbprint = String.format("%064x", new BigInteger(1, MessageDigest.getInstance("SHA-256").digest(der)));
+        assertEquals(keys.getKeys().get(1), keys.get(thumbprint));
+
+    }
+
+    @Test
+    public void repeated_validation_on_same_instance() throws Exception {
+
+        Validator val = new Validator("documents/signer1.der", "schemas/soap-envelope.xsd",
+                "/soape:Envelope/soape:Header/wsse:Security/ds:Signature",
+                "/soape:Envelope/soape:Body");
+        val.setIdAttribute("http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-utility-1.0.xsd", "Id");
+
+        assertTrue(val.validate("documents/file0.xml"));
+        assertTrue(val.validate("documents/file0.xml"));
+
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void fail_on_unsupported_xpath() throws Exception {
+
+        Validator val = new Validator("documents/signer1.der", "schemas/soap-envelope.xsd",
+                "/soape:Envelope/soape:Header/wsse:Security/ds:Signature",
+                // predicates are not supported by the hardened path syntax
+                "/soape:Envelope/soape:Body[@wsu:Id]");
+
+        val.compile();
+
+    }
+
+    @Test
+    public void success_on_in_memory_inputs() throws Exception {
+
+        Validator val = new Validator("documents/signer1.der", "schemas/soap-envelope.xsd",
+                "/soape:Envelope/soape:Header/wsse:Security/ds:Signature",
+                "/soape:Envelope/soape:Body");
+        val.setIdAttribute("http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-utility-1.0.xsd", "Id");
+        ValidatorEngine engine = val.compile();
+
+        byte[] document = Files.readAllBytes(Paths.get("documents/file0.xml"));
+        assertTrue(engine.validate(document).isValid());
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(document.length);
+        direct.put(document).flip();
+        assertTrue(engine.validate(direct).isValid());
+        assertEquals(document.length, direct.remaining());
+
+        assertTrue(engine.validate(Paths.get("documents/file0.xml")).isValid());
+        assertFalse(engine.validate(Paths.get("documents/file1.xml")).isValid());
+
+        final boolean[] closed = {false};
+        InputStream in = new ByteArrayInputStream(document) {
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+        assertTrue(engine.validate(in).isValid());
+        assertFalse(closed[0]);
+
+    }
+
+    @Test
+    public void batch_validation_reports_each_document() throws Exception {
+
+        Validator val = new Validator("documents/signer1.der", "schemas/soap-envelope.xsd",
+                "/soape:Envelope/soape:Header/wsse:Security/ds:Signature",
+                "/soape:Envelope/soape:Body");
+        val.setIdAttribute("http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-utility-1.0.xsd", "Id");
+
+        try (BatchValidator batch = BatchValidator.forkJoin(val.compile(), 2)) {
+            List<BatchValidator.Result> results = batch.validateDirectory(Paths.get("documents"), "*.xml");
+            assertEquals(3, results.size());
+            assertTrue(results.get(0).isValid());
+            // file1.xml has the date changed in the signed assertion
+            assertFalse(results.get(1).isValid());
+            assertNotNull(results.get(1).getReason());
+            assertTrue(results.get(2).isValid());
+
+            results = batch.validate(Arrays.asList(Paths.get("documents/file0.xml"), Paths.get("documents/missing.xml")));
+            assertTrue(results.get(0).isValid());
+            assertFalse(results.get(1).isValid());
+            assertTrue(results.get(1).getError() instanceof IOException);
+        }
+
+        val.setResourceLimits(new ResourceLimits.Builder().maxBytes(1024).build());
+        try (BatchValidator batch = BatchValidator.forkJoin(val.compile(), 2)) {
+            List<BatchValidator.Result> results = batch.validate(Arrays.asList(Paths.get("documents/file0.xml")));
+            assertEquals(FailureCode.RESOURCE_LIMIT, results.get(0).getResult().getFailureCode());
+        }
+
+    }
+
+    @Test
+    public void pre_screen_rejects_wrapped_documents() throws Exception {
+
+        Validator val = new Validator("documents/signer1.der", "schemas/soap-envelope.xsd",
+                "/soape:Envelope/soape:Header/wsse:Security/ds:Signature",
+                "/soape:Envelope/soape:Body");
+        val.setIdAttribute("http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-utility-1.0.xsd", "Id");
+        val.setPreScreen(true);
+
+        String document = new String(Files.readAllBytes(Paths.get("documents/file0.xml")), "UTF-8");
+        assertTrue(val.validate(document.getBytes("UTF-8")));
+
+        // a second Signature element in the security header
+        String signature = document.substring(document.indexOf("<ds:Signature"), document.indexOf("</ds:Signature>") + 15);
+        String twoSignatures = document.replace(signature, signature + signature.replace("SIG-", "SIG2-")
+                .replace("KI-", "KI2-").replace("STR-", "STR2-"));
+        assertFalse(val.validate(twoSignatures.getBytes("UTF-8")));
+
+        // the signed body moved into the header with the same Id, a fake body in its place
+        String body = document.substring(document.indexOf("<soape:Body"), document.indexOf("</soape:Body>") + 13);
+        String wrapped = document.replace("</wsse:Security>", "</wsse:Security>" + body.replace("soape:Body", "soape:Wrapper"));
+        assertFalse(val.validate(wrapped.getBytes("UTF-8")));
+
+        // the root element is not the expected one
+        assertFalse(val.validate(document.replace("soape:Envelope", "soape:Fault").getBytes("UTF-8")));
+
+    }
+
+    @Test
+    public void result_reports_failure_code_and_timings() throws Exception {
+
+        Validator val = new Validator("documents/signer1.der", "schemas/soap-envelope.xsd",
+                "/soape:Envelope/soape:Header/wsse:Security/ds:Signature",
+                "/soape:Envelope/soape:Body");
+        val.setIdAttribute("http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-utility-1.0.xsd", "Id");
+        ValidatorEngine engine = val.compile();
+
+        ValidationResult result = engine.validate("documents/file0.xml");
+        assertEquals(FailureCode.NONE, result.getFailureCode());
+        assertEquals(SigningKeys.fromFiles("documents/signer1.der").getKeys().get(0).getId(), result.getKeyId());
+        assertTrue(result.getNanos(Phase.PARSE) > 0);
+        assertTrue(result.getNanos(Phase.SIGNATURE) > 0);
+        assertTrue(result.getNanos(Phase.DIGEST) > 0);
+        assertEquals(0, result.getNanos(Phase.PRE_SCREEN));
+
+        result = engine.validate("documents/file1.xml");
+        assertEquals(FailureCode.REFERENCE_DIGEST_MISMATCH, result.getFailureCode());
+        assertNull(result.getBody());
+
+        result = engine.validate("not xml".getBytes("UTF-8"));
+        assertEquals(FailureCode.SCHEMA_INVALID, result.getFailureCode());
+        assertTrue(result.getError() instanceof SAXException);
+
+        val = new Validator("documents/signer2.der", "schemas/soap-envelope.xsd",
+                "/soape:Envelope/soape:Header/wsse:Security/ds:Signature",
+                "/soape:Envelope/soape:Body");
+        val.setIdAttribute("http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-utility-1.0.xsd", "Id");
+        result = val.compile().validate("documents/file0.xml");
+        assertEquals(FailureCode.SIGNATURE_VALUE_MISMATCH, result.getFailureCode());
+        assertNull(result.getKeyId());
+
+    }
+
+    @Test
+    public void forensics_follow_diagnostics_mode() throws Exception {
+
+        Validator val = new Validator("documents/signer1.der", "schemas/soap-envelope.xsd",
+                "/soape:Envelope/soape:Header/wsse:Security/ds:Signature",
+                "/soape:Envelope/soape:Body");
+        val.setIdAttribute("http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-utility-1.0.xsd", "Id");
+
+        // fast reject is the default
+        assertNull(val.compile().validate("documents/file1.xml").getForensics());
+
+        val.setDiagnosticsMode(DiagnosticsMode.FULL);
+        ValidationResult result = val.compile().validate("documents/file1.xml");
+        Forensics forensics = result.getForensics();
+        assertTrue(forensics.isSignatureValueValid());
+        assertEquals(1, forensics.getReferences().size());
+        Forensics.ReferenceCheck reference = forensics.getReferences().get(0);
+        assertFalse(reference.isValid());
+        assertEquals("#id-2A66FBEDF2F5EA95CA13809224774714", reference.getUri());
+        assertFalse(reference.getExpectedDigest().equals(reference.getCalculatedDigest()));
+        assertNull(val.compile().validate("documents/file0.xml").getForensics());
+
+        val.setDiagnosticsMode(DiagnosticsMode.SAMPLED);
+        val.setDiagnosticsSampleRate(2);
+        ValidatorEngine engine = val.compile();
+        assertNull(engine.validate("documents/file1.xml").getForensics());
+        assertNotNull(engine.validate("documents/file1.xml").getForensics());
+
+        val = new Validator("documents/signer2.der", "schemas/soap-envelope.xsd",
+                "/soape:Envelope/soape:Header/wsse:Security/ds:Signature",
+                "/soape:Envelope/soape:Body");
+        val.setIdAttribute("http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-utility-1.0.xsd", "Id");
+        val.setDiagnosticsMode(DiagnosticsMode.FULL);
+        forensics = val.compile().validate("documents/file0.xml").getForensics();
+        assertFalse(forensics.isSignatureValueValid());
+        assertTrue(forensics.getReferences().get(0).isValid());
+
+    }
+
+    @Test
+    public void generated_documents_validate() throws Exception {
+
+        for (String method : new String[]{SignedDocumentGenerator.RSA_SHA256, SignedDocumentGenerator.ECDSA_SHA256}) {
+            SignedDocumentGenerator generator = new SignedDocumentGenerator(method, 7).bodySize(4096).references(2);
+            Validator val = new Validator(generator.getSigningKeys(), "schemas/soap-envelope.xsd",
+                    "/soape:Envelope/soape:Header/wsse:Security/ds:Signature",
+                    "/soape:Envelope/soape:Body");
+            val.setIdAttribute("http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-utility-1.0.xsd", "Id");
+            val.setSignaturePolicy(new SignaturePolicy.Builder(SignaturePolicy.defaults()).maxReferences(2).build());
+            ValidatorEngine engine = val.compile();
+
+            byte[] document = generator.generate();
+            assertTrue(document.length > 4096);
+            ValidationResult result = engine.validate(document);
+            assertTrue(result.toString(), result.isValid());
+            assertEquals(method, result.getSignatureAlgorithm());
+
+            String tampered = new String(document, "UTF-8").replace("user@example.org", "root@example.org");
+            assertEquals(FailureCode.REFERENCE_DIGEST_MISMATCH, engine.validate(tampered.getBytes("UTF-8")).getFailureCode());
+        }
+
+        // same seed, same key
+        assertEquals(new SignedDocumentGenerator(SignedDocumentGenerator.RSA_SHA256, 7).getSigningKeys().getKeys().get(0).getId(),
+                new SignedDocumentGenerator(SignedDocumentGenerator.RSA_SHA1, 7).getSigningKeys().getKeys().get(0).getId());
+
+    }
+
+    @Test
+    public void verified_signatures_are_cached_until_expiry() throws Exception {
+
+        SignedDocumentGenerator generator = new SignedDocumentGenerator(SignedDocumentGenerator.RSA_SHA256, 3);
+        VerifiedSignatureCache cache = new VerifiedSignatureCache(100, 1, TimeUnit.HOURS);
+        Validator val = new Validator(generator.getSigningKeys(), "schemas/soap-envelope.xsd",
+                "/soape:Envelope/soape:Header/wsse:Security/ds:Signature",
+                "/soape:Envelope/soape:Body");
+        val.setIdAttribute("http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-utility-1.0.xsd", "Id");
+        val.setVerifiedSignatureCache(cache);
+        ValidatorEngine engine = val.compile();
+
+        byte[] document = generator.generate();
+        assertTrue(engine.validate(document).isValid());
+        assertEquals(0, cache.getHits());
+        assertEquals(1, cache.size());
+        assertTrue(engine.validate(document).isValid());
+        assertEquals(1, cache.getHits());
+
+        // the cached signature value does not excuse a modified body
+        String tampered = new String(document, "UTF-8").replace("user@example.org", "root@example.org");
+        assertEquals(FailureCode.REFERENCE_DIGEST_MISMATCH, engine.validate(tampered.getBytes("UTF-8")).getFailureCode());
+        assertEquals(2, cache.getHits());
+
+        // assertions that are no longer valid are not cached
+        cache.clear();
+        byte[] expired = generator.validity(new Date(0), new Date(1000)).generate();
+        assertTrue(engine.validate(expired).isValid());
+        assertEquals(0, cache.size());
+
+    }
+
+    @Test
+    public void custom_prefixes_are_resolved_from_registry() throws Exception {
+
+        assertEquals("http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-utility-1.0.xsd",
+                PrefixRegistry.defaults().getNamespaceURI("wsu"));
+        assertEquals("urn:oasis:names:tc:SAML:2.0:assertion", PrefixRegistry.defaults().getNamespaceURI("saml2"));
+
+        PrefixRegistry registry = new PrefixRegistry.Builder(PrefixRegistry.defaults())
+                .add("env", "http://schemas.xmlsoap.org/soap/envelope/")
+                .add("sec", "http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-secext-1.0.xsd")
+                .add("sig", "http://www.w3.org/2000/09/xmldsig#")
+                .build();
+        assertEquals(Arrays.asList("ds", "", "sig"), registry.getPrefixes("http://www.w3.org/2000/09/xmldsig#"));
+
+        Validator val = new Validator("documents/signer1.der", "schemas/soap-envelope.xsd",
+                "/env:Envelope/env:Header/sec:Security/sig:Signature",
+                "/env:Envelope/env:Body");
+        val.setIdAttribute("http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-utility-1.0.xsd", "Id");
+        assertFalse(val.validate("documents/file0.xml"));
+        val.setPrefixRegistry(registry);
+        assertTrue(val.validate("documents/file0.xml"));
+        val.setPreScreen(true);
+        assertTrue(val.validate("documents/file0.xml"));
+
+    }
+
+    @Test
+    public void signature_policy_is_checked_before_crypto() throws Exception {
+
+        Validator val = new Validator("documents/signer1.der", "schemas/soap-envelope.xsd",
+                "/soape:Envelope/soape:Header/wsse:Security/ds:Signature",
+                "/soape:Envelope/soape:Body");
+        val.setIdAttribute("http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-utility-1.0.xsd", "Id");
+        assertTrue(val.compile().validate("documents/file0.xml").isValid());
+
+        // reference no longer points at the body
+        String document = new String(Files.readAllBytes(Paths.get("documents/file0.xml")), "UTF-8");
+        String moved = document.replace("wsu:Id=\"id-2A66FBEDF2F5EA95CA13809224774714\"", "wsu:Id=\"id-other\"");
+        ValidationResult result = val.compile().validate(moved.getBytes("UTF-8"));
+        assertEquals(FailureCode.POLICY_VIOLATION, result.getFailureCode());
+        assertTrue(result.getDetail(), result.getDetail().contains("#id-other"));
+        assertEquals(0, result.getNanos(Phase.SIGNATURE));
+
+        val.setSignaturePolicy(new SignaturePolicy.Builder(SignaturePolicy.defaults())
+                .denySignatureMethod("http://www.w3.org/2000/09/xmldsig#rsa-sha1").build());
+        result = val.compile().validate("documents/file0.xml");
+        assertEquals(FailureCode.POLICY_VIOLATION, result.getFailureCode());
+        assertNull(result.getSignatureAlgorithm());
+
+        val.setSignaturePolicy(null);
+        assertTrue(val.compile().validate("documents/file0.xml").isValid());
+
+    }
+
+    @Test
+    public void resource_limits_abort_parsing() throws Exception {
+
+        Validator val = new Validator("documents/signer1.der", "schemas/soap-envelope.xsd",
+                "/soape:Envelope/soape:Header/wsse:Security/ds:Signature",
+                "/soape:Envelope/soape:Body");
+        val.setIdAttribute("http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-utility-1.0.xsd", "Id");
+        byte[] document = Files.readAllBytes(Paths.get("documents/file0.xml"));
+        assertTrue(val.compile().validate(document).isValid());
+
+        val.setResourceLimits(new ResourceLimits.Builder().maxBytes(document.length - 1).build());
+        ValidationResult result = val.compile().validate(document);
+        assertEquals(FailureCode.RESOURCE_LIMIT, result.getFailureCode());
+        assertTrue(result.getDetail(), result.getDetail().contains("larger than"));
+
+        val.setResourceLimits(new ResourceLimits.Builder().maxDepth(4).build());
+        assertEquals(FailureCode.RESOURCE_LIMIT, val.compile().validate(document).getFailureCode());
+        val.setResourceLimits(new ResourceLimits.Builder().maxNodes(10).build());
+        assertEquals(FailureCode.RESOURCE_LIMIT, val.compile().validate(document).getFailureCode());
+        val.setResourceLimits(new ResourceLimits.Builder().maxAttributes(2).build());
+        assertEquals(FailureCode.RESOURCE_LIMIT, val.compile().validate(document).getFailureCode());
+
+        // comments, CDATA and markup inside attribute values are not counted as elements
+        String padded = new String(document, "UTF-8").replaceFirst("\\?>", "?><!-- <a><b><c><d><e> --><?pi <x>?>");
+        val.setResourceLimits(new ResourceLimits.Builder().maxDepth(9).maxNodes(40).build());
+        ValidationResult padResult = val.compile().validate(padded.getBytes("UTF-8"));
+        assertTrue(padResult.toString(), padResult.isValid());
+
+        // limits also bound the pre-screen and the buffering of streams
+        val.setPreScreen(true);
+        val.setResourceLimits(new ResourceLimits.Builder().maxBytes(1024).build());
+        assertEquals(FailureCode.RESOURCE_LIMIT, val.compile().validate(new BufferedInputStream(new ByteArrayInputStream(document)) {
+            @Override
+            public boolean markSupported() {
+                return false;
+            }
+        }).getFailureCode());
+        val.setResourceLimits(new ResourceLimits.Builder().maxDepth(4).build());
+        assertEquals(FailureCode.RESOURCE_LIMIT, val.compile().validate(document).getFailureCode());
+
+        val.setResourceLimits(new ResourceLimits.Builder().maxTime(1, TimeUnit.NANOSECONDS).build());
+        result = val.compile().validate(document);
+        assertEquals(FailureCode.RESOURCE_LIMIT, result.getFailureCode());
+        assertTrue(result.getDetail(), result.getDetail().contains("longer than"));
+
+    }
+
+    @Test
+    public void warm_up_validates_allowed_algorithms() throws Exception {
+
+        SignedDocumentGenerator generator = new SignedDocumentGenerator(SignedDocumentGenerator.RSA_SHA256, 7);
+        Validator val = new Validator(generator.getSigningKeys(), "schemas/soap-envelope.xsd",
+                "/soape:Envelope/soape:Header/wsse:Security/ds:Signature",
+                "/soape:Envelope/soape:Body");
+        val.setIdAttribute("http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-utility-1.0.xsd", "Id");
+        val.setParserPoolSize(3);
+        val.setSignaturePolicy(new SignaturePolicy.Builder(SignaturePolicy.defaults())
+                .denySignatureMethod(SignedDocumentGenerator.ECDSA_SHA256).build());
+        ValidatorEngine engine = val.compile();
+
+        WarmUp.Report report = WarmUp.run(engine, 3);
+        assertEquals(Arrays.asList(SignedDocumentGenerator.RSA_SHA256),
+                new ArrayList<>(report.getMeanNanos().keySet()));
+        assertTrue(report.getFirstValidation(TimeUnit.NANOSECONDS) > 0);
+        assertTrue(report.getTotal(TimeUnit.NANOSECONDS) >= report.getFirstValidation(TimeUnit.NANOSECONDS));
+        assertEquals(3, engine.getParserPool().getIdle());
+
+        assertTrue(engine.validate(generator.generate()).isValid());
+        assertEquals(3, engine.getParserPool().getCreated());
+        assertNull(report.getSampleResult());
+
+        report = WarmUp.run(engine, 2, generator.generate());
+        assertTrue(report.getSampleResult().isValid());
+        assertTrue(report.getSampleMean(TimeUnit.NANOSECONDS) > 0);
+        assertEquals(3, engine.getParserPool().getCreated());
+
+    }
+
+    @Test
+    public void parsers_are_reused_and_replaced_after_failure() throws Exception {
+
+        Validator val = new Validator("documents/signer1.der", "schemas/soap-envelope.xsd",
+                "/soape:Envelope/soape:Header/wsse:Security/ds:Signature",
+                "/soape:Envelope/soape:Body");
+        val.setIdAttribute("http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-utility-1.0.xsd", "Id");
+        val.setParserPoolSize(1);
+        ValidatorEngine engine = val.compile();
+        DocumentBuilderPool pool = engine.getParserPool();
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(engine.validate("documents/file0.xml").isValid());
+        }
+        assertEquals(1, pool.getCreated());
+        assertEquals(4, pool.getReused());
+        assertEquals(1, pool.getIdle());
+        assertEquals(0, pool.getLeased());
+
+        ValidationResult result = engine.validate("<soape:Envelope".getBytes("UTF-8"));
+        assertEquals(FailureCode.SCHEMA_INVALID, result.getFailureCode());
+        assertEquals(1, pool.getDiscarded());
+        assertEquals(0, pool.getIdle());
+
+        assertTrue(engine.validate("documents/file0.xml").isValid());
+        assertEquals(2, pool.getCreated());
+        assertEquals(1, pool.getIdle());
+        assertEquals(0, pool.getLeaked());
+
+    }
+
+    @Test
+    public void body_forms_do_not_keep_the_document() throws Exception {
+
+        Validator val = new Validator("documents/signer1.der", "schemas/soap-envelope.xsd",
+                "/soape:Envelope/soape:Header/wsse:Security/ds:Signature",
+                "/soape:Envelope/soape:Body");
+        val.setIdAttribute("http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-utility-1.0.xsd", "Id");
+
+        val.setBodyForm(BodyForm.DETACHED);
+        ValidationResult result = val.compile().validate("documents/file0.xml");
+        assertTrue(result.isValid());
+        Element body = result.getBody();
+        assertEquals(body, body.getOwnerDocument().getDocumentElement());
+        assertEquals("http://www.w3.org/2001/XMLSchema", body.lookupNamespaceURI("xsd"));
+        assertEquals(body, body.getOwnerDocument().getElementById("id-2A66FBEDF2F5EA95CA13809224774714"));
+        assertNull(result.getSignedBytes());
+
+        val.setBodyForm(BodyForm.CANONICAL);
+        result = val.compile().validate("documents/file0.xml");
+        assertTrue(result.isValid());
+        assertNull(result.getBody());
+        // the canonical bytes are exactly what the signed digest covers
+        assertTrue(Arrays.equals(Base64.getDecoder().decode("4WW/glKsuN3+gUPGVzf1oiq3tSo="),
+                MessageDigest.getInstance("SHA-1").digest(result.getSignedBytes())));
+
+        val.setBodyForm(BodyForm.CLAIMS);
+        result = val.compile().validate("documents/file0.xml");
+        assertTrue(result.isValid());
+        assertNull(result.getBody());
+        Claims claims = result.getClaims();
+        assertEquals("b07b804c-7c29-ea16-7300-4f3d6f7928ac", claims.getAssertionId());
+        assertNull(claims.getIssuer());
+        assertTrue(claims.getAttributes().isEmpty());
+        assertEquals(Long.MAX_VALUE, claims.getNotOnOrAfter());
+
+        result = val.compile().validate("documents/file1.xml");
+        assertFalse(result.isValid());
+        assertNull(result.getClaims());
+
+    }
+
+    @Test
+    public void all_bindings_are_verified_sequentially_or_in_parallel() throws Exception {
+
+        SignedDocumentGenerator generator = new SignedDocumentGenerator(SignedDocumentGenerator.RSA_SHA256, 5)
+                .bodySize(8192).signedAssertion(true);
+        byte[] document = generator.generate();
+        byte[] tampered = new String(document, "UTF-8").replace("user@example.org", "root@example.org").getBytes("UTF-8");
+        byte[] unsigned = new SignedDocumentGenerator(SignedDocumentGenerator.RSA_SHA256, 5).bodySize(8192).generate();
+
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            for (ForkJoinPool executor : new ForkJoinPool[]{null, pool}) {
+                Validator val = new Validator(generator.getSigningKeys(), "schemas/soap-envelope.xsd",
+                        "/soape:Envelope/soape:Header/wsse:Security/ds:Signature",
+                        "/soape:Envelope/soape:Body");
+                val.setIdAttribute("http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-utility-1.0.xsd", "Id");
+                val.addBinding("/soape:Envelope/soape:Body/saml2:Assertion/ds:Signature",
+                        "/soape:Envelope/soape:Body/saml2:Assertion");
+                val.setVerificationExecutor(executor);
+                ValidatorEngine engine = val.compile();
+
+                for (int i = 0; i < 3; i++) {
+                    ValidationResult result = engine.validate(document);
+                    assertTrue(result.toString(), result.isValid());
+                    assertEquals("Body", result.getBody().getLocalName());
+                    assertTrue(result.getNanos(Phase.DIGEST) > 0);
+                }
+                assertEquals(FailureCode.REFERENCE_DIGEST_MISMATCH, engine.validate(tampered).getFailureCode());
+                assertEquals(FailureCode.SIGNATURE_NOT_FOUND, engine.validate(unsigned).getFailureCode());
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+    }
+
+
+    @Test
+    public void one_signature_covers_several_elements() throws Exception {
+
+        SignedDocumentGenerator generator = new SignedDocumentGenerator(SignedDocumentGenerator.RSA_SHA256, 6)
+                .signedTimestamp(true);
+        byte[] document = generator.generate();
+        byte[] bodyOnly = new SignedDocumentGenerator(SignedDocumentGenerator.RSA_SHA256, 6).generate();
+
+        Validator val = new Validator(generator.getSigningKeys(), "schemas/soap-envelope.xsd",
+                "/soape:Envelope/soape:Header/wsse:Security/ds:Signature",
+                "/soape:Envelope/soape:Body");
+        val.setIdAttribute("http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-utility-1.0.xsd", "Id");
+
+        // the default policy does not accept a reference to anything but the signed elements
+        ValidationResult result = val.compile().validate(document);
+        assertEquals(FailureCode.POLICY_VIOLATION, result.getFailureCode());
+        val.setSignaturePolicy(new SignaturePolicy.Builder(SignaturePolicy.defaults()).maxReferences(2).build());
+        result = val.compile().validate(document);
+        assertEquals(FailureCode.POLICY_VIOLATION, result.getFailureCode());
+        assertTrue(result.getDetail(), result.getDetail().contains("#timestamp"));
+        val.setSignaturePolicy(SignaturePolicy.defaults());
+
+        val.addSignedElement("/soape:Envelope/soape:Header/wsse:Security/wsu:Timestamp");
+        ValidatorEngine engine = val.compile();
+        result = engine.validate(document);
+        assertTrue(result.toString(), result.isValid());
+        assertEquals("Body", result.getBody().getLocalName());
+
+        // a declared element must be present and referenced
+        assertEquals(FailureCode.BODY_NOT_FOUND, engine.validate(bodyOnly).getFailureCode());
+        String unreferenced = new String(document, "UTF-8").replace("URI=\"#timestamp\"", "URI=\"#body\"");
+        result = engine.validate(unreferenced.getBytes("UTF-8"));
+        assertEquals(FailureCode.POLICY_VIOLATION, result.getFailureCode());
+        assertTrue(result.getDetail(), result.getDetail().contains("not referenced"));
+
+    }
 
 }